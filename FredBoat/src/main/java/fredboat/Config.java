@@ -84,6 +84,9 @@ public class Config {
     private List<String> adminIds = new ArrayList<>();
     private boolean useAutoBlacklist = false;
     private String game = "";
+    private int playerIdleTtlMinutes = 60;
+    private int searchHedgeDelayMillis = 1500;
+    private int shardStartConcurrency = 1;
     private List<LavalinkHost> lavalinkHosts = new ArrayList<>();
     private String sentryDsn;
 
@@ -155,6 +158,9 @@ public class Config {
             }
             useAutoBlacklist = (boolean) config.getOrDefault("useAutoBlacklist", useAutoBlacklist);
             game = (String) config.getOrDefault("game", "");
+            playerIdleTtlMinutes = (int) config.getOrDefault("playerIdleTtl", playerIdleTtlMinutes);
+            searchHedgeDelayMillis = (int) config.getOrDefault("searchHedgeDelay", searchHedgeDelayMillis);
+            shardStartConcurrency = (int) config.getOrDefault("shardStartConcurrency", shardStartConcurrency);
 
             log.info("Using prefix: " + prefix);
 
@@ -354,6 +360,18 @@ public class Config {
         return numShards;
     }
 
+    public int getPlayerIdleTtlMinutes() {
+        return playerIdleTtlMinutes;
+    }
+
+    public int getSearchHedgeDelayMillis() {
+        return searchHedgeDelayMillis;
+    }
+
+    public int getShardStartConcurrency() {
+        return shardStartConcurrency;
+    }
+
     public String getMashapeKey() {
         return mashapeKey;
     }
@@ -42,6 +42,8 @@ import fredboat.commandmeta.CommandRegistry;
 import fredboat.commandmeta.init.MainCommandInitializer;
 import fredboat.commandmeta.init.MusicCommandInitializer;
 import fredboat.db.DatabaseManager;
+import fredboat.db.EntityWarmer;
+import fredboat.db.EntityWriter;
 import fredboat.event.EventListenerBoat;
 import fredboat.event.ShardWatchdogListener;
 import fredboat.feature.I18n;
@@ -69,24 +71,31 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public abstract class FredBoat {
 
     private static final Logger log = LoggerFactory.getLogger(FredBoat.class);
 
+    //discord lets each bucket of shards identify once every 5 seconds
     static final int SHARD_CREATION_SLEEP_INTERVAL = 5100;
 
-    private static final ArrayList<FredBoat> shards = new ArrayList<>();
+    //in the order of their ids, shards that failed to build are missing
+    private static final List<FredBoat> shards = new CopyOnWriteArrayList<>();
+    //the same shards by their id, each one set as soon as it got built
+    private static volatile AtomicReferenceArray<FredBoat> shardsById = new AtomicReferenceArray<>(0);
     public static JCA jca;
     public static final long START_TIME = System.currentTimeMillis();
     public static final int UNKNOWN_SHUTDOWN_CODE = -991023;
     public static int shutdownCode = UNKNOWN_SHUTDOWN_CODE;//Used when specifying the intended code for shutdown hooks
     static EventListenerBoat listenerBot;
     ShardWatchdogListener shardWatchdogListener = null;
-    private static AtomicInteger numShardsReady = new AtomicInteger(0);
+    private static ShardRouter shardRouter;
+    private static ShardLauncher shardLauncher;
 
     //For when we need to join a revived shard with it's old GuildPlayers
     final ArrayList<String> channelsToRejoin = new ArrayList<>();
@@ -171,6 +180,12 @@ public abstract class FredBoat {
 
         //Initialise event listeners
         listenerBot = new EventListenerBoat();
+        shardRouter = new ShardRouter(Config.CONFIG.getNumShards(), shardId -> {
+            FredBoat shard = shardId < shardsById.length() ? shardsById.get(shardId) : null;
+            return shard == null ? null : shard.getJda();
+        });
+        shardLauncher = new ShardLauncher(Config.CONFIG.getNumShards(), Config.CONFIG.getShardStartConcurrency(),
+                SHARD_CREATION_SLEEP_INTERVAL);
         LavalinkManager.ins.start();
 
         //Commands
@@ -292,18 +307,15 @@ public abstract class FredBoat {
     }
 
     private static void initBotShards(EventListener listener) {
-        for (int i = 0; i < Config.CONFIG.getNumShards(); i++) {
-            try {
-                shards.add(i, new FredBoatBot(i, listener));
-            } catch (Exception e) {
-                log.error("Caught an exception while starting shard " + i + "!", e);
-                numShardsReady.getAndIncrement();
-            }
-            try {
-                Thread.sleep(SHARD_CREATION_SLEEP_INTERVAL);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Got interrupted while setting up bot shards!", e);
-            }
+        shardsById = new AtomicReferenceArray<>(Config.CONFIG.getNumShards());
+        try {
+            shardLauncher.launch(shardId -> {
+                FredBoat shard = new FredBoatBot(shardId, listener);
+                shardsById.set(shardId, shard);
+                return shard;
+            }, shards::add);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Got interrupted while setting up bot shards!", e);
         }
 
         log.info(shards.size() + " shards have been constructed");
@@ -313,16 +325,13 @@ public abstract class FredBoat {
     public void onInit(ReadyEvent readyEvent) {
         log.info("Received ready event for " + FredBoat.getInstance(readyEvent.getJDA()).getShardInfo().getShardString());
 
-        int ready = numShardsReady.get();
-        if (ready == Config.CONFIG.getNumShards()) {
-            log.info("All " + ready + " shards are ready.");
+        EntityWarmer.warmUp(readyEvent.getJDA());
 
-            if (Config.CONFIG.getNumShards() <= 10) {
-                MusicPersistenceHandler.reloadPlaylists();
-            } else {
-                log.warn("Skipped music persistence loading! We are using more than 10 shards, so probably not a good idea to run that.");
-            }
-        }
+        //each shard reloads its own players, in parallel with the other shards
+        MusicPersistenceHandler.reloadShard(readyEvent.getJDA());
+        MusicPersistenceHandler.startCheckpoints();
+
+        shardLauncher.markReady(((FredBoatBot) this).getShardId());
 
         //Rejoin old channels if revived
         channelsToRejoin.forEach(vcid -> {
@@ -365,6 +374,9 @@ public abstract class FredBoat {
         }
 
         executor.shutdown();
+        if (!EntityWriter.flush(10000)) {
+            log.warn("Could not write all queued entities to the database before shutting down");
+        }
         dbManager.shutdown();
     };
 
@@ -426,47 +438,45 @@ public abstract class FredBoat {
         return JDAUtil.countAllUniqueUsers(shards, biggestUserCount);
     }
 
+    public static ShardLauncher getShardLauncher() {
+        return shardLauncher;
+    }
+
+    public static ShardRouter getShardRouter() {
+        return shardRouter;
+    }
+
+    public static TextChannel getTextChannelById(long id) {
+        return shardRouter.getTextChannelById(id);
+    }
+
     public static TextChannel getTextChannelById(String id) {
-        for (FredBoat fb : shards) {
-            for (TextChannel channel : fb.getJda().getTextChannels()) {
-                if (channel.getId().equals(id)) return channel;
-            }
-        }
+        return getTextChannelById(Long.parseLong(id));
+    }
 
-        return null;
+    public static VoiceChannel getVoiceChannelById(long id) {
+        return shardRouter.getVoiceChannelById(id);
     }
 
     public static VoiceChannel getVoiceChannelById(String id) {
-        for (FredBoat fb : shards) {
-            for (VoiceChannel channel : fb.getJda().getVoiceChannels()) {
-                if (channel.getId().equals(id)) return channel;
-            }
-        }
-
-        return null;
+        return getVoiceChannelById(Long.parseLong(id));
     }
 
     public static Guild getGuildById(long id) {
-        for (FredBoat fb : shards) {
-            Guild g = fb.getJda().getGuildById(id);
-            if (g != null) return g;
-        }
-
-        return null;
+        return shardRouter.getGuildById(id);
     }
 
     public static FredBoat getInstance(JDA jda) {
         int sId = jda.getShardInfo() == null ? 0 : jda.getShardInfo().getShardId();
-        for (FredBoat fb : shards) {
-            if (((FredBoatBot) fb).getShardId() == sId) {
-                return fb;
-            }
+        FredBoat fb = sId < shardsById.length() ? shardsById.get(sId) : null;
+        if (fb != null) {
+            return fb;
         }
         throw new IllegalStateException("Attempted to get instance for JDA shard that is not indexed, shardId: " + sId);
     }
 
     public static FredBoat getInstance(int id) {
-        return shards.get(id);
+        return shardsById.get(id);
     }
 
     public static JDA getFirstJDA() {
@@ -529,18 +539,4 @@ public abstract class FredBoat {
     public static DatabaseManager getDbManager() {
         return dbManager;
     }
-
-    private static volatile long lastCoinGivenOut = 0;
-
-    // if you get a coin, you are allowed to build a shard (= perform a login to discord)
-    public static synchronized boolean getShardCoin(int shardId) {
-        long now = System.currentTimeMillis();
-        if (now - lastCoinGivenOut >= SHARD_CREATION_SLEEP_INTERVAL) {
-            lastCoinGivenOut = now;
-            log.info("Coin for shard {}", shardId);
-            return true;
-        }
-        log.info("No coin for shard {}", shardId);
-        return false;
-    }
 }
@@ -73,6 +73,7 @@ public class FredBoatBot extends FredBoat {
                 JDABuilder builder = new JDABuilder(AccountType.BOT)
                         .addEventListener(new EventLogger("216689009110417408"))
                         .addEventListener(shardWatchdogListener)
+                        .addEventListener(FredBoat.getShardRouter())
                         .setToken(Config.CONFIG.getBotToken())
                         .setGame(Game.of(Config.CONFIG.getGame()))
                         .setBulkDeleteSplittingEnabled(true)
@@ -99,10 +100,7 @@ public class FredBoatBot extends FredBoat {
                     builder.useSharding(shardId, Config.CONFIG.getNumShards());
                 }
                 try {
-                    while (!getShardCoin(shardId)) {
-                        //beg aggressively for a coin
-                        Thread.sleep(1000);
-                    }
+                    FredBoat.getShardLauncher().awaitIdentifySlot(shardId);
                     if (blocking.length > 0 && blocking[0]) {
                         newJda = builder.buildBlocking();
                     } else {
@@ -167,6 +165,7 @@ public class FredBoatBot extends FredBoat {
                 //remove listeners from decommissioned jda for good memory hygiene
                 jda.removeEventListener(shardWatchdogListener);
                 jda.removeEventListener(listener);
+                jda.removeEventListener(FredBoat.getShardRouter());
 
                 jda.shutdown();
                 //a blocking build makes sure the revive task runs until the shard is connected, otherwise the shard may
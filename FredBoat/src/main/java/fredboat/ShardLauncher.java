@@ -0,0 +1,228 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Starts the shards of the bot as fast as discord lets us.
+ * <p>
+ * Discord allows a bot to start a limited amount of sessions at once, its max concurrency. The shards are split into
+ * that many buckets by shardId % concurrency, and each bucket may identify once per interval. The shards are built in
+ * parallel on a pool with one thread per bucket, up to {@link #MAX_BUILD_THREADS}, each waiting for the identify slot of
+ * its bucket, so with a concurrency of 16 a hundred shards log in within seven intervals instead of a hundred.
+ * <p>
+ * Built shards are handed out in the order of their ids, and the launcher keeps track of which shards are ready and
+ * which ones failed to build.
+ * Time is taken from a {@link GatewayClock}, so the scheduling can be verified without connecting to discord.
+ */
+public class ShardLauncher {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardLauncher.class);
+
+    //more threads than this would mostly wait on the ratelimits of the REST api while logging in
+    private static final int MAX_BUILD_THREADS = 16;
+
+    private static final Timer TIME_TO_READY = Metrics.timer("fredboat_shard_time_to_ready_seconds",
+            "Time from the launch of the shards until a shard got ready for the first time");
+
+    private final int numShards;
+    private final int concurrency;
+    private final long identifyIntervalMillis;
+    private final GatewayClock clock;
+
+    //guarded by this
+    private final long[] nextIdentifySlots;
+    private final BitSet ready = new BitSet();
+    private final BitSet failed = new BitSet();
+    private long launchStarted = -1;
+    private long timeToAllReady = -1;
+    //millis from the launch until the latest shard got ready
+    private long lastReady = -1;
+
+    public ShardLauncher(int numShards, int concurrency, long identifyIntervalMillis) {
+        this(numShards, concurrency, identifyIntervalMillis, GatewayClock.SYSTEM);
+    }
+
+    ShardLauncher(int numShards, int concurrency, long identifyIntervalMillis, GatewayClock clock) {
+        this.numShards = numShards;
+        this.concurrency = Math.max(1, concurrency);
+        this.identifyIntervalMillis = identifyIntervalMillis;
+        this.clock = clock;
+        this.nextIdentifySlots = new long[this.concurrency];
+    }
+
+    /**
+     * Builds all shards and blocks until that is done. Shards are built in parallel, but handed to the sink one after
+     * the other in the order of their ids. A shard that fails to build is skipped.
+     *
+     * @param factory builds the shard of an id, and is expected to call {@link #awaitIdentifySlot(int)} before logging
+     *                in
+     */
+    public <T> void launch(IntFunction<T> factory, Consumer<T> sink) throws InterruptedException {
+        synchronized (this) {
+            launchStarted = clock.millis();
+        }
+
+        int threads = Math.min(Math.min(concurrency, MAX_BUILD_THREADS), Math.max(1, numShards));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("shard-launcher"));
+        try {
+            List<Future<T>> built = new ArrayList<>(numShards);
+            for (int i = 0; i < numShards; i++) {
+                final int shardId = i;
+                built.add(pool.submit(() -> factory.apply(shardId)));
+            }
+
+            for (int i = 0; i < numShards; i++) {
+                try {
+                    sink.accept(built.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("Caught an exception while starting shard " + i + "!", e.getCause());
+                    //nothing to wait for
+                    markFailed(i);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Waits until the bucket of the shard may identify, and takes that slot. Every login of a shard, including the
+     * ones when it gets revived, has to go through here.
+     */
+    public void awaitIdentifySlot(int shardId) throws InterruptedException {
+        long slot = reserveIdentifySlot(shardId);
+        long wait = slot - clock.millis();
+        if (wait > 0) {
+            log.info("Shard {} waits {}ms for its identify slot", shardId, wait);
+            clock.sleep(wait);
+        }
+    }
+
+    /**
+     * @return the time on the gateway clock when the shard may identify
+     */
+    synchronized long reserveIdentifySlot(int shardId) {
+        int bucket = shardId % concurrency;
+        long slot = Math.max(clock.millis(), nextIdentifySlots[bucket]);
+        nextIdentifySlots[bucket] = slot + identifyIntervalMillis;
+        return slot;
+    }
+
+    /**
+     * To be called whenever a shard got ready, again after a revive too.
+     */
+    public synchronized void markReady(int shardId) {
+        if (ready.get(shardId)) {
+            return;
+        }
+        ready.set(shardId);
+        failed.clear(shardId);
+        lastReady = launchStarted < 0 ? 0 : clock.millis() - launchStarted;
+        TIME_TO_READY.observeNanos(TimeUnit.MILLISECONDS.toNanos(lastReady));
+        checkAllReady();
+    }
+
+    //a shard that failed to build will never get ready, so it is not waited for, and not timed either
+    private synchronized void markFailed(int shardId) {
+        if (ready.get(shardId)) {
+            return;
+        }
+        failed.set(shardId);
+        checkAllReady();
+    }
+
+    private void checkAllReady() {
+        if (timeToAllReady >= 0 || !isAllReady() || ready.isEmpty()) {
+            return;
+        }
+        timeToAllReady = lastReady;
+        if (failed.isEmpty()) {
+            log.info("All {} shards are ready, {}s after launching them", numShards, timeToAllReady / 1000.0);
+        } else {
+            log.warn("{} of {} shards are ready, {}s after launching them. Shards {} failed to start",
+                    ready.cardinality(), numShards, timeToAllReady / 1000.0, failed);
+        }
+    }
+
+    public synchronized int getReadyCount() {
+        return ready.cardinality();
+    }
+
+    public synchronized int getFailedCount() {
+        return failed.cardinality();
+    }
+
+    /**
+     * @return true if all shards are ready, apart from the ones that failed to build
+     */
+    public synchronized boolean isAllReady() {
+        return ready.cardinality() + failed.cardinality() == numShards;
+    }
+
+    /**
+     * @return millis from launching the shards until the last of them got ready, or -1 if they aren't all ready yet.
+     * Shards that failed to build are left out.
+     */
+    public synchronized long getTimeToAllReady() {
+        return timeToAllReady;
+    }
+
+    public interface GatewayClock {
+
+        GatewayClock SYSTEM = new GatewayClock() {
+            @Override
+            public long millis() {
+                return System.currentTimeMillis();
+            }
+
+            @Override
+            public void sleep(long millis) throws InterruptedException {
+                Thread.sleep(millis);
+            }
+        };
+
+        long millis();
+
+        void sleep(long millis) throws InterruptedException;
+    }
+}
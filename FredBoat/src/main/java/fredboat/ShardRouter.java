@@ -0,0 +1,208 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Channel;
+import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.TextChannel;
+import net.dv8tion.jda.core.entities.VoiceChannel;
+import net.dv8tion.jda.core.events.channel.text.TextChannelCreateEvent;
+import net.dv8tion.jda.core.events.channel.text.TextChannelDeleteEvent;
+import net.dv8tion.jda.core.events.channel.voice.VoiceChannelCreateEvent;
+import net.dv8tion.jda.core.events.channel.voice.VoiceChannelDeleteEvent;
+import net.dv8tion.jda.core.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.core.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.core.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.core.hooks.ListenerAdapter;
+
+import javax.annotation.Nullable;
+import java.util.function.IntFunction;
+
+/**
+ * Finds the shard of a guild and the guild of a channel without going through all shards.
+ * <p>
+ * The shard of a guild follows from its id, that's the formula discord uses to assign guilds to shards. The guild of a
+ * channel is looked up in an index of all text and voice channels, which is kept up to date from the events of all
+ * shards. The index is partitioned, each partition guarded by its own lock, so threads of different shards rarely
+ * contend with each other.
+ */
+public class ShardRouter extends ListenerAdapter {
+
+    private static final int PARTITION_COUNT = 64;
+
+    private final int numShards;
+    private final IntFunction<JDA> shards;
+    private final Long2LongOpenHashMap[] partitions = new Long2LongOpenHashMap[PARTITION_COUNT];
+
+    /**
+     * @param shards the jda of a shard id, or null if the shard isn't there yet
+     */
+    public ShardRouter(int numShards, IntFunction<JDA> shards) {
+        this.numShards = Math.max(1, numShards);
+        this.shards = shards;
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            partitions[i] = new Long2LongOpenHashMap();
+            partitions[i].defaultReturnValue(-1);
+        }
+    }
+
+    public int getShardId(long guildId) {
+        return (int) ((guildId >> 22) % numShards);
+    }
+
+    @Nullable
+    public JDA getJda(long guildId) {
+        return shards.apply(getShardId(guildId));
+    }
+
+    @Nullable
+    public Guild getGuildById(long guildId) {
+        JDA jda = getJda(guildId);
+        return jda == null ? null : jda.getGuildById(guildId);
+    }
+
+    @Nullable
+    public TextChannel getTextChannelById(long channelId) {
+        JDA jda = getJdaOfChannel(channelId);
+        return jda == null ? null : jda.getTextChannelById(channelId);
+    }
+
+    @Nullable
+    public VoiceChannel getVoiceChannelById(long channelId) {
+        JDA jda = getJdaOfChannel(channelId);
+        return jda == null ? null : jda.getVoiceChannelById(channelId);
+    }
+
+    /**
+     * @return id of the guild the channel belongs to, or -1 if the channel isn't known to any ready shard
+     */
+    public long getGuildIdOfChannel(long channelId) {
+        Long2LongOpenHashMap partition = getPartition(channelId);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            return partition.get(channelId);
+        }
+    }
+
+    /**
+     * @return amount of indexed channels
+     */
+    public int size() {
+        int size = 0;
+        for (Long2LongOpenHashMap partition : partitions) {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (partition) {
+                size += partition.size();
+            }
+        }
+        return size;
+    }
+
+    void index(long channelId, long guildId) {
+        Long2LongOpenHashMap partition = getPartition(channelId);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            partition.put(channelId, guildId);
+        }
+    }
+
+    void unindex(long channelId) {
+        Long2LongOpenHashMap partition = getPartition(channelId);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            partition.remove(channelId);
+        }
+    }
+
+    @Nullable
+    private JDA getJdaOfChannel(long channelId) {
+        long guildId = getGuildIdOfChannel(channelId);
+        return guildId == -1 ? null : getJda(guildId);
+    }
+
+    //channel ids don't tell anything about their guild, so they are spread over the partitions by their hash
+    private Long2LongOpenHashMap getPartition(long channelId) {
+        return partitions[(int) (HashCommon.mix(channelId) & (PARTITION_COUNT - 1))];
+    }
+
+    private void indexGuild(Guild guild) {
+        long guildId = guild.getIdLong();
+        for (Channel channel : guild.getTextChannels()) {
+            index(channel.getIdLong(), guildId);
+        }
+        for (Channel channel : guild.getVoiceChannels()) {
+            index(channel.getIdLong(), guildId);
+        }
+    }
+
+    // ********************************************************************************
+    //                         Keeping the index up to date
+    // ********************************************************************************
+
+    //fired for each guild of a shard when it connects and when it reconnects without resuming
+    @Override
+    public void onGuildReady(GuildReadyEvent event) {
+        indexGuild(event.getGuild());
+    }
+
+    @Override
+    public void onGuildJoin(GuildJoinEvent event) {
+        indexGuild(event.getGuild());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event) {
+        for (Channel channel : event.getGuild().getTextChannels()) {
+            unindex(channel.getIdLong());
+        }
+        for (Channel channel : event.getGuild().getVoiceChannels()) {
+            unindex(channel.getIdLong());
+        }
+    }
+
+    @Override
+    public void onTextChannelCreate(TextChannelCreateEvent event) {
+        index(event.getChannel().getIdLong(), event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onTextChannelDelete(TextChannelDeleteEvent event) {
+        unindex(event.getChannel().getIdLong());
+    }
+
+    @Override
+    public void onVoiceChannelCreate(VoiceChannelCreateEvent event) {
+        index(event.getChannel().getIdLong(), event.getGuild().getIdLong());
+    }
+
+    @Override
+    public void onVoiceChannelDelete(VoiceChannelDeleteEvent event) {
+        unindex(event.getChannel().getIdLong());
+    }
+}
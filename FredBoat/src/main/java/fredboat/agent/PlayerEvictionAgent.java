@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.agent;
+
+import fredboat.audio.player.PlayerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically discards players that have been idle for a while, so the registry doesn't keep growing with every guild
+ * that ever used a music command, and corrects the count of playing players.
+ */
+public class PlayerEvictionAgent extends Thread {
+
+    private static final Logger log = LoggerFactory.getLogger(PlayerEvictionAgent.class);
+    private static final int EVICTION_INTERVAL_MILLIS = 60000 * 5;
+
+    private final long idleTtlMillis;
+
+    /**
+     * @param idleTtlMillis players idle for longer than this are discarded, none are if this is not positive
+     */
+    public PlayerEvictionAgent(long idleTtlMillis) {
+        super("player-eviction");
+        this.idleTtlMillis = idleTtlMillis;
+        setDaemon(true);
+        setPriority(4);
+    }
+
+    @Override
+    public void run() {
+        log.info("Started player-eviction");
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                sleep(EVICTION_INTERVAL_MILLIS);
+                PlayerRegistry.reconcilePlayingCount();
+                if (idleTtlMillis > 0) {
+                    int before = PlayerRegistry.size();
+                    int evicted = PlayerRegistry.evictIdlePlayers(idleTtlMillis);
+                    log.info("Evicted " + evicted + " of " + before + " players.");
+                }
+            } catch (Exception e) {
+                log.error("Caught an exception while trying to evict idle players!", e);
+                try {
+                    sleep(1000);
+                } catch (InterruptedException e1) {
+                    throw new RuntimeException(e1);
+                }
+            }
+        }
+    }
+}
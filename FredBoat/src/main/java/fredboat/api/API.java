@@ -27,8 +27,13 @@ package fredboat.api;
 
 import fredboat.Config;
 import fredboat.FredBoat;
+import fredboat.audio.player.AudioLossCounter;
+import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.PlayerRegistry;
 import fredboat.db.entity.UConfig;
+import fredboat.metrics.CommandTrace;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -38,6 +43,7 @@ import spark.Spark;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class API {
 
@@ -81,9 +87,26 @@ public class API {
                 a.put(fbStats);
             }
 
+            //the track providers keep running totals, so this is cheap even for huge queues
+            long queuedTracks = 0;
+            long queuedDurationMillis = 0;
+            List<AudioLossCounter> lossCounters = new ArrayList<>();
+            for (GuildPlayer guildPlayer : PlayerRegistry.getAll()) {
+                queuedTracks += guildPlayer.getTrackCount();
+                queuedDurationMillis += guildPlayer.getTotalRemainingMusicTimeMillis();
+                lossCounters.add(guildPlayer.getAudioLossCounter());
+            }
+
+            JSONObject audioLoss = new JSONObject();
+            audioLoss.put("lastMinute", toJson(AudioLossCounter.summarize(lossCounters, 60)))
+                    .put("last5Minutes", toJson(AudioLossCounter.summarize(lossCounters, AudioLossCounter.HISTORY_SECONDS)));
+
             JSONObject g = new JSONObject();
-            g.put("playingPlayers", PlayerRegistry.getPlayingPlayers().size())
-                    .put("totalPlayers", PlayerRegistry.getRegistry().size())
+            g.put("playingPlayers", PlayerRegistry.getPlayingCount())
+                    .put("totalPlayers", PlayerRegistry.size())
+                    .put("queuedTracks", queuedTracks)
+                    .put("queuedDurationMillis", queuedDurationMillis)
+                    .put("audioLoss", audioLoss)
                     .put("distribution", Config.CONFIG.getDistribution())
                     .put("guilds", FredBoat.countAllGuilds())
                     .put("users", FredBoat.countAllUniqueUsers());
@@ -94,6 +117,38 @@ public class API {
             return root;
         });
 
+        Spark.get("/metrics", (req, res) -> {
+            res.type(Metrics.CONTENT_TYPE);
+            return Metrics.scrape();
+        });
+
+        Spark.get("/traces", (req, res) -> {
+            res.type("application/json");
+
+            JSONObject commands = new JSONObject();
+            for (Map.Entry<String, Timer[]> entry : CommandTrace.getTimers().entrySet()) {
+                JSONObject spans = new JSONObject();
+                for (CommandTrace.Span span : CommandTrace.Span.values()) {
+                    Timer timer = entry.getValue()[span.ordinal()];
+                    if (timer.getCount() == 0) continue;
+                    JSONObject stats = new JSONObject()
+                            .put("count", timer.getCount())
+                            .put("sumSeconds", timer.getSum());
+                    putQuantile(stats, "p50Seconds", timer.getQuantile(0.5));
+                    putQuantile(stats, "p90Seconds", timer.getQuantile(0.9));
+                    putQuantile(stats, "p99Seconds", timer.getQuantile(0.99));
+                    spans.put(span.getLabel(), stats);
+                }
+                commands.put(entry.getKey(), spans);
+            }
+
+            JSONObject root = new JSONObject();
+            root.put("sampleRate", CommandTrace.SAMPLE_RATE)
+                    .put("commands", commands);
+
+            return root;
+        });
+
         Spark.post("/callback", (request, response) -> {
             JSONObject out = new JSONObject();
             JSONObject body = new JSONObject(request.body());
@@ -117,4 +172,23 @@ public class API {
         });
     }
 
+    //json can't hold infinity, which is what a quantile beyond the highest bucket is
+    private static void putQuantile(JSONObject json, String key, double quantile) {
+        if (!Double.isInfinite(quantile)) {
+            json.put(key, quantile);
+        }
+    }
+
+    private static JSONObject toJson(AudioLossCounter.Summary summary) {
+        return new JSONObject()
+                .put("players", summary.getPlayers())
+                .put("sent", summary.getSent())
+                .put("nulled", summary.getNulled())
+                .put("deficit", summary.getDeficit())
+                .put("lossRateP50", summary.getP50())
+                .put("lossRateP90", summary.getP90())
+                .put("lossRateP99", summary.getP99())
+                .put("lossRateMax", summary.getMax());
+    }
+
 }
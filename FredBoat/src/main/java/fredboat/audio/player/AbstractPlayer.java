@@ -49,6 +49,8 @@ import fredboat.audio.queue.TrackEndMarkerHandler;
 import fredboat.audio.source.PlaylistImportSourceManager;
 import fredboat.audio.source.SpotifyPlaylistSourceManager;
 import fredboat.commandmeta.MessagingException;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
 import fredboat.shared.constant.DistributionEnum;
 import lavalink.client.player.IPlayer;
 import lavalink.client.player.LavaplayerPlayerWrapper;
@@ -60,13 +62,21 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements AudioSendHandler {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(AbstractPlayer.class);
 
+    //incremented for every 20ms frame of every player, hence the striped counters
+    private static final Counter FRAMES_SENT = Metrics.counter("fredboat_audio_frames_sent_total",
+            "Audio frames provided to discord by all players");
+    private static final Counter FRAMES_NULLED = Metrics.counter("fredboat_audio_frames_nulled_total",
+            "Audio frames that were asked for but could not be provided");
+
     private static AudioPlayerManager playerManager;
+    private static ResolvedTrackCache resolvedTrackCache;
     protected final IPlayer player;
     ITrackProvider audioTrackProvider;
     private AudioFrame lastFrame = null;
@@ -76,6 +86,14 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
     protected Consumer<AudioTrackContext> onPlayHook;
     protected Consumer<Throwable> onErrorHook;
 
+    //bookkeeping of the PlayerRegistry, guarded by this player's monitor
+    private boolean registered = true;
+    private boolean countedAsPlaying = false;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    //changes to what is persisted about this player, other than its queue
+    private final AtomicLong stateModifications = new AtomicLong();
+
     @SuppressWarnings("LeakingThisInConstructor")
     AbstractPlayer(String guildId) {
         initAudioPlayerManager();
@@ -103,6 +121,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
             }
             
             playerManager.setItemLoaderThreadPoolSize(500);
+            resolvedTrackCache = new ResolvedTrackCache(playerManager);
         }
     }
 
@@ -203,6 +222,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
         context = null;
         player.stopTrack();
+        stateModified();
     }
 
     public boolean isQueueEmpty() {
@@ -239,6 +259,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
     public void setVolume(float vol) {
         player.setVolume((int) (vol * 100));
+        stateModified();
     }
 
     public float getVolume() {
@@ -250,9 +271,33 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
         return playerManager;
     }
 
+    /**
+     * @return the cache in front of the shared player manager, guilds should load their identifiers through it
+     */
+    public static ResolvedTrackCache getResolvedTrackCache() {
+        initAudioPlayerManager();
+        return resolvedTrackCache;
+    }
+
+    @Override
+    public void onTrackStart(AudioPlayer player, AudioTrack track) {
+        onPlayingStateChanged();
+    }
+
+    @Override
+    public void onPlayerPause(AudioPlayer player) {
+        onPlayingStateChanged();
+    }
+
+    @Override
+    public void onPlayerResume(AudioPlayer player) {
+        onPlayingStateChanged();
+    }
+
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
         log.debug("onTrackEnd({} {} {}) called", track.getInfo().title, endReason.name(), endReason.mayStartNext);
+        onPlayingStateChanged();
 
         if (endReason == AudioTrackEndReason.FINISHED || endReason == AudioTrackEndReason.STOPPED) {
             loadAndPlay();
@@ -294,6 +339,7 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
         context = trackContext;
         player.playTrack(trackContext.getTrack());
+        stateModified();
         trackContext.getTrack().setPosition(trackContext.getStartPosition());
 
         if (trackContext instanceof SplitAudioTrackContext) {
@@ -316,6 +362,38 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
         stop();
     }
 
+    private void onPlayingStateChanged() {
+        touch();
+        PlayerRegistry.updatePlayingState(this);
+    }
+
+    /**
+     * Marks this player as recently used, which keeps it from being evicted by the PlayerRegistry
+     */
+    void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    boolean isRegistered() {
+        return registered;
+    }
+
+    void setRegistered(boolean registered) {
+        this.registered = registered;
+    }
+
+    boolean isCountedAsPlaying() {
+        return countedAsPlaying;
+    }
+
+    void setCountedAsPlaying(boolean countedAsPlaying) {
+        this.countedAsPlaying = countedAsPlaying;
+    }
+
     @Override
     public byte[] provide20MsAudio() {
         return lastFrame.data;
@@ -328,9 +406,11 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
         if(lastFrame == null) {
             audioLossCounter.onLoss();
+            FRAMES_NULLED.inc();
             return false;
         } else {
             audioLossCounter.onSuccess();
+            FRAMES_SENT.inc();
             return true;
         }
     }
@@ -375,6 +455,19 @@ public abstract class AbstractPlayer extends AudioEventAdapterWrapped implements
 
     public void seekTo(long position) {
         player.seekTo(position);
+        stateModified();
+    }
+
+    /**
+     * @return a number that grows whenever the queue, the playing track or the settings of this player change, used to
+     * tell whether the persisted state of this player is outdated
+     */
+    public long getStateVersion() {
+        return stateModifications.get() + audioTrackProvider.getModifications();
+    }
+
+    protected void stateModified() {
+        stateModifications.incrementAndGet();
     }
 
     public IPlayer getPlayer() {
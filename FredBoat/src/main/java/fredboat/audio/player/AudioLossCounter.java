@@ -25,56 +25,301 @@
 
 package fredboat.audio.player;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps per second statistics of the audio frames a player provided (sent) or failed to provide (nulled) over the last
+ * five minutes.
+ * <p>
+ * The counters are written by the single audio sending thread of the player and may be read by any thread. Frames are
+ * counted into a ring of buckets, one per second, which are stamped with the second they belong to, so neither the
+ * writer nor the readers need to lock or allocate. Readers only look at completed seconds, which are not written to
+ * anymore.
+ */
 public class AudioLossCounter {
 
-    public static final int EXPECTED_PACKET_COUNT_PER_MIN = (60 * 1000) / 20; // 20ms packets
+    public static final int PACKETS_PER_SECOND = 1000 / 20; // 20ms packets
+    public static final int EXPECTED_PACKET_COUNT_PER_MIN = 60 * PACKETS_PER_SECOND;
+    public static final int HISTORY_SECONDS = 5 * 60;
+
+    //one more bucket than the history, for the second currently being written
+    private static final int BUCKET_COUNT = HISTORY_SECONDS + 1;
+
+    //reading the wall clock for each frame of each player adds up, so a coarse clock is ticked here instead
+    private static volatile long currentSecond = System.currentTimeMillis() / 1000;
+    private static final ScheduledExecutorService CLOCK = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName("audio-loss-clock");
+        return thread;
+    });
 
-    private long curMinute = 0;
-    private int curLoss = 0;
-    private int curSucc = 0;
+    static {
+        CLOCK.scheduleAtFixedRate(() -> currentSecond = System.currentTimeMillis() / 1000,
+                100, 100, TimeUnit.MILLISECONDS);
+    }
+
+    private final LongSupplier clock;
+    private final AtomicLongArray bucketSeconds = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicIntegerArray sent = new AtomicIntegerArray(BUCKET_COUNT);
+    private final AtomicIntegerArray nulled = new AtomicIntegerArray(BUCKET_COUNT);
 
-    private int lastLoss = 0;
-    private int lastSucc = 0;
+    //only touched by the writing thread
+    private long writerSecond = -1;
+    private int writerBucket = 0;
 
     AudioLossCounter() {
+        this(() -> currentSecond);
+    }
+
+    /**
+     * @param clock source of the current time in seconds
+     */
+    AudioLossCounter(LongSupplier clock) {
+        this.clock = clock;
+        //no bucket belongs to any second yet
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketSeconds.set(i, -1);
+        }
     }
 
     void onLoss() {
-        checkTime();
-        curLoss++;
+        int bucket = currentBucket();
+        nulled.lazySet(bucket, nulled.get(bucket) + 1);
     }
 
     void onSuccess() {
-        checkTime();
-        curSucc++;
+        int bucket = currentBucket();
+        sent.lazySet(bucket, sent.get(bucket) + 1);
+    }
+
+    private int currentBucket() {
+        long second = clock.getAsLong();
+        if (second != writerSecond) {
+            int bucket = (int) (second % BUCKET_COUNT);
+            sent.lazySet(bucket, 0);
+            nulled.lazySet(bucket, 0);
+            bucketSeconds.lazySet(bucket, second);
+            writerSecond = second;
+            writerBucket = bucket;
+        }
+        return writerBucket;
+    }
+
+    /**
+     * @param seconds amount of completed seconds to look at, at most {@link #HISTORY_SECONDS}
+     * @return the frame statistics of the last seconds, not including the current one
+     */
+    public Window getWindow(int seconds) {
+        if (seconds < 1 || seconds > HISTORY_SECONDS) {
+            throw new IllegalArgumentException("Window must be between 1 and " + HISTORY_SECONDS + " seconds");
+        }
+        long now = clock.getAsLong();
+        int sentTotal = 0;
+        int nulledTotal = 0;
+        int activeSeconds = 0;
+        for (long second = now - seconds; second < now; second++) {
+            int bucket = (int) (second % BUCKET_COUNT);
+            if (bucketSeconds.get(bucket) == second) {
+                int sentInSecond = sent.get(bucket);
+                int nulledInSecond = nulled.get(bucket);
+                sentTotal += sentInSecond;
+                nulledTotal += nulledInSecond;
+                if (sentInSecond + nulledInSecond > 0) {
+                    activeSeconds++;
+                }
+            }
+        }
+        return new Window(seconds, activeSeconds, sentTotal, nulledTotal);
     }
 
-    public int getLastMinuteLoss() {
-        return lastLoss;
+    public Window getLastMinute() {
+        return getWindow(60);
     }
 
-    public int getLastMinuteSuccess() {
-        return lastSucc;
+    public Window getLastFiveMinutes() {
+        return getWindow(HISTORY_SECONDS);
     }
 
-    private void checkTime() {
-        long actualMinute = System.currentTimeMillis() / 60000;
+    /**
+     * Aggregates the loss rates of several players. Players that did not send a single frame in the window are left
+     * out, as they were not playing.
+     */
+    public static Summary summarize(Collection<AudioLossCounter> counters, int seconds) {
+        double[] lossRates = new double[counters.size()];
+        int players = 0;
+        long sent = 0;
+        long nulled = 0;
+        long deficit = 0;
+        for (AudioLossCounter counter : counters) {
+            Window window = counter.getWindow(seconds);
+            if (window.getSent() == 0) {
+                continue;
+            }
+            lossRates[players++] = window.getLossRate();
+            sent += window.getSent();
+            nulled += window.getNulled();
+            deficit += window.getDeficit();
+        }
+        Arrays.sort(lossRates, 0, players);
+        return new Summary(seconds, players, sent, nulled, deficit,
+                percentile(lossRates, players, 50),
+                percentile(lossRates, players, 90),
+                percentile(lossRates, players, 99),
+                players == 0 ? 0 : lossRates[players - 1]);
+    }
 
-        if(curMinute != actualMinute) {
-            lastLoss = curLoss;
-            lastSucc = curSucc;
-            curLoss = 0;
-            curSucc = 0;
-            curMinute = actualMinute;
+    //nearest rank percentile of the first count values, which must be sorted
+    private static double percentile(double[] sorted, int count, int percentile) {
+        if (count == 0) {
+            return 0;
         }
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(0, rank - 1)];
     }
 
     @Override
     public String toString() {
+        Window lastMinute = getLastMinute();
         return "AudioLossCounter{" +
-                "lastLoss=" + lastLoss +
-                ", lastSucc=" + lastSucc +
-                ", total=" + (lastSucc + lastLoss) +
+                "lastLoss=" + lastMinute.getNulled() +
+                ", lastSucc=" + lastMinute.getSent() +
+                ", lastDeficit=" + lastMinute.getDeficit() +
+                ", total=" + (lastMinute.getSent() + lastMinute.getNulled()) +
                 '}';
     }
+
+    /**
+     * Frame statistics of a single player over a span of seconds
+     */
+    public static class Window {
+
+        private final int seconds;
+        private final int activeSeconds;
+        private final int sent;
+        private final int nulled;
+
+        Window(int seconds, int activeSeconds, int sent, int nulled) {
+            this.seconds = seconds;
+            this.activeSeconds = activeSeconds;
+            this.sent = sent;
+            this.nulled = nulled;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+
+        /**
+         * @return seconds of the window in which any frame was sent or nulled, that is the player was playing
+         */
+        public int getActiveSeconds() {
+            return activeSeconds;
+        }
+
+        public int getSent() {
+            return sent;
+        }
+
+        public int getNulled() {
+            return nulled;
+        }
+
+        /**
+         * @return frames that should have been provided during the active seconds of the window
+         */
+        public int getExpected() {
+            return activeSeconds * PACKETS_PER_SECOND;
+        }
+
+        /**
+         * @return frames that were not even asked for, for example because the sending thread fell behind
+         */
+        public int getDeficit() {
+            return Math.max(0, getExpected() - sent - nulled);
+        }
+
+        /**
+         * @return share of the expected frames that were nulled or missing, between 0 and 1
+         */
+        public double getLossRate() {
+            int expected = getExpected();
+            if (expected == 0) {
+                return 0;
+            }
+            return Math.min(1, (nulled + getDeficit()) / (double) expected);
+        }
+    }
+
+    /**
+     * Loss rates across players over a span of seconds
+     */
+    public static class Summary {
+
+        private final int seconds;
+        private final int players;
+        private final long sent;
+        private final long nulled;
+        private final long deficit;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double max;
+
+        Summary(int seconds, int players, long sent, long nulled, long deficit,
+                double p50, double p90, double p99, double max) {
+            this.seconds = seconds;
+            this.players = players;
+            this.sent = sent;
+            this.nulled = nulled;
+            this.deficit = deficit;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+
+        public int getPlayers() {
+            return players;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getNulled() {
+            return nulled;
+        }
+
+        public long getDeficit() {
+            return deficit;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
 }
@@ -30,8 +30,8 @@ import fredboat.audio.queue.AbstractTrackProvider;
 import fredboat.audio.queue.AudioLoader;
 import fredboat.audio.queue.AudioTrackContext;
 import fredboat.audio.queue.IdentifierContext;
+import fredboat.audio.queue.IndexedTrackProvider;
 import fredboat.audio.queue.RepeatMode;
-import fredboat.audio.queue.SimpleTrackProvider;
 import fredboat.commandmeta.MessagingException;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.db.DatabaseNotReadyException;
@@ -87,8 +87,8 @@ public class GuildPlayer extends AbstractPlayer {
             AudioManager manager = guild.getAudioManager();
             manager.setSendingHandler(this);
         }
-        audioTrackProvider = new SimpleTrackProvider();
-        audioLoader = new AudioLoader(audioTrackProvider, getPlayerManager(), this);
+        audioTrackProvider = new IndexedTrackProvider();
+        audioLoader = new AudioLoader(audioTrackProvider, getPlayerManager(), getResolvedTrackCache(), this);
     }
 
     private void announceTrack(AudioTrackContext atc) {
@@ -130,6 +130,7 @@ public class GuildPlayer extends AbstractPlayer {
         }
 
         LavalinkManager.ins.openConnection(targetChannel);
+        stateModified();
         AudioManager manager = getGuild().getAudioManager();
         manager.setConnectionListener(new DebugConnectionListener(guildId, shard.getShardInfo()));
 
@@ -239,6 +240,13 @@ public class GuildPlayer extends AbstractPlayer {
         return streams;
     }
 
+    public int getTrackCountByUser(long userId) {
+        int trackCount = audioTrackProvider.getTrackCountByUser(userId);
+        AudioTrackContext atc = player.getPlayingTrack() != null ? context : null;
+        if (atc != null && atc.getUserId() == userId) trackCount++;
+        return trackCount;
+    }
+
 
     //may return null
     //optionally pass a jda object to use for the lookup
@@ -337,6 +345,7 @@ public class GuildPlayer extends AbstractPlayer {
     public void setCurrentTC(TextChannel tc) {
         if (this.currentTCId != tc.getIdLong()) {
             this.currentTCId = tc.getIdLong();
+            stateModified();
         }
     }
 
@@ -414,7 +423,7 @@ public class GuildPlayer extends AbstractPlayer {
     private boolean isTrackAnnounceEnabled() {
         boolean enabled = false;
         try {
-            GuildConfig config = EntityReader.getGuildConfig(Long.toString(guildId));
+            GuildConfig config = EntityReader.getGuildConfig(guildId);
             enabled = config.isTrackAnnounce();
         } catch (DatabaseNotReadyException ignored) {}
 
@@ -425,6 +434,10 @@ public class GuildPlayer extends AbstractPlayer {
         return shard.getJda();
     }
 
+    public long getGuildId() {
+        return guildId;
+    }
+
     @Override
     void destroy() {
         audioTrackProvider.clear();
@@ -18,7 +18,7 @@ public class PlayerLimitManager {
             return true;
 
         return limit < 0
-                || PlayerRegistry.getPlayingPlayers().size() < limit;
+                || PlayerRegistry.getPlayingCount() < limit;
 
     }
 
@@ -25,65 +25,139 @@
 
 package fredboat.audio.player;
 
+import fredboat.Config;
+import fredboat.metrics.Metrics;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Holds the GuildPlayers of all guilds, keyed by guild id.
+ * <p>
+ * The players are partitioned by the shard of their guild, each partition guarded by its own lock, so threads of
+ * different shards don't contend with each other. The amount of playing players is maintained from the players' state
+ * changes instead of being counted on demand.
+ */
 public class PlayerRegistry {
 
-    private static final HashMap<String, GuildPlayer> REGISTRY = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(PlayerRegistry.class);
+
     public static final float DEFAULT_VOLUME = 1f;
 
-    public static void put(String k, GuildPlayer v) {
-        REGISTRY.put(k, v);
+    private static final Long2ObjectOpenHashMap<GuildPlayer>[] PARTITIONS = createPartitions();
+    private static final AtomicInteger PLAYING_COUNT = new AtomicInteger(0);
+
+    static {
+        Metrics.gauge("fredboat_players", "Guild players currently held", PlayerRegistry::size);
+        Metrics.gauge("fredboat_players_playing", "Guild players currently playing", PlayerRegistry::getPlayingCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Long2ObjectOpenHashMap<GuildPlayer>[] createPartitions() {
+        int partitionCount = Config.CONFIG == null ? 1 : Math.max(1, Config.CONFIG.getNumShards());
+        Long2ObjectOpenHashMap<GuildPlayer>[] partitions = new Long2ObjectOpenHashMap[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Long2ObjectOpenHashMap<>();
+        }
+        return partitions;
+    }
+
+    //same formula discord uses to assign guilds to shards
+    private static Long2ObjectOpenHashMap<GuildPlayer> getPartition(long guildId) {
+        return PARTITIONS[(int) ((guildId >> 22) % PARTITIONS.length)];
     }
 
     public static GuildPlayer get(Guild guild) {
-        return get(guild.getJDA(), guild.getId());
+        return get(guild.getJDA(), guild.getIdLong());
+    }
+
+    public static GuildPlayer get(JDA jda, long guildId) {
+        return get(jda, guildId, true);
     }
 
-    public static GuildPlayer get(JDA jda, String k) {
-        GuildPlayer player = REGISTRY.get(k);
-        if (player == null) {
-            player = new GuildPlayer(jda.getGuildById(k));
-            player.setVolume(DEFAULT_VOLUME);
-            REGISTRY.put(k, player);
+    public static GuildPlayer getExisting(Guild guild) {
+        return getExisting(guild.getJDA(), guild.getIdLong());
+    }
+
+    public static GuildPlayer getExisting(JDA jda, long guildId) {
+        return get(jda, guildId, false);
+    }
+
+    private static GuildPlayer get(JDA jda, long guildId, boolean create) {
+        Long2ObjectOpenHashMap<GuildPlayer> partition = getPartition(guildId);
+        GuildPlayer player;
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            player = partition.get(guildId);
+            if (player == null) {
+                if (!create) {
+                    return null;
+                }
+                player = new GuildPlayer(jda.getGuildById(guildId));
+                player.setVolume(DEFAULT_VOLUME);
+                partition.put(guildId, player);
+            }
+            //while holding the lock, so the eviction can't pick a player that is being handed out
+            player.touch();
         }
 
         // Attempt to set the player as a sending handler. Important after a shard revive
-        if (!LavalinkManager.ins.isEnabled() && jda.getGuildById(k) != null) {
-            jda.getGuildById(k).getAudioManager().setSendingHandler(player);
+        Guild guild = jda.getGuildById(guildId);
+        if (!LavalinkManager.ins.isEnabled() && guild != null) {
+            guild.getAudioManager().setSendingHandler(player);
         }
 
         return player;
     }
 
-    public static GuildPlayer getExisting(Guild guild) {
-        return getExisting(guild.getJDA(), guild.getId());
-    }
-
-    public static GuildPlayer getExisting(JDA jda, String k) {
-        if (REGISTRY.containsKey(k)) {
-            return get(jda, k);
+    public static GuildPlayer remove(long guildId) {
+        Long2ObjectOpenHashMap<GuildPlayer> partition = getPartition(guildId);
+        GuildPlayer player;
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            player = partition.remove(guildId);
+        }
+        if (player != null) {
+            unregistered(player);
         }
-        return null;
+        return player;
     }
 
-    public static GuildPlayer remove(String k) {
-        return REGISTRY.remove(k);
+    /**
+     * @return a snapshot of all players
+     */
+    public static List<GuildPlayer> getAll() {
+        List<GuildPlayer> result = new ArrayList<>();
+        for (Long2ObjectOpenHashMap<GuildPlayer> partition : PARTITIONS) {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (partition) {
+                result.addAll(partition.values());
+            }
+        }
+        return result;
     }
 
-    public static HashMap<String, GuildPlayer> getRegistry() {
-        return REGISTRY;
+    public static int size() {
+        int size = 0;
+        for (Long2ObjectOpenHashMap<GuildPlayer> partition : PARTITIONS) {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (partition) {
+                size += partition.size();
+            }
+        }
+        return size;
     }
 
     public static List<GuildPlayer> getPlayingPlayers() {
         ArrayList<GuildPlayer> plrs = new ArrayList<>();
 
-        for (GuildPlayer plr : REGISTRY.values()) {
+        for (GuildPlayer plr : getAll()) {
             if (plr.isPlaying()) {
                 plrs.add(plr);
             }
@@ -92,16 +166,93 @@ public class PlayerRegistry {
         return plrs;
     }
 
+    /**
+     * @return amount of playing players, without looking at each of them
+     */
+    public static int getPlayingCount() {
+        return PLAYING_COUNT.get();
+    }
+
     public static void destroyPlayer(Guild g) {
-        destroyPlayer(g.getJDA(), g.getId());
+        destroyPlayer(g.getJDA(), g.getIdLong());
     }
 
-    public static void destroyPlayer(JDA jda, String g) {
-        GuildPlayer player = getExisting(jda, g);
+    public static void destroyPlayer(JDA jda, long guildId) {
+        GuildPlayer player = remove(guildId);
         if (player != null) {
             player.destroy();
-            remove(g);
         }
     }
 
+    /**
+     * Corrects the playing count, should it have drifted from the actual state of the players
+     */
+    public static void reconcilePlayingCount() {
+        for (GuildPlayer player : getAll()) {
+            updatePlayingState(player);
+        }
+    }
+
+    /**
+     * Destroys players that are idle (nothing playing or queued), not connected to a voice channel, and haven't been
+     * active for the given time.
+     *
+     * @return amount of destroyed players
+     */
+    public static int evictIdlePlayers(long ttlMillis) {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (GuildPlayer player : getAll()) {
+            if (now - player.getLastActivity() <= ttlMillis
+                    || !player.isQueueEmpty()
+                    || player.getCurrentVoiceChannel() != null) {
+                continue;
+            }
+
+            long guildId = player.getGuildId();
+            Long2ObjectOpenHashMap<GuildPlayer> partition = getPartition(guildId);
+            boolean removed;
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (partition) {
+                //don't evict a player that got replaced or touched in the meantime
+                removed = partition.get(guildId) == player && now - player.getLastActivity() > ttlMillis
+                        && partition.remove(guildId) != null;
+            }
+            if (removed) {
+                unregistered(player);
+                try {
+                    player.destroy();
+                } catch (Exception e) {
+                    log.error("Exception when destroying evicted player of guild {}", guildId, e);
+                }
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Called by the players whenever their playing state may have changed
+     */
+    static void updatePlayingState(AbstractPlayer player) {
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (player) {
+            boolean playing = player.isRegistered() && player.isPlaying();
+            if (playing != player.isCountedAsPlaying()) {
+                player.setCountedAsPlaying(playing);
+                PLAYING_COUNT.addAndGet(playing ? 1 : -1);
+            }
+        }
+    }
+
+    private static void unregistered(AbstractPlayer player) {
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (player) {
+            player.setRegistered(false);
+            if (player.isCountedAsPlaying()) {
+                player.setCountedAsPlaying(false);
+                PLAYING_COUNT.decrementAndGet();
+            }
+        }
+    }
 }
@@ -0,0 +1,353 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
+import fredboat.FredBoat;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Sits in front of {@link AudioPlayerManager#loadItem} and remembers what identifiers resolved to, so a link that was
+ * played in any guild a moment ago is not looked up on YouTube or SoundCloud again.
+ * <p>
+ * Tracks are stored encoded and decoded for every hit, so each caller gets its own fresh track. Playlists expire
+ * sooner than single tracks, as they change more often. Streams are not cached, they may have ended by the time the
+ * next guild asks for them.
+ */
+public class ResolvedTrackCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ResolvedTrackCache.class);
+
+    private static final long DEFAULT_TRACK_TTL_NANOS = TimeUnit.MINUTES.toNanos(30);
+    private static final long DEFAULT_PLAYLIST_TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+    //rough bookkeeping cost of an entry on top of the encoded tracks
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private static final String LOOKUPS_HELP = "Identifiers looked up in the resolved track cache, by result";
+    private static final Counter TRACK_HITS = Metrics.counter("fredboat_resolved_track_cache_lookups_total",
+            LOOKUPS_HELP, "result", "track_hit");
+    private static final Counter PLAYLIST_HITS = Metrics.counter("fredboat_resolved_track_cache_lookups_total",
+            LOOKUPS_HELP, "result", "playlist_hit");
+    private static final Counter MISSES = Metrics.counter("fredboat_resolved_track_cache_lookups_total",
+            LOOKUPS_HELP, "result", "miss");
+
+    private final AudioPlayerManager playerManager;
+    private final Executor executor;
+    private final long trackTtlNanos;
+    private final long playlistTtlNanos;
+    private final long maxBytes;
+    private final LongSupplier nanoTime;
+
+    //guarded by this, least recently used first
+    private final Object2ObjectLinkedOpenHashMap<String, Entry> entries = new Object2ObjectLinkedOpenHashMap<>();
+    private long bytes = 0;
+
+    public ResolvedTrackCache(AudioPlayerManager playerManager) {
+        this(playerManager, FredBoat.executor, DEFAULT_TRACK_TTL_NANOS, DEFAULT_PLAYLIST_TTL_NANOS, DEFAULT_MAX_BYTES,
+                System::nanoTime);
+    }
+
+    ResolvedTrackCache(AudioPlayerManager playerManager, Executor executor, long trackTtlNanos, long playlistTtlNanos,
+                       long maxBytes, LongSupplier nanoTime) {
+        this.playerManager = playerManager;
+        this.executor = executor;
+        this.trackTtlNanos = trackTtlNanos;
+        this.playlistTtlNanos = playlistTtlNanos;
+        this.maxBytes = maxBytes;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Resolves the identifier like {@link AudioPlayerManager#loadItem} does. On a hit the handler is called from the
+     * executor of this cache without asking lavaplayer.
+     */
+    public void loadItem(String identifier, AudioLoadResultHandler handler) {
+        String key = normalize(identifier);
+        if (key == null) {
+            playerManager.loadItem(identifier, handler);
+            return;
+        }
+
+        AudioItem cached = get(key);
+        if (cached instanceof AudioTrack) {
+            TRACK_HITS.inc();
+            executor.execute(() -> handler.trackLoaded((AudioTrack) cached));
+            return;
+        } else if (cached instanceof AudioPlaylist) {
+            PLAYLIST_HITS.inc();
+            executor.execute(() -> handler.playlistLoaded((AudioPlaylist) cached));
+            return;
+        }
+
+        MISSES.inc();
+        playerManager.loadItem(identifier, new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                //before the handler gets to change the track, like setting its position
+                put(key, track);
+                handler.trackLoaded(track);
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                put(key, playlist);
+                handler.playlistLoaded(playlist);
+            }
+
+            @Override
+            public void noMatches() {
+                handler.noMatches();
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                handler.loadFailed(exception);
+            }
+        });
+    }
+
+    /**
+     * @return a fresh copy of what the key resolved to, or null if it is not cached
+     */
+    @Nullable
+    AudioItem get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.getAndMoveToLast(key);
+            if (entry == null) {
+                return null;
+            }
+            long ttl = entry.isPlaylist ? playlistTtlNanos : trackTtlNanos;
+            if (nanoTime.getAsLong() - entry.storedNanos >= ttl) {
+                remove(key);
+                return null;
+            }
+        }
+
+        if (!entry.isPlaylist) {
+            return decode(entry.tracks[0]);
+        }
+        List<AudioTrack> tracks = new ArrayList<>(entry.tracks.length);
+        AudioTrack selected = null;
+        for (int i = 0; i < entry.tracks.length; i++) {
+            AudioTrack track = decode(entry.tracks[i]);
+            if (track == null) {
+                continue;
+            }
+            tracks.add(track);
+            if (i == entry.selectedIndex) {
+                selected = track;
+            }
+        }
+        return new BasicAudioPlaylist(entry.name, tracks, selected, entry.isSearchResult);
+    }
+
+    /**
+     * Remembers what the key resolved to, if all of it can be encoded
+     */
+    void put(String key, AudioItem item) {
+        Entry entry;
+        try {
+            if (item instanceof AudioTrack) {
+                AudioTrack track = (AudioTrack) item;
+                if (track.getInfo().isStream) {
+                    return;
+                }
+                entry = new Entry(new byte[][]{encode(track)}, null, -1, false, false, nanoTime.getAsLong());
+            } else if (item instanceof AudioPlaylist) {
+                AudioPlaylist playlist = (AudioPlaylist) item;
+                List<AudioTrack> tracks = playlist.getTracks();
+                byte[][] encoded = new byte[tracks.size()][];
+                for (int i = 0; i < encoded.length; i++) {
+                    if (tracks.get(i).getInfo().isStream) {
+                        return;
+                    }
+                    encoded[i] = encode(tracks.get(i));
+                }
+                entry = new Entry(encoded, playlist.getName(), tracks.indexOf(playlist.getSelectedTrack()), true,
+                        playlist.isSearchResult(), nanoTime.getAsLong());
+            } else {
+                return;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            //the source can't encode its tracks
+            log.debug("Not caching {}, it can't be encoded", key, e);
+            return;
+        }
+
+        //a huge playlist shouldn't push everything else out
+        if (entry.weight > maxBytes / 4) {
+            return;
+        }
+        synchronized (this) {
+            remove(key);
+            entries.putAndMoveToLast(key, entry);
+            bytes += entry.weight;
+            while (bytes > maxBytes) {
+                Entry evicted = entries.removeFirst();
+                bytes -= evicted.weight;
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    //guarded by this
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight;
+        }
+    }
+
+    private byte[] encode(AudioTrack track) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MessageOutput output = new MessageOutput(baos);
+        playerManager.encodeTrack(output, track);
+        return baos.toByteArray();
+    }
+
+    //null if the track can't be decoded anymore, for example because its source got disabled
+    @Nullable
+    private AudioTrack decode(byte[] encoded) {
+        try {
+            DecodedTrackHolder holder = playerManager.decodeTrack(new MessageInput(new ByteArrayInputStream(encoded)));
+            return holder == null ? null : holder.decodedTrack;
+        } catch (IOException e) {
+            log.warn("Failed to decode a cached track", e);
+            return null;
+        }
+    }
+
+    /**
+     * Different links to the same YouTube video or SoundCloud track share a key. Other identifiers are only cached if
+     * they are links, so nothing is cached for search queries or local files.
+     *
+     * @return the key under which the identifier is cached, or null if it should not be cached
+     */
+    @Nullable
+    static String normalize(String identifier) {
+        String trimmed = identifier.trim();
+        URI uri;
+        try {
+            uri = new URI(trimmed);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (host == null || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+            return null;
+        }
+        host = host.toLowerCase();
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        String query = uri.getRawQuery() == null ? "" : uri.getRawQuery();
+
+        if (host.equals("youtu.be") || host.equals("youtube.com") || host.endsWith(".youtube.com")) {
+            String videoId = null;
+            boolean playlist = false;
+            for (String param : query.split("&")) {
+                if (param.startsWith("v=")) {
+                    videoId = param.substring(2);
+                } else if (param.startsWith("list=")) {
+                    playlist = true;
+                }
+            }
+            if (host.equals("youtu.be")) {
+                videoId = path.length() > 1 ? path.substring(1) : null;
+            } else if (!path.equals("/watch")) {
+                videoId = null;
+            }
+            //playlist links resolve to the playlist, possibly with one of its videos selected, keep them as they are
+            if (videoId != null && !videoId.isEmpty() && !playlist) {
+                return "youtube:" + videoId;
+            }
+            return trimmed;
+        }
+        if (host.equals("soundcloud.com") || host.endsWith(".soundcloud.com")) {
+            //the query only says where the track was found
+            if (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            return "soundcloud:" + path;
+        }
+        return trimmed;
+    }
+
+    private static class Entry {
+        private final byte[][] tracks;
+        @Nullable
+        private final String name;
+        private final int selectedIndex;
+        private final boolean isPlaylist;
+        private final boolean isSearchResult;
+        private final long storedNanos;
+        private final long weight;
+
+        private Entry(byte[][] tracks, @Nullable String name, int selectedIndex, boolean isPlaylist,
+                      boolean isSearchResult, long storedNanos) {
+            this.tracks = tracks;
+            this.name = name;
+            this.selectedIndex = selectedIndex;
+            this.isPlaylist = isPlaylist;
+            this.isSearchResult = isSearchResult;
+            this.storedNanos = storedNanos;
+            long weight = ENTRY_OVERHEAD_BYTES;
+            for (byte[] track : tracks) {
+                weight += track.length;
+            }
+            this.weight = weight;
+        }
+    }
+}
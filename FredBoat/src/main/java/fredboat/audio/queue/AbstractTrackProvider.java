@@ -26,6 +26,7 @@
 package fredboat.audio.queue;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Shuffle and repeat mode methods for track providers
@@ -34,6 +35,7 @@ public abstract class AbstractTrackProvider implements ITrackProvider {
 
     private RepeatMode repeatMode = RepeatMode.OFF;
     private boolean shuffle = false;
+    private final AtomicLong modifications = new AtomicLong();
 
     public RepeatMode getRepeatMode() {
         return repeatMode;
@@ -45,10 +47,24 @@ public abstract class AbstractTrackProvider implements ITrackProvider {
 
     public void setRepeatMode(RepeatMode repeatMode) {
         this.repeatMode = repeatMode;
+        modified();
     }
 
     public void setShuffle(boolean shuffle) {
         this.shuffle = shuffle;
+        modified();
+    }
+
+    @Override
+    public long getModifications() {
+        return modifications.get();
+    }
+
+    /**
+     * To be called by implementations whenever they change the queue
+     */
+    protected void modified() {
+        modifications.incrementAndGet();
     }
 
     /**
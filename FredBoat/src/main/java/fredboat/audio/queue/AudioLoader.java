@@ -31,13 +31,19 @@ import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.FredBoat;
 import fredboat.audio.player.GuildPlayer;
+import fredboat.audio.player.ResolvedTrackCache;
+import fredboat.audio.source.PlaylistImport;
 import fredboat.audio.source.PlaylistImportSourceManager;
 import fredboat.audio.source.PlaylistImporter;
 import fredboat.audio.source.SpotifyPlaylistSourceManager;
 import fredboat.feature.I18n;
 import fredboat.feature.togglz.FeatureFlags;
 import fredboat.messaging.CentralMessaging;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
 import fredboat.util.TextUtils;
 import fredboat.util.ratelimit.Ratelimiter;
 import fredboat.util.rest.YoutubeAPI;
@@ -50,6 +56,8 @@ import org.slf4j.LoggerFactory;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -62,26 +70,51 @@ public class AudioLoader implements AudioLoadResultHandler {
     private static final Pattern SPLIT_DESCRIPTION_PATTERN = Pattern.compile("(.*?)[( \\[]*((?:\\d?\\d:)?\\d?\\d:\\d\\d)[) \\]]*(.*)");
     private static final int QUEUE_TRACK_LIMIT = 10000;
 
+    private static final Timer LOAD_DURATION = Metrics.timer("fredboat_track_load_duration_seconds",
+            "Time lavaplayer took to resolve an identifier");
+    private static final String LOADS_HELP = "Identifiers resolved by lavaplayer, by result";
+    private static final Counter LOADS_TRACK = Metrics.counter("fredboat_track_loads_total", LOADS_HELP, "result", "track");
+    private static final Counter LOADS_PLAYLIST = Metrics.counter("fredboat_track_loads_total", LOADS_HELP, "result", "playlist");
+    private static final Counter LOADS_NO_MATCHES = Metrics.counter("fredboat_track_loads_total", LOADS_HELP, "result", "no_matches");
+    private static final Counter LOADS_FAILED = Metrics.counter("fredboat_track_loads_total", LOADS_HELP, "result", "failed");
+
     private final ITrackProvider trackProvider;
     private final AudioPlayerManager playerManager;
+    private final ResolvedTrackCache resolvedTrackCache;
     private final GuildPlayer gplayer;
     private final ConcurrentLinkedQueue<IdentifierContext> identifierQueue = new ConcurrentLinkedQueue<>();
     private IdentifierContext context = null;
     private volatile boolean isLoading = false;
+    private long loadStartNanos;
+    //guarded by this
+    private CompletableFuture<Void> precheck = CompletableFuture.completedFuture(null);
 
-    public AudioLoader(ITrackProvider trackProvider, AudioPlayerManager playerManager, GuildPlayer gplayer) {
+    public AudioLoader(ITrackProvider trackProvider, AudioPlayerManager playerManager,
+                       ResolvedTrackCache resolvedTrackCache, GuildPlayer gplayer) {
         this.trackProvider = trackProvider;
         this.playerManager = playerManager;
+        this.resolvedTrackCache = resolvedTrackCache;
         this.gplayer = gplayer;
     }
 
     public void loadAsync(IdentifierContext ic) {
-
-        if (ratelimitIfSlowLoadingPlaylistAndAnnounce(ic)) {
-            identifierQueue.add(ic);
-            if (!isLoading) {
-                loadNextAsync();
-            }
+        //checking a playlist may fetch it, which shouldn't happen on the JDA thread. The checks run one after another so
+        //the identifiers are queued in the order they were requested.
+        synchronized (this) {
+            precheck = precheck.thenRunAsync(() -> {
+                try {
+                    if (!ratelimitIfSlowLoadingPlaylist(ic)) {
+                        return;
+                    }
+                } catch (Throwable th) {
+                    handleThrowable(ic, th);
+                    return;
+                }
+                identifierQueue.add(ic);
+                if (!isLoading) {
+                    loadNextAsync();
+                }
+            }, FredBoat.executor);
         }
     }
 
@@ -98,7 +131,11 @@ public class AudioLoader implements AudioLoadResultHandler {
                     return;
                 }
 
-                playerManager.loadItem(ic.identifier, this);
+                loadStartNanos = System.nanoTime();
+                if (!ic.isSplit() && importPlaylist(ic)) {
+                    return;
+                }
+                resolvedTrackCache.loadItem(ic.identifier, this);
             } else {
                 isLoading = false;
             }
@@ -109,12 +146,12 @@ public class AudioLoader implements AudioLoadResultHandler {
     }
 
     /**
-     * If the requested item is a slow loading playlist that we know of, check for rate limits and announce to the user
-     * that it might take a while to gather it.
+     * If the requested item is a slow loading playlist that we know of, check for rate limits. Announcing the playlist
+     * is left to the status message of the load.
      *
      * @return false if the user is not allowed to load the playlist, true if he is
      */
-    private boolean ratelimitIfSlowLoadingPlaylistAndAnnounce(IdentifierContext ic) {
+    private boolean ratelimitIfSlowLoadingPlaylist(IdentifierContext ic) {
         PlaylistInfo playlistInfo = getSlowLoadingPlaylistData(ic.identifier);
 
         if (playlistInfo == null) //not a slow loading playlist
@@ -126,13 +163,6 @@ public class AudioLoader implements AudioLoadResultHandler {
             }
 
             if (result) {
-                //inform user we are possibly about to do nasty time consuming work
-                if (playlistInfo.getTotalTracks() > 50) {
-                    String out = MessageFormat.format(I18n.get(ic, "loadAnnouncePlaylist"),
-                            playlistInfo.getName(),
-                            playlistInfo.getTotalTracks());
-                    ic.replyWithName(out);
-                }
                 return true;
             } else {
                 ic.replyWithMention(I18n.get(ic, "ratelimitedGuildSlowLoadingPlaylist"));
@@ -144,6 +174,9 @@ public class AudioLoader implements AudioLoadResultHandler {
     /**
      * this function needs to be updated if we add more manual playlist loaders
      * currently it only covers the Hastebin and Spotify playlists
+     * <p>
+     * The importers keep what they fetched here for a short while, so loading the playlist afterwards doesn't fetch it
+     * a second time.
      *
      * @param identifier the very same identifier that the playlist loaders will be presented with if we asked them to
      *                   load a playlist
@@ -168,8 +201,46 @@ public class AudioLoader implements AudioLoadResultHandler {
         return playlistInfo;
     }
 
+    /**
+     * Streams the tracks of a playlist that we import ourselves into the queue while they are being resolved, so
+     * playback can start with the first one instead of after all of them, like it would if lavaplayer loaded the
+     * playlist.
+     *
+     * @return false if the identifier is not a playlist of one of our importers
+     */
+    private boolean importPlaylist(IdentifierContext ic) {
+        StreamingPlaylistLoad load = new StreamingPlaylistLoad(ic, gplayer, trackProvider, loadStartNanos,
+                QUEUE_TRACK_LIMIT - gplayer.getTrackCount());
+
+        PlaylistImport playlistImport = load.start(playerManager.source(SpotifyPlaylistSourceManager.class));
+        if (playlistImport == null) {
+            playlistImport = load.start(playerManager.source(PlaylistImportSourceManager.class));
+        }
+        if (playlistImport == null) {
+            return false;
+        }
+
+        playlistImport.getResult().whenComplete((ap, t) -> {
+            try {
+                if (t != null) {
+                    recordLoad(LOADS_FAILED);
+                    load.flush();
+                    handleThrowable(ic, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                } else {
+                    recordLoad(LOADS_PLAYLIST);
+                    load.finish(ap);
+                }
+            } catch (Throwable th) {
+                handleThrowable(ic, th);
+            }
+            loadNextAsync();
+        });
+        return true;
+    }
+
     @Override
     public void trackLoaded(AudioTrack at) {
+        recordLoad(LOADS_TRACK);
         try {
             if(context.isSplit()){
                 loadSplit(at, context);
@@ -200,6 +271,7 @@ public class AudioLoader implements AudioLoadResultHandler {
 
     @Override
     public void playlistLoaded(AudioPlaylist ap) {
+        recordLoad(LOADS_PLAYLIST);
         try {
             if(context.isSplit()){
                 context.reply(I18n.get(context, "loadPlaySplitListFail"));
@@ -212,7 +284,9 @@ public class AudioLoader implements AudioLoadResultHandler {
                 toAdd.add(new AudioTrackContext(at, context.getMember()));
             }
             trackProvider.addAll(toAdd);
-
+            if (!toAdd.isEmpty()) {
+                StreamingPlaylistLoad.observeTimeToFirstAudio(loadStartNanos, toAdd.size());
+            }
 
             context.reply(
                     MessageFormat.format(I18n.get(context, "loadListSuccess"), ap.getTracks().size(), ap.getName())
@@ -229,6 +303,7 @@ public class AudioLoader implements AudioLoadResultHandler {
 
     @Override
     public void noMatches() {
+        recordLoad(LOADS_NO_MATCHES);
         try {
             context.reply(MessageFormat.format(I18n.get(context, "loadNoMatches"), context.identifier));
         } catch (Throwable th) {
@@ -239,11 +314,17 @@ public class AudioLoader implements AudioLoadResultHandler {
 
     @Override
     public void loadFailed(FriendlyException fe) {
+        recordLoad(LOADS_FAILED);
         handleThrowable(context, fe);
 
         loadNextAsync();
     }
 
+    private void recordLoad(Counter result) {
+        LOAD_DURATION.observeSince(loadStartNanos);
+        result.inc();
+    }
+
     private void loadSplit(AudioTrack at, IdentifierContext ic){
         if(!(at instanceof YoutubeAudioTrack)){
             ic.reply(I18n.get(ic, "loadSplitNotYouTube"));
@@ -251,7 +332,7 @@ public class AudioLoader implements AudioLoadResultHandler {
         }
         YoutubeAudioTrack yat = (YoutubeAudioTrack) at;
 
-        YoutubeVideo yv = YoutubeAPI.getVideoFromID(yat.getIdentifier(), true);
+        YoutubeVideo yv = YoutubeAPI.getVideoFromID(yat.getIdentifier());
         String desc = yv.getDescription();
         Matcher m = SPLIT_DESCRIPTION_PATTERN.matcher(desc);
 
@@ -336,20 +417,20 @@ public class AudioLoader implements AudioLoadResultHandler {
                 FriendlyException fe = (FriendlyException) th;
                 if (fe.severity == FriendlyException.Severity.COMMON) {
                     if (ic.getTextChannel() != null) {
-                        context.reply(MessageFormat.format(I18n.get(ic, "loadErrorCommon"), context.identifier, fe.getMessage()));
+                        ic.reply(MessageFormat.format(I18n.get(ic, "loadErrorCommon"), ic.identifier, fe.getMessage()));
                     } else {
                         log.error("Error while loading track ", th);
                     }
                 } else if (ic.getTextChannel() != null) {
-                    context.reply(MessageFormat.format(I18n.get(ic, "loadErrorSusp"), context.identifier));
+                    ic.reply(MessageFormat.format(I18n.get(ic, "loadErrorSusp"), ic.identifier));
                     Throwable exposed = fe.getCause() == null ? fe : fe.getCause();
-                    TextUtils.handleException(exposed, context);
+                    TextUtils.handleException(exposed, ic);
                 } else {
                     log.error("Error while loading track ", th);
                 }
             } else if (ic.getTextChannel() != null) {
-                context.reply(I18n.get(ic, "loadErrorSusp"));
-                TextUtils.handleException(th, context);
+                ic.reply(I18n.get(ic, "loadErrorSusp"));
+                TextUtils.handleException(th, ic);
             } else {
                 log.error("Error while loading track ", th);
             }
@@ -126,9 +126,20 @@ public interface ITrackProvider {
      */
     int streamsCount();
 
+    /**
+     * @return amount of tracks in the queue that were added by the provided userId
+     */
+    int getTrackCountByUser(long userId);
+
     /**
      * @return false if any of the provided tracks was added by user that is not the provided userId
      */
     boolean isUserTrackOwner(long userId, Collection<Long> trackIds);
 
+    /**
+     * @return a number that grows whenever the queue, its order, or the shuffle and repeat mode change, so anyone
+     * keeping a copy of the queue can tell whether it is outdated
+     */
+    long getModifications();
+
 }
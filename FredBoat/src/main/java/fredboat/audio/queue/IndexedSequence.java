@@ -0,0 +1,352 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A list with O(log n) positional access, insertion and removal, implemented as an implicit treap (a randomized
+ * binary search tree keyed by position, where every node knows the size of its subtree).
+ * <p>
+ * Insertions hand out the node holding the element, which can later be used to look up the current index of that
+ * element or to remove it without searching for it.
+ * <p>
+ * This class is not thread safe, callers have to take care of synchronization.
+ */
+class IndexedSequence<E> implements Iterable<E> {
+
+    private Node<E> root = null;
+
+    //results of the last split() call, saves us from allocating a pair for every split
+    private Node<E> splitLeft;
+    private Node<E> splitRight;
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * @return the node holding the added element
+     */
+    public Node<E> addLast(E value) {
+        Node<E> node = new Node<>(value);
+        root = merge(root, node);
+        root.parent = null;
+        return node;
+    }
+
+    /**
+     * @param index position at which the element will be inserted, elements at or behind that position are shifted
+     * @return the node holding the added element
+     */
+    public Node<E> insert(int index, E value) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<E> node = new Node<>(value);
+        split(root, index);
+        Node<E> right = splitRight;
+        root = merge(merge(splitLeft, node), right);
+        root.parent = null;
+        return node;
+    }
+
+    public E get(int index) {
+        return getNode(index).value;
+    }
+
+    /**
+     * @return the first element or null if this sequence is empty
+     */
+    public E first() {
+        if (root == null) return null;
+
+        Node<E> node = root;
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.value;
+    }
+
+    /**
+     * @return the current index of the element held by the provided node, or -1 if the node is not part of this sequence
+     */
+    public int indexOf(Node<E> node) {
+        if (!contains(node)) return -1;
+
+        int index = size(node.left);
+        for (Node<E> n = node; n.parent != null; n = n.parent) {
+            if (n.parent.right == n) {
+                index += size(n.parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return true if the node was part of this sequence and has been removed
+     */
+    public boolean remove(Node<E> node) {
+        if (!contains(node)) return false;
+
+        Node<E> replacement = merge(node.left, node.right);
+        Node<E> parent = node.parent;
+        if (replacement != null) {
+            replacement.parent = parent;
+        }
+
+        if (parent == null) {
+            root = replacement;
+        } else if (parent.left == node) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+
+        for (Node<E> n = parent; n != null; n = n.parent) {
+            n.size--;
+        }
+
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        node.size = 1;
+        return true;
+    }
+
+    /**
+     * Replaces the content of this sequence with the provided nodes in the given order, in O(n). The nodes have to
+     * belong to this sequence or be detached; they keep holding their elements, so handles held by callers stay valid.
+     */
+    public void rebuild(List<Node<E>> nodes) {
+        //cartesian tree construction: keep the right spine of the tree on a stack, each new node becomes the right
+        //child of the last spine node with a higher priority and adopts the popped nodes as its left subtree
+        ArrayDeque<Node<E>> spine = new ArrayDeque<>();
+        for (Node<E> node : nodes) {
+            node.right = null;
+            node.parent = null;
+            Node<E> popped = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                popped = spine.pop();
+            }
+            node.left = popped;
+            if (!spine.isEmpty()) {
+                spine.peek().right = node;
+            }
+            spine.push(node);
+        }
+
+        root = spine.peekLast();
+        if (root != null) {
+            updateSubtree(root);
+            root.parent = null;
+        }
+    }
+
+    /**
+     * @param fromIndex inclusive, has to be in the range of this sequence
+     * @param toIndex   exclusive, has to be in the range of this sequence
+     * @return the elements in the given range, in the order of this sequence
+     */
+    public List<E> range(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size());
+        }
+        List<E> result = new ArrayList<>(toIndex - fromIndex);
+        collect(root, fromIndex, toIndex, result);
+        return result;
+    }
+
+    public List<E> toList() {
+        return range(0, size());
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Node<E> next = root == null ? null : leftmost(root);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) throw new NoSuchElementException();
+                Node<E> current = next;
+                next = successor(current);
+                return current.value;
+            }
+        };
+    }
+
+    private boolean contains(Node<E> node) {
+        //detached nodes have no parent and are not the root
+        return node != null && (node.parent != null || node == root);
+    }
+
+    private Node<E> getNode(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<E> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Collects the elements in [from, to) of the subtree t, the indices being relative to that subtree
+     */
+    private static <E> void collect(Node<E> t, int from, int to, List<E> out) {
+        if (t == null || from >= to) return;
+
+        int leftSize = size(t.left);
+        if (from < leftSize) {
+            collect(t.left, from, Math.min(to, leftSize), out);
+        }
+        if (from <= leftSize && leftSize < to) {
+            out.add(t.value);
+        }
+        if (to > leftSize + 1) {
+            collect(t.right, Math.max(0, from - leftSize - 1), to - leftSize - 1, out);
+        }
+    }
+
+    /**
+     * Splits the subtree t into the first k elements (splitLeft) and the rest (splitRight)
+     */
+    private void split(Node<E> t, int k) {
+        if (t == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        if (size(t.left) < k) {
+            split(t.right, k - size(t.left) - 1);
+            t.right = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            split(t.left, k);
+            t.left = splitRight;
+            update(t);
+            splitRight = t;
+        }
+    }
+
+    /**
+     * @return the root of the subtree containing all elements of a followed by all elements of b
+     */
+    private static <E> Node<E> merge(Node<E> a, Node<E> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static <E> void update(Node<E> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) node.left.parent = node;
+        if (node.right != null) node.right.parent = node;
+    }
+
+    private static <E> void updateSubtree(Node<E> node) {
+        if (node.left != null) updateSubtree(node.left);
+        if (node.right != null) updateSubtree(node.right);
+        update(node);
+    }
+
+    private static <E> Node<E> leftmost(Node<E> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    private static <E> Node<E> successor(Node<E> node) {
+        if (node.right != null) {
+            return leftmost(node.right);
+        }
+        Node<E> n = node;
+        while (n.parent != null && n.parent.right == n) {
+            n = n.parent;
+        }
+        return n.parent;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    static final class Node<E> {
+        private final E value;
+        private final int priority;
+        private Node<E> left = null;
+        private Node<E> right = null;
+        private Node<E> parent = null;
+        private int size = 1;
+
+        private Node(E value) {
+            this.value = value;
+            this.priority = ThreadLocalRandom.current().nextInt();
+        }
+
+        public E getValue() {
+            return value;
+        }
+    }
+}
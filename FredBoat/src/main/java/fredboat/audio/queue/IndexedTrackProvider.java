@@ -0,0 +1,282 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Track provider backed by {@link IndexedSequence}s plus an index of trackId -> nodes, so that positional access,
+ * range reads and removal of tracks by their id take O(log n) instead of walking the whole queue.
+ * <p>
+ * The shuffled order is maintained next to the regular one at all times: new tracks are inserted at a random position
+ * of it, so that playing, peeking and reading from the shuffled queue never requires rebuilding it. Only reshuffle()
+ * touches every track.
+ * <p>
+ * Aggregates over the queue (duration, amount of streams, tracks per user) are kept as running totals, so querying
+ * them is O(1). The trackIds of each user are indexed as well, so ownership checks for m tracks take m hash lookups.
+ * <p>
+ * Tracks are identified by their trackId, adding a track context that is already queued has no effect.
+ */
+public class IndexedTrackProvider extends AbstractTrackProvider {
+
+    private final IndexedSequence<AudioTrackContext> queue = new IndexedSequence<>();
+    private final IndexedSequence<AudioTrackContext> shuffledQueue = new IndexedSequence<>();
+    private final Long2ObjectOpenHashMap<Entry> entriesByTrackId = new Long2ObjectOpenHashMap<>();
+    private AudioTrackContext lastTrack = null;
+
+    //running totals of the queued tracks
+    private long durationMillis = 0;
+    private int streams = 0;
+    private final Long2ObjectOpenHashMap<LongOpenHashSet> trackIdsByUser = new Long2ObjectOpenHashMap<>();
+
+    @Override
+    public synchronized void skipped() {
+        lastTrack = null;
+    }
+
+    @Override
+    public synchronized void setLastTrack(AudioTrackContext lastTrack) {
+        this.lastTrack = lastTrack;
+    }
+
+    @Override
+    public synchronized AudioTrackContext provideAudioTrack() {
+        if (getRepeatMode() == RepeatMode.SINGLE && lastTrack != null) {
+            return lastTrack.makeClone();
+        }
+        if (getRepeatMode() == RepeatMode.ALL && lastTrack != null) {
+            //add a fresh copy of the last track back to the queue, if the queue is being repeated
+            //it goes to the back of the shuffled queue as well
+            addInternal(lastTrack.makeClone(), false);
+        }
+
+        lastTrack = getOrderedQueue().first();
+        if (lastTrack != null) {
+            removeInternal(lastTrack.getTrackId());
+        }
+        return lastTrack;
+    }
+
+    @Override
+    public synchronized boolean remove(AudioTrackContext atc) {
+        return removeInternal(atc.getTrackId());
+    }
+
+    @Override
+    public synchronized void removeAll(Collection<AudioTrackContext> tracks) {
+        for (AudioTrackContext atc : tracks) {
+            removeInternal(atc.getTrackId());
+        }
+    }
+
+    @Override
+    public synchronized void removeAllById(Collection<Long> trackIds) {
+        for (Long trackId : trackIds) {
+            removeInternal(trackId);
+        }
+    }
+
+    @Override
+    public synchronized AudioTrackContext getTrack(int index) {
+        return getOrderedQueue().get(index);
+    }
+
+    @Override
+    public synchronized List<AudioTrackContext> getTracksInRange(int indexA, int indexB) {
+        //make sure startIndex <= endIndex and both are inside the queue
+        int size = queue.size();
+        int startIndex = Math.max(0, Math.min(size, Math.min(indexA, indexB)));
+        int endIndex = Math.max(0, Math.min(size, Math.max(indexA, indexB)));
+
+        return getOrderedQueue().range(startIndex, endIndex);
+    }
+
+    @Override
+    public synchronized List<AudioTrackContext> getAsList() {
+        return queue.toList();
+    }
+
+    @Override
+    public synchronized void reshuffle() {
+        List<IndexedSequence.Node<AudioTrackContext>> nodes = new ArrayList<>(entriesByTrackId.size());
+        for (Entry entry : entriesByTrackId.values()) {
+            nodes.add(entry.shuffledNode);
+        }
+        Collections.shuffle(nodes, ThreadLocalRandom.current());
+        shuffledQueue.rebuild(nodes);
+        modified();
+    }
+
+    @Override
+    public synchronized List<AudioTrackContext> getAsListOrdered() {
+        return getOrderedQueue().toList();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    @Override
+    public synchronized void add(AudioTrackContext track) {
+        addInternal(track, true);
+    }
+
+    @Override
+    public synchronized void addAll(Collection<AudioTrackContext> tracks) {
+        for (AudioTrackContext atc : tracks) {
+            addInternal(atc, true);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        lastTrack = null;
+        queue.clear();
+        shuffledQueue.clear();
+        entriesByTrackId.clear();
+        durationMillis = 0;
+        streams = 0;
+        trackIdsByUser.clear();
+        modified();
+    }
+
+    @Override
+    public synchronized long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public synchronized int streamsCount() {
+        return streams;
+    }
+
+    @Override
+    public synchronized int getTrackCountByUser(long userId) {
+        LongOpenHashSet trackIds = trackIdsByUser.get(userId);
+        return trackIds == null ? 0 : trackIds.size();
+    }
+
+    @Override
+    public synchronized AudioTrackContext peek() {
+        return getOrderedQueue().first();
+    }
+
+    @Override
+    public synchronized boolean isUserTrackOwner(long userId, Collection<Long> trackIds) {
+        LongOpenHashSet ownTrackIds = trackIdsByUser.get(userId);
+        for (Long trackId : trackIds) {
+            long id = trackId;
+            if ((ownTrackIds == null || !ownTrackIds.contains(id)) && entriesByTrackId.containsKey(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the queue in playing order
+     */
+    private IndexedSequence<AudioTrackContext> getOrderedQueue() {
+        return isShuffle() ? shuffledQueue : queue;
+    }
+
+    /**
+     * @param shuffleIn true to insert the track at a random position of the shuffled queue, false to append it
+     */
+    private void addInternal(AudioTrackContext atc, boolean shuffleIn) {
+        if (entriesByTrackId.containsKey(atc.getTrackId())) {
+            return;
+        }
+        modified();
+        IndexedSequence.Node<AudioTrackContext> shuffledNode;
+        if (shuffleIn) {
+            int position = ThreadLocalRandom.current().nextInt(shuffledQueue.size() + 1);
+            shuffledNode = shuffledQueue.insert(position, atc);
+        } else {
+            shuffledNode = shuffledQueue.addLast(atc);
+        }
+        entriesByTrackId.put(atc.getTrackId(), new Entry(atc, queue.addLast(atc), shuffledNode));
+
+        if (atc.getTrack().getInfo().isStream) {
+            streams++;
+        } else {
+            durationMillis += atc.getEffectiveDuration();
+        }
+        trackIdsByUser.computeIfAbsent(atc.getUserId(), userId -> new LongOpenHashSet()).add(atc.getTrackId());
+    }
+
+    private boolean removeInternal(long trackId) {
+        Entry entry = entriesByTrackId.remove(trackId);
+        if (entry == null) {
+            return false;
+        }
+        modified();
+        queue.remove(entry.node);
+        shuffledQueue.remove(entry.shuffledNode);
+
+        AudioTrackContext atc = entry.atc;
+        if (atc.getTrack().getInfo().isStream) {
+            streams--;
+        } else {
+            durationMillis -= atc.getEffectiveDuration();
+        }
+        LongOpenHashSet userTrackIds = trackIdsByUser.get(atc.getUserId());
+        userTrackIds.remove(trackId);
+        if (userTrackIds.isEmpty()) {
+            trackIdsByUser.remove(atc.getUserId());
+        }
+        return true;
+    }
+
+    /**
+     * A queued track and its positions in the regular and the shuffled queue
+     */
+    private static class Entry {
+        private final AudioTrackContext atc;
+        private final IndexedSequence.Node<AudioTrackContext> node;
+        private final IndexedSequence.Node<AudioTrackContext> shuffledNode;
+
+        private Entry(AudioTrackContext atc, IndexedSequence.Node<AudioTrackContext> node,
+                      IndexedSequence.Node<AudioTrackContext> shuffledNode) {
+            this.atc = atc;
+            this.node = node;
+            this.shuffledNode = shuffledNode;
+        }
+    }
+}
@@ -25,6 +25,7 @@
 
 package fredboat.audio.queue;
 
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput;
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
@@ -35,48 +36,119 @@ import fredboat.audio.player.GuildPlayer;
 import fredboat.audio.player.PlayerRegistry;
 import fredboat.feature.I18n;
 import fredboat.messaging.CentralMessaging;
+import fredboat.metrics.Counter;
+import fredboat.metrics.MetricFamily;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
 import fredboat.shared.constant.DistributionEnum;
 import fredboat.shared.constant.ExitCodes;
-import net.dv8tion.jda.core.entities.Member;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.entities.TextChannel;
 import net.dv8tion.jda.core.entities.VoiceChannel;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.FileUtils;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class MusicPersistenceHandler {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(MusicPersistenceHandler.class);
 
+    private static final File DIR = new File("music_persistence");
+    //position of the playing track of each persisted player, rewritten with every checkpoint
+    private static final String POSITIONS_FILE = "positions";
+    private static final Pattern GUILD_FILE_NAME = Pattern.compile("\\d+");
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 30;
+
+    //each restore joins a voice channel, which is a gateway message of the shard, and those are limited to 120 per
+    //minute. This leaves plenty of room for everything else the shard sends.
+    private static final long SHARD_RESTORE_INTERVAL_MILLIS = 1000;
+    //each restore sends a message, stay well below the global message ratelimit of the bot
+    private static final long GLOBAL_RESTORE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(40);
+
+    private static final ScheduledExecutorService CHECKPOINTS =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("music-persistence"));
+    //restores are quick, the time in between them is spent waiting on the ratelimits
+    private static final ScheduledExecutorService RELOADS =
+            Executors.newScheduledThreadPool(4, new DaemonThreadFactory("music-persistence-reload"));
+
+    private static final Timer CHECKPOINT_DURATION = Metrics.timer("fredboat_music_persistence_checkpoint_duration_seconds",
+            "Time taken to write a checkpoint of the playing players");
+    private static final Counter PLAYERS_WRITTEN = Metrics.counter("fredboat_music_persistence_players_written_total",
+            "Players written to a checkpoint because their state changed since the last one");
+    private static final Timer GUILD_RESTORE_DURATION = Metrics.timer("fredboat_music_persistence_guild_restore_duration_seconds",
+            "Time taken to restore the player of a single persisted guild");
+    private static final MetricFamily<Counter> GUILDS_RESTORED = Metrics.counterFamily("fredboat_music_persistence_guilds_restored_total",
+            "Persisted guilds handled by the reload", "result");
+    private static final Counter TRACKS_RESTORED = Metrics.counter("fredboat_music_persistence_tracks_restored_total",
+            "Tracks queued by the reload of persisted guilds");
+
+    //guarded by MusicPersistenceHandler.class, what got written for each guild that has a persistence file
+    private static final Long2ObjectOpenHashMap<Written> WRITTEN = new Long2ObjectOpenHashMap<>();
+    private static boolean checkpointsStarted = false;
+    //guarded by MusicPersistenceHandler.class, the persisted guilds of each shard that wasn't reloaded yet, and the
+    //positions the last checkpoint of the previous run recorded for them
+    private static Int2ObjectOpenHashMap<LongArrayList> pendingReloads = null;
+    private static Long2ObjectOpenHashMap<Position> persistedPositions = new Long2ObjectOpenHashMap<>();
+    //guarded by MusicPersistenceHandler.class, the earliest time the next restore of any shard may happen
+    private static long nextRestoreSlot = 0;
+
     private MusicPersistenceHandler() {
     }
 
-    public static void handlePreShutdown(int code) {
-        File dir = new File("music_persistence");
-        if (!dir.exists()) {
-            dir.mkdir();
+    /**
+     * Starts writing the state of all playing players in the background every {@link #CHECKPOINT_INTERVAL_SECONDS},
+     * so a crash loses at most that much. Only players that changed since the last checkpoint are written.
+     * <p>
+     * Checkpoints leave the files of guilds that are still waiting for their reload alone, so this may be called as
+     * soon as the first shard is ready.
+     */
+    public static synchronized void startCheckpoints() {
+        if (checkpointsStarted) {
+            return;
         }
-        HashMap<String, GuildPlayer> reg = PlayerRegistry.getRegistry();
+        checkpointsStarted = true;
+        CHECKPOINTS.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint(false);
+            } catch (Exception e) {
+                log.error("Failed to write music persistence checkpoint", e);
+            }
+        }, CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static void handlePreShutdown(int code) {
+        //the last checkpoint is written right here
+        CHECKPOINTS.shutdown();
 
         boolean isUpdate = code == ExitCodes.EXIT_CODE_UPDATE;
         boolean isRestart = code == ExitCodes.EXIT_CODE_RESTART;
 
-        for (String gId : reg.keySet()) {
+        for (GuildPlayer player : PlayerRegistry.getAll()) {
             try {
-                GuildPlayer player = reg.get(gId);
-
                 if (!player.isPlaying()) {
                     continue;//Nothing to see here
                 }
@@ -92,171 +164,420 @@ public class MusicPersistenceHandler {
                 }
 
                 CentralMessaging.sendMessage(player.getActiveTextChannel(), msg);
+            } catch (Exception ex) {
+                log.error("Error when announcing shutdown", ex);
+            }
+        }
+
+        //most players are unchanged since the last checkpoint, so this is a small delta
+        checkpoint(true);
+    }
+
+    /**
+     * Writes the state of each playing player that changed since it was last written, deletes the files of players
+     * that stopped playing, and records the positions of the playing tracks.
+     * <p>
+     * Every file is written next to its target first and then moved over it, so a crash while writing leaves the last
+     * checkpoint intact.
+     */
+    static synchronized void checkpoint(boolean isShutdown) {
+        long started = System.nanoTime();
+        if (!DIR.exists()) {
+            DIR.mkdir();
+        }
 
-                JSONObject data = new JSONObject();
-                data.put("vc", player.getUserCurrentVoiceChannel(player.getGuild().getSelfMember()).getId());
-                data.put("tc", player.getActiveTextChannel().getId());
-                data.put("isPaused", player.isPaused());
-                data.put("volume", Float.toString(player.getVolume()));
-                data.put("repeatMode", player.getRepeatMode());
-                data.put("shuffle", player.isShuffle());
+        LongOpenHashSet playing = new LongOpenHashSet();
+        Long2ObjectOpenHashMap<Position> positions = new Long2ObjectOpenHashMap<>();
+        for (GuildPlayer player : PlayerRegistry.getAll()) {
+            try {
+                if (!player.isPlaying()) {
+                    continue;
+                }
+                //read before the state, so whatever changes while writing makes the next checkpoint write it again
+                long version = player.getStateVersion();
+                VoiceChannel vc = player.getUserCurrentVoiceChannel(player.getGuild().getSelfMember());
+                if (vc == null) {
+                    continue;
+                }
+                long guildId = player.getGuildId();
+                playing.add(guildId);
+
+                Written written = WRITTEN.get(guildId);
+                if (written == null || written.version != version || written.voiceChannelId != vc.getIdLong()) {
+                    try {
+                        writeAtomically(new File(DIR, Long.toString(guildId)), toBytes(snapshot(player, vc, version)));
+                        WRITTEN.put(guildId, new Written(version, vc.getIdLong()));
+                        PLAYERS_WRITTEN.inc();
+                    } catch (IOException ex) {
+                        if (isShutdown) {
+                            CentralMessaging.sendMessage(player.getActiveTextChannel(),
+                                    MessageFormat.format(I18n.get(player.getGuild()).getString("shutdownPersistenceFail"),
+                                            ex.getMessage()));
+                        } else {
+                            log.warn("Failed to write persistence file of guild " + guildId, ex);
+                        }
+                    }
+                }
 
                 if (player.getPlayingTrack() != null) {
-                    data.put("position", player.getPosition());
+                    positions.put(guildId, new Position(version, player.getPosition()));
                 }
+            } catch (Exception ex) {
+                log.error("Error when saving persistence file", ex);
+            }
+        }
 
-                ArrayList<JSONObject> identifiers = new ArrayList<>();
+        //players that stopped playing or are gone
+        for (long guildId : new LongArrayList(WRITTEN.keySet())) {
+            if (!playing.contains(guildId)) {
+                WRITTEN.remove(guildId);
+                File file = new File(DIR, Long.toString(guildId));
+                if (file.exists() && !file.delete()) {
+                    log.warn("Failed to delete persistence file: " + file);
+                }
+            }
+        }
 
-                for (AudioTrackContext atc : player.getRemainingTracks()) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    AbstractPlayer.getPlayerManager().encodeTrack(new MessageOutput(baos), atc.getTrack());
+        try {
+            writeAtomically(new File(DIR, POSITIONS_FILE), toBytes(positions));
+        } catch (IOException ex) {
+            log.warn("Failed to write the positions of the persisted players", ex);
+        }
+        CHECKPOINT_DURATION.observeSince(started);
+    }
 
-                    JSONObject ident = new JSONObject()
-                            .put("message", Base64.encodeBase64String(baos.toByteArray()))
-                            .put("user", atc.getUserId());
+    private static PersistedGuild snapshot(GuildPlayer player, VoiceChannel vc, long version) throws IOException {
+        List<PersistedGuild.Track> tracks = new ArrayList<>();
+        for (AudioTrackContext atc : player.getRemainingTracks()) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            AbstractPlayer.getPlayerManager().encodeTrack(new MessageOutput(baos), atc.getTrack());
+
+            PersistedGuild.Split split = null;
+            if (atc instanceof SplitAudioTrackContext) {
+                SplitAudioTrackContext c = (SplitAudioTrackContext) atc;
+                split = new PersistedGuild.Split(c.getEffectiveTitle(), c.getStartPosition(),
+                        c.getStartPosition() + c.getEffectiveDuration());
+            }
+            tracks.add(new PersistedGuild.Track(atc.getUserId(), baos.toByteArray(), split));
+        }
 
-                    if(atc instanceof SplitAudioTrackContext) {
-                        JSONObject split = new JSONObject();
-                        SplitAudioTrackContext c = (SplitAudioTrackContext) atc;
-                        split.put("title", c.getEffectiveTitle())
-                                .put("startPos", c.getStartPosition())
-                                .put("endPos", c.getStartPosition() + c.getEffectiveDuration());
+        long position = player.getPlayingTrack() != null ? player.getPosition() : -1;
+        return new PersistedGuild(version, vc.getIdLong(), player.getActiveTextChannel().getIdLong(),
+                player.isPaused(), player.getVolume(), player.getRepeatMode(), player.isShuffle(), position, tracks);
+    }
 
-                        ident.put("split", split);
-                    }
+    private static byte[] toBytes(PersistedGuild persisted) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        persisted.write(new DataOutputStream(out));
+        return out.toByteArray();
+    }
 
-                    identifiers.add(ident);
-                }
+    private static byte[] toBytes(Long2ObjectOpenHashMap<Position> positions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(PersistedGuild.FORMAT_VERSION);
+        data.writeInt(positions.size());
+        for (Long2ObjectMap.Entry<Position> entry : positions.long2ObjectEntrySet()) {
+            data.writeLong(entry.getLongKey());
+            data.writeLong(entry.getValue().version);
+            data.writeLong(entry.getValue().position);
+        }
+        return out.toByteArray();
+    }
 
-                data.put("sources", identifiers);
+    private static void writeAtomically(File target, byte[] content) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(content);
+            //on the disk before it replaces the previous file
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 
-                try {
-                    FileUtils.writeStringToFile(new File(dir, gId), data.toString(), Charset.forName("UTF-8"));
-                } catch (IOException ex) {
-                    CentralMessaging.sendMessage(player.getActiveTextChannel(),
-                            MessageFormat.format(I18n.get(player.getGuild()).getString("shutdownPersistenceFail"),
-                                    ex.getMessage()));
-                }
-            } catch (Exception ex) {
-                log.error("Error when saving persistence file", ex);
+    /**
+     * Restores the persisted players of the guilds of this shard. Should be called whenever a shard becomes ready,
+     * each shard gets reloaded once.
+     * <p>
+     * The guilds of a shard are restored one after the other in the background, paced to stay within the voice
+     * connect ratelimit of the shard, while all shards reload in parallel within the message ratelimit of the bot.
+     */
+    public static void reloadShard(JDA jda) {
+        int shardId = jda.getShardInfo() == null ? 0 : jda.getShardInfo().getShardId();
+        LongArrayList guildIds;
+        synchronized (MusicPersistenceHandler.class) {
+            if (pendingReloads == null) {
+                pendingReloads = indexPersistedGuilds();
             }
+            guildIds = pendingReloads.remove(shardId);
+        }
+        if (guildIds == null || guildIds.isEmpty()) {
+            return;
         }
+
+        log.info("Reloading " + guildIds.size() + " persisted players of shard " + shardId);
+        new ShardReload(jda, shardId, guildIds).scheduleNext(0);
     }
 
-    public static void reloadPlaylists() {
-        File dir = new File("music_persistence");
+    //guarded by MusicPersistenceHandler.class
+    private static Int2ObjectOpenHashMap<LongArrayList> indexPersistedGuilds() {
+        Int2ObjectOpenHashMap<LongArrayList> index = new Int2ObjectOpenHashMap<>();
+        File[] files = DIR.listFiles();
+        if (files == null) {
+            return index;
+        }
 
-        if(Config.CONFIG.getDistribution() == DistributionEnum.MUSIC) {
+        if (Config.CONFIG.getDistribution() == DistributionEnum.MUSIC) {
             log.warn("Music persistence loading is currently disabled!");
 
-            File[] files = dir.listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    boolean deleted = f.delete();
-                    log.info(deleted ? "Deleted persistence file: " + f : "Failed to delete persistence file: " + f);
-                }
+            for (File f : files) {
+                boolean deleted = f.delete();
+                log.info(deleted ? "Deleted persistence file: " + f : "Failed to delete persistence file: " + f);
+            }
+            DIR.delete();
+            return index;
+        }
 
-                dir.delete();
+        persistedPositions = readPositions(new File(DIR, POSITIONS_FILE));
+        int count = 0;
+        for (File file : files) {
+            //skip the positions and any file that was being written when we went down
+            if (!GUILD_FILE_NAME.matcher(file.getName()).matches()) {
+                continue;
             }
-            return;
+            long guildId = Long.parseLong(file.getName());
+            int shardId = FredBoat.getShardRouter().getShardId(guildId);
+            LongArrayList guildIds = index.get(shardId);
+            if (guildIds == null) {
+                guildIds = new LongArrayList();
+                index.put(shardId, guildIds);
+            }
+            guildIds.add(guildId);
+            count++;
         }
+        log.info("Found " + count + " persisted players on " + index.size() + " shards");
+        return index;
+    }
 
-        log.info("Began reloading playlists");
-        if (!dir.exists()) {
-            return;
+    private static Long2ObjectOpenHashMap<Position> readPositions(File file) {
+        Long2ObjectOpenHashMap<Position> positions = new Long2ObjectOpenHashMap<>();
+        if (!file.exists()) {
+            return positions;
         }
-        log.info("Found persistence data: " + Arrays.toString(dir.listFiles()));
+        try {
+            byte[] serialized = Files.readAllBytes(file.toPath());
+            //positions written as json by older versions are ignored, the guild files have a position too
+            if (!PersistedGuild.isBinaryFormat(serialized)) {
+                return positions;
+            }
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(serialized));
+            data.readByte();
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                positions.put(data.readLong(), new Position(data.readLong(), data.readLong()));
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to read the positions of the persisted players", ex);
+        }
+        return positions;
+    }
 
-        for (File file : dir.listFiles()) {
+    /**
+     * @return the amount of tracks that got queued, or -1 if there was nothing to restore
+     */
+    private static int restore(JDA jda, long guildId) throws IOException {
+        PersistedGuild persisted;
+        synchronized (MusicPersistenceHandler.class) {
+            File file = new File(DIR, Long.toString(guildId));
+            //a player that got started meanwhile is checkpointed into the same file, don't restore over it
+            if (WRITTEN.containsKey(guildId) || !file.exists()) {
+                return -1;
+            }
             try {
-                String gId = file.getName();
-                JSONObject data = new JSONObject(FileUtils.readFileToString(file, Charset.forName("UTF-8")));
-
-                //TODO: Make shard in-specific
-                boolean isPaused = data.getBoolean("isPaused");
-                final JSONArray sources = data.getJSONArray("sources");
-                VoiceChannel vc = FredBoat.getVoiceChannelById(data.getString("vc"));
-                TextChannel tc = FredBoat.getTextChannelById(data.getString("tc"));
-                float volume = Float.parseFloat(data.getString("volume"));
-                RepeatMode repeatMode = data.getEnum(RepeatMode.class, "repeatMode");
-                boolean shuffle = data.getBoolean("shuffle");
-
-                GuildPlayer player = PlayerRegistry.get(vc.getJDA(), gId);
-
-                player.joinChannel(vc);
-                player.setCurrentTC(tc);
-                if(Config.CONFIG.getDistribution().volumeSupported()) {
-                    player.setVolume(volume);
+                persisted = read(Files.readAllBytes(file.toPath()));
+            } finally {
+                if (!file.delete()) {
+                    log.warn("Failed to delete persistence file: " + file);
                 }
-                player.setRepeatMode(repeatMode);
-                player.setShuffle(shuffle);
+            }
+            //the last checkpoint may have recorded a more recent position of the same state
+            Position position = persistedPositions.remove(guildId);
+            if (position != null && persisted.position >= 0 && position.version == persisted.version) {
+                persisted = persisted.withPosition(position.position);
+            }
+        }
 
-                final boolean[] isFirst = {true};
+        VoiceChannel vc = jda.getVoiceChannelById(persisted.voiceChannelId);
+        TextChannel tc = jda.getTextChannelById(persisted.textChannelId);
+        if (vc == null || tc == null) {
+            log.info("Channels of persisted player of guild " + guildId + " are gone, skipping it");
+            return -1;
+        }
 
-                sources.forEach((Object t) -> {
-                    JSONObject json = (JSONObject) t;
-                    byte[] message = Base64.decodeBase64(json.getString("message"));
-                    Member member = vc.getGuild().getMember(vc.getJDA().getUserById(json.getString("user")));
-                    if (member == null)
-                        member = vc.getGuild().getSelfMember(); //member left the guild meanwhile, set ourselves as the one who added the song
+        GuildPlayer player = PlayerRegistry.get(jda, guildId);
 
-                    AudioTrack at;
-                    try {
-                        ByteArrayInputStream bais = new ByteArrayInputStream(message);
-                        at = AbstractPlayer.getPlayerManager().decodeTrack(new MessageInput(bais)).decodedTrack;
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+        player.joinChannel(vc);
+        player.setCurrentTC(tc);
+        if (Config.CONFIG.getDistribution().volumeSupported()) {
+            player.setVolume(persisted.volume);
+        }
+        player.setRepeatMode(persisted.repeatMode);
+        player.setShuffle(persisted.shuffle);
+
+        boolean isFirst = true;
+        int queued = 0;
+        for (PersistedGuild.Track track : persisted.tracks) {
+            AudioTrack at = AbstractPlayer.getPlayerManager()
+                    .decodeTrack(new MessageInput(new ByteArrayInputStream(track.encodedTrack))).decodedTrack;
+            if (at == null) {
+                log.error("Loaded track that was null! Skipping...");
+                continue;
+            }
 
-                    if (at == null) {
-                        log.error("Loaded track that was null! Skipping...");
-                        return;
-                    }
+            long userId = track.userId;
+            if (vc.getGuild().getMemberById(userId) == null) {
+                //member left the guild meanwhile, set ourselves as the one who added the song
+                userId = vc.getGuild().getSelfMember().getUser().getIdLong();
+            }
+            long position = isFirst && persisted.position >= 0 ? persisted.position : 0;
+            isFirst = false;
+
+            // Handle split tracks
+            AudioTrackContext atc;
+            PersistedGuild.Split split = track.split;
+            if (split != null) {
+                atc = new SplitAudioTrackContext(at, userId, guildId, split.startPosition, split.endPosition, split.title);
+                at.setPosition(split.startPosition + position);
+            } else {
+                atc = new AudioTrackContext(at, userId, guildId);
+                if (position > 0) {
+                    at.setPosition(position);
+                }
+            }
 
-                    // Handle split tracks
-                    AudioTrackContext atc;
-                    JSONObject split = json.optJSONObject("split");
-                    if(split != null) {
-                        atc = new SplitAudioTrackContext(at, member,
-                                split.getLong("startPos"),
-                                split.getLong("endPos"),
-                                split.getString("title")
-                        );
-                        at.setPosition(split.getLong("startPos"));
-
-                        if (isFirst[0]) {
-                            isFirst[0] = false;
-                            if (data.has("position")) {
-                                at.setPosition(split.getLong("startPos") + data.getLong("position"));
-                            }
-                        }
-                    } else {
-                        atc = new AudioTrackContext(at, member);
-
-                        if (isFirst[0]) {
-                            isFirst[0] = false;
-                            if (data.has("position")) {
-                                at.setPosition(data.getLong("position"));
-                            }
-                        }
-                    }
+            player.queue(atc);
+            queued++;
+        }
+
+        player.setPause(persisted.paused);
+        CentralMessaging.sendMessage(tc, MessageFormat.format(I18n.get(player.getGuild()).getString("reloadSuccess"), persisted.tracks.size()));
+        return queued;
+    }
 
-                    player.queue(atc);
-                });
+    /**
+     * Reads a persistence file of either the binary format or the json written by older versions.
+     */
+    static PersistedGuild read(byte[] serialized) throws IOException {
+        if (PersistedGuild.isBinaryFormat(serialized)) {
+            return PersistedGuild.read(new DataInputStream(new ByteArrayInputStream(serialized)));
+        }
+
+        JSONObject data = new JSONObject(new String(serialized, StandardCharsets.UTF_8));
+        List<PersistedGuild.Track> tracks = new ArrayList<>();
+        for (Object t : data.getJSONArray("sources")) {
+            JSONObject json = (JSONObject) t;
+            PersistedGuild.Split split = null;
+            JSONObject s = json.optJSONObject("split");
+            if (s != null) {
+                split = new PersistedGuild.Split(s.getString("title"), s.getLong("startPos"), s.getLong("endPos"));
+            }
+            //user ids used to be written as strings
+            tracks.add(new PersistedGuild.Track(Long.parseLong(json.get("user").toString()),
+                    Base64.decodeBase64(json.getString("message")), split));
+        }
+
+        return new PersistedGuild(data.optLong("version", -1),
+                Long.parseLong(data.getString("vc")),
+                Long.parseLong(data.getString("tc")),
+                data.getBoolean("isPaused"),
+                Float.parseFloat(data.getString("volume")),
+                data.getEnum(RepeatMode.class, "repeatMode"),
+                data.getBoolean("shuffle"),
+                data.has("position") ? data.getLong("position") : -1,
+                Collections.unmodifiableList(tracks));
+    }
+
+    /**
+     * @return nanoseconds from now until the reserved slot for a restore, which is at least earliestDelayNanos
+     */
+    private static synchronized long reserveRestoreSlot(long earliestDelayNanos) {
+        long now = System.nanoTime();
+        long slot = Math.max(now + earliestDelayNanos, nextRestoreSlot);
+        nextRestoreSlot = slot + GLOBAL_RESTORE_INTERVAL_NANOS;
+        return slot - now;
+    }
+
+    private static class ShardReload implements Runnable {
+        private final JDA jda;
+        private final int shardId;
+        private final LongArrayList guildIds;
+        private final long started = System.nanoTime();
+        private int next = 0;
+        private int restored = 0;
+        private int failed = 0;
+        private long tracks = 0;
+
+        private ShardReload(JDA jda, int shardId, LongArrayList guildIds) {
+            this.jda = jda;
+            this.shardId = shardId;
+            this.guildIds = guildIds;
+        }
 
-                player.setPause(isPaused);
-                CentralMessaging.sendMessage(tc, MessageFormat.format(I18n.get(player.getGuild()).getString("reloadSuccess"), sources.length()));
+        private void scheduleNext(long delayMillis) {
+            long delay = reserveRestoreSlot(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+            RELOADS.schedule(this, delay, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void run() {
+            long guildId = guildIds.getLong(next++);
+            long restoreStarted = System.nanoTime();
+            try {
+                int queued = restore(jda, guildId);
+                if (queued < 0) {
+                    GUILDS_RESTORED.get("skipped").inc();
+                } else {
+                    GUILD_RESTORE_DURATION.observeSince(restoreStarted);
+                    GUILDS_RESTORED.get("restored").inc();
+                    TRACKS_RESTORED.inc(queued);
+                    restored++;
+                    tracks += queued;
+                }
             } catch (Exception ex) {
-                log.error("Error when loading persistence file", ex);
+                GUILDS_RESTORED.get("failed").inc();
+                failed++;
+                log.error("Error when loading persistence file of guild " + guildId, ex);
+            }
+
+            if (next < guildIds.size()) {
+                scheduleNext(SHARD_RESTORE_INTERVAL_MILLIS);
+            } else {
+                double seconds = (System.nanoTime() - started) / 1e9;
+                log.info(String.format("Reloaded %d players with %d tracks on shard %d in %.1fs (%.2f players/s), %d failed, %d skipped",
+                        restored, tracks, shardId, seconds, restored / Math.max(seconds, 0.001), failed,
+                        guildIds.size() - restored - failed));
             }
         }
+    }
+
+    private static class Written {
+        private final long version;
+        private final long voiceChannelId;
 
-        for (File f : dir.listFiles()) {
-            boolean deleted = f.delete();
-            log.info(deleted ? "Deleted persistence file: " + f : "Failed to delete persistence file: " + f);
+        private Written(long version, long voiceChannelId) {
+            this.version = version;
+            this.voiceChannelId = voiceChannelId;
         }
+    }
+
+    private static class Position {
+        private final long version;
+        private final long position;
 
-        dir.delete();
+        private Position(long version, long position) {
+            this.version = version;
+            this.position = position;
+        }
     }
 
 }
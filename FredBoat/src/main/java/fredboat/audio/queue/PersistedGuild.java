@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What music persistence keeps of a player, and its binary format:
+ * <ul>
+ * <li>a byte holding the {@link #FORMAT_VERSION}, which tells it apart from the JSON files written before as those
+ * start with a brace</li>
+ * <li>the state version of the player, the voice and text channel ids, paused, volume, repeat mode, shuffle</li>
+ * <li>the position of the playing track as a long, negative if there is none</li>
+ * <li>the amount of tracks, followed by each track: the user id, whether it is a split track (then its title, start
+ * and end position), and the lavaplayer message of the track (see
+ * {@link com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager#encodeTrack}) prefixed with its length</li>
+ * </ul>
+ */
+class PersistedGuild {
+
+    static final byte FORMAT_VERSION = 1;
+
+    final long version;
+    final long voiceChannelId;
+    final long textChannelId;
+    final boolean paused;
+    final float volume;
+    final RepeatMode repeatMode;
+    final boolean shuffle;
+    //negative if nothing is playing
+    final long position;
+    final List<Track> tracks;
+
+    PersistedGuild(long version, long voiceChannelId, long textChannelId, boolean paused, float volume,
+                   RepeatMode repeatMode, boolean shuffle, long position, List<Track> tracks) {
+        this.version = version;
+        this.voiceChannelId = voiceChannelId;
+        this.textChannelId = textChannelId;
+        this.paused = paused;
+        this.volume = volume;
+        this.repeatMode = repeatMode;
+        this.shuffle = shuffle;
+        this.position = position;
+        this.tracks = tracks;
+    }
+
+    /**
+     * @return a copy with the position of the playing track replaced
+     */
+    PersistedGuild withPosition(long position) {
+        return new PersistedGuild(version, voiceChannelId, textChannelId, paused, volume, repeatMode, shuffle,
+                position, tracks);
+    }
+
+    static boolean isBinaryFormat(byte[] serialized) {
+        return serialized.length > 0 && serialized[0] == FORMAT_VERSION;
+    }
+
+    void write(DataOutput output) throws IOException {
+        output.writeByte(FORMAT_VERSION);
+        output.writeLong(version);
+        output.writeLong(voiceChannelId);
+        output.writeLong(textChannelId);
+        output.writeBoolean(paused);
+        output.writeFloat(volume);
+        output.writeUTF(repeatMode.name());
+        output.writeBoolean(shuffle);
+        output.writeLong(position);
+
+        output.writeInt(tracks.size());
+        for (Track track : tracks) {
+            output.writeLong(track.userId);
+            output.writeBoolean(track.split != null);
+            if (track.split != null) {
+                output.writeUTF(track.split.title);
+                output.writeLong(track.split.startPosition);
+                output.writeLong(track.split.endPosition);
+            }
+            output.writeInt(track.encodedTrack.length);
+            output.write(track.encodedTrack);
+        }
+    }
+
+    static PersistedGuild read(DataInput input) throws IOException {
+        byte formatVersion = input.readByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unknown music persistence format version " + formatVersion);
+        }
+        long version = input.readLong();
+        long voiceChannelId = input.readLong();
+        long textChannelId = input.readLong();
+        boolean paused = input.readBoolean();
+        float volume = input.readFloat();
+        RepeatMode repeatMode = RepeatMode.valueOf(input.readUTF());
+        boolean shuffle = input.readBoolean();
+        long position = input.readLong();
+
+        int trackCount = input.readInt();
+        List<Track> tracks = new ArrayList<>(trackCount);
+        for (int i = 0; i < trackCount; i++) {
+            long userId = input.readLong();
+            Split split = null;
+            if (input.readBoolean()) {
+                split = new Split(input.readUTF(), input.readLong(), input.readLong());
+            }
+            byte[] encodedTrack = new byte[input.readInt()];
+            input.readFully(encodedTrack);
+            tracks.add(new Track(userId, encodedTrack, split));
+        }
+        return new PersistedGuild(version, voiceChannelId, textChannelId, paused, volume, repeatMode, shuffle,
+                position, Collections.unmodifiableList(tracks));
+    }
+
+    static class Track {
+        final long userId;
+        //a single lavaplayer message
+        final byte[] encodedTrack;
+        @Nullable
+        final Split split;
+
+        Track(long userId, byte[] encodedTrack, @Nullable Split split) {
+            this.userId = userId;
+            this.encodedTrack = encodedTrack;
+            this.split = split;
+        }
+    }
+
+    static class Split {
+        final String title;
+        final long startPosition;
+        final long endPosition;
+
+        Split(String title, long startPosition, long endPosition) {
+            this.title = title;
+            this.startPosition = startPosition;
+            this.endPosition = endPosition;
+        }
+    }
+}
@@ -72,9 +72,11 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
             shouldUpdateShuffledQueue = true;
             lastTrack = list.get(0);
             queue.remove(lastTrack);
+            modified();
             return lastTrack;
         } else {
             lastTrack = queue.poll();
+            modified();
             return lastTrack;
         }
     }
@@ -83,6 +85,7 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
     public boolean remove(AudioTrackContext atc) {
         if (queue.remove(atc)) {
             shouldUpdateShuffledQueue = true;
+            modified();
             return true;
         } else {
             return false;
@@ -93,6 +96,7 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
     public void removeAll(Collection<AudioTrackContext> tracks) {
         if (queue.removeAll(tracks)) {
             shouldUpdateShuffledQueue = true;
+            modified();
         }
     }
 
@@ -100,6 +104,7 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
     public void removeAllById(Collection<Long> trackIds) {
         queue.removeIf(audioTrackContext -> trackIds.contains(audioTrackContext.getTrackId()));
         shouldUpdateShuffledQueue = true;
+        modified();
     }
 
     @Override
@@ -150,6 +155,7 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
     public synchronized void reshuffle() {
         queue.forEach(AudioTrackContext::randomize);
         shouldUpdateShuffledQueue = true;
+        modified();
     }
 
     @Override
@@ -199,12 +205,14 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
     public void add(AudioTrackContext track) {
         shouldUpdateShuffledQueue = true;
         queue.add(track);
+        modified();
     }
 
     @Override
     public void addAll(Collection<AudioTrackContext> tracks) {
         shouldUpdateShuffledQueue = true;
         queue.addAll(tracks);
+        modified();
     }
 
     @Override
@@ -212,6 +220,7 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
         lastTrack = null;
         shouldUpdateShuffledQueue = true;
         queue.clear();
+        modified();
     }
 
     @Override
@@ -236,6 +245,17 @@ public class SimpleTrackProvider extends AbstractTrackProvider {
         return streams;
     }
 
+    @Override
+    public int getTrackCountByUser(long userId) {
+        int tracks = 0;
+        for (AudioTrackContext atc : queue) {
+            if (atc.getUserId() == userId) {
+                tracks++;
+            }
+        }
+        return tracks;
+    }
+
     @Override
     public AudioTrackContext peek() {
         if (isShuffle() && queue.size() > 0) {
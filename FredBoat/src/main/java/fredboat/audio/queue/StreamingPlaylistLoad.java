@@ -0,0 +1,195 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import fredboat.audio.player.GuildPlayer;
+import fredboat.audio.source.PlaylistImport;
+import fredboat.audio.source.StreamingPlaylistImporter;
+import fredboat.feature.I18n;
+import fredboat.messaging.CentralMessaging;
+import fredboat.messaging.MessageFuture;
+import fredboat.metrics.MetricFamily;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
+
+import javax.annotation.Nullable;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Puts the tracks of a playlist import into the queue while the import is still running, so playback starts with the
+ * first track instead of after the last one. The progress is shown in a single status message that gets edited as more
+ * tracks are queued.
+ */
+class StreamingPlaylistLoad {
+
+    private static final int BATCH_SIZE = 25;
+    private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long STATUS_EDIT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final MetricFamily<Timer> TIME_TO_FIRST_AUDIO = Metrics.timerFamily(
+            "fredboat_playlist_time_to_first_audio_seconds",
+            "Time from starting to load a playlist until its first tracks were queued, by playlist size", "tracks");
+
+    private final IdentifierContext ic;
+    private final GuildPlayer gplayer;
+    private final ITrackProvider trackProvider;
+    private final long loadStartNanos;
+    private final AtomicInteger room;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final TrackBatcher<AudioTrackContext> batcher =
+            new TrackBatcher<>(BATCH_SIZE, MAX_BATCH_DELAY_NANOS, this::enqueue);
+    private volatile PlaylistImport playlistImport;
+
+    //guarded by this
+    private MessageFuture status = null;
+    private long lastStatusNanos;
+
+    /**
+     * @param room how many more tracks fit into the queue
+     */
+    StreamingPlaylistLoad(IdentifierContext ic, GuildPlayer gplayer, ITrackProvider trackProvider, long loadStartNanos,
+                          int room) {
+        this.ic = ic;
+        this.gplayer = gplayer;
+        this.trackProvider = trackProvider;
+        this.loadStartNanos = loadStartNanos;
+        this.room = new AtomicInteger(room);
+    }
+
+    /**
+     * @return the running import, or null if the importer is not available or doesn't recognize the identifier
+     */
+    @Nullable
+    PlaylistImport start(@Nullable StreamingPlaylistImporter importer) {
+        if (importer == null) {
+            return null;
+        }
+        PlaylistImport started = importer.startImport(ic.identifier, this::onTrack);
+        playlistImport = started;
+        return started;
+    }
+
+    /**
+     * Queues the tracks that are still waiting and replaces the status message with the summary of the load.
+     */
+    void finish(AudioPlaylist playlist) {
+        batcher.flush();
+        int total = queued.get();
+        String text;
+        if (total == 0 && playlistImport.getTotalTracks() == 0) {
+            text = MessageFormat.format(I18n.get(ic, "loadNoMatches"), ic.identifier);
+        } else {
+            text = MessageFormat.format(I18n.get(ic, "loadListSuccess"), total, playlist.getName());
+        }
+
+        MessageFuture sent;
+        synchronized (this) {
+            sent = status;
+        }
+        if (sent == null) {
+            ic.reply(text);
+        } else {
+            sent.whenComplete((message, t) -> {
+                if (message != null) {
+                    CentralMessaging.editMessage(message, text);
+                } else {
+                    ic.reply(text);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues the tracks that are still waiting, for example when the import failed halfway through.
+     */
+    void flush() {
+        batcher.flush();
+    }
+
+    static void observeTimeToFirstAudio(long loadStartNanos, int playlistSize) {
+        String label;
+        if (playlistSize < 100) {
+            label = "1-99";
+        } else if (playlistSize < 1000) {
+            label = "100-999";
+        } else {
+            label = "1000+";
+        }
+        TIME_TO_FIRST_AUDIO.get(label).observeSince(loadStartNanos);
+    }
+
+    private void onTrack(AudioTrack track) {
+        if (room.decrementAndGet() < 0) {
+            //the queue is full, no need to resolve any more tracks
+            PlaylistImport running = playlistImport;
+            if (running != null) {
+                running.cancel();
+            }
+            return;
+        }
+        batcher.add(new AudioTrackContext(track, ic.getMember()));
+    }
+
+    //called by the batcher, one batch after another
+    private void enqueue(List<AudioTrackContext> batch) {
+        trackProvider.addAll(batch);
+        boolean first = queued.getAndAdd(batch.size()) == 0;
+        //also picks the playlist back up if playback caught up with the import
+        if (!gplayer.isPaused()) {
+            gplayer.play();
+        }
+
+        PlaylistImport running = playlistImport;
+        int totalTracks = running == null ? -1 : running.getTotalTracks();
+        if (first) {
+            observeTimeToFirstAudio(loadStartNanos, totalTracks);
+        }
+        updateStatus(running, totalTracks);
+    }
+
+    private synchronized void updateStatus(@Nullable PlaylistImport running, int totalTracks) {
+        long now = System.nanoTime();
+        if (status != null && now - lastStatusNanos < STATUS_EDIT_INTERVAL_NANOS) {
+            return;
+        }
+        lastStatusNanos = now;
+
+        String name = running == null ? ic.identifier : running.getPlaylistName();
+        String text = MessageFormat.format(I18n.get(ic, "loadAnnouncePlaylist"), name,
+                totalTracks < 0 ? "?" : totalTracks)
+                + "\n`[" + queued.get() + "/" + (totalTracks < 0 ? "?" : totalTracks) + "]`";
+        if (status == null) {
+            status = ic.reply(text);
+        } else {
+            status.thenAccept(message -> CentralMessaging.editMessage(message, text));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects tracks that arrive one by one and hands them to the sink in batches, so a queue that is filled while a
+ * playlist loads isn't touched for every single track.
+ * <p>
+ * The first track is passed on right away so playback can start as early as possible, after that a batch is handed
+ * over once it is full, or once its oldest track has been waiting for the max delay, even if no more tracks arrive in
+ * the meantime. Whatever is left at the end should be flushed by the caller, so it doesn't wait for the delay.
+ */
+class TrackBatcher<T> {
+
+    //flushes the batches of all batchers that waited for their max delay
+    private static final ScheduledExecutorService DELAYED_FLUSHES =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("track-batcher"));
+
+    private final int batchSize;
+    private final long maxDelayNanos;
+    private final Consumer<List<T>> sink;
+    private final LongSupplier nanoTime;
+    private final FlushScheduler scheduler;
+
+    //guarded by this
+    private List<T> batch = new ArrayList<>();
+    private long batchStartNanos;
+    private boolean flushedAny = false;
+    //counts the flushes, so a delayed flush knows whether its batch is still waiting
+    private long flushCount = 0;
+
+    TrackBatcher(int batchSize, long maxDelayNanos, Consumer<List<T>> sink) {
+        this(batchSize, maxDelayNanos, sink, System::nanoTime,
+                (flush, delayNanos) -> DELAYED_FLUSHES.schedule(flush, delayNanos, TimeUnit.NANOSECONDS));
+    }
+
+    TrackBatcher(int batchSize, long maxDelayNanos, Consumer<List<T>> sink, LongSupplier nanoTime,
+                 FlushScheduler scheduler) {
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelayNanos;
+        this.sink = sink;
+        this.nanoTime = nanoTime;
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void add(T track) {
+        long now = nanoTime.getAsLong();
+        if (batch.isEmpty()) {
+            batchStartNanos = now;
+        }
+        batch.add(track);
+
+        if (!flushedAny || batch.size() >= batchSize || now - batchStartNanos >= maxDelayNanos) {
+            flush();
+        } else if (batch.size() == 1) {
+            //a new batch started, make sure it doesn't wait for longer than the max delay should no more tracks arrive
+            long batchNumber = flushCount;
+            scheduler.schedule(() -> flushDelayed(batchNumber), maxDelayNanos);
+        }
+    }
+
+    private synchronized void flushDelayed(long batchNumber) {
+        //the batch the flush was scheduled for may have been flushed already
+        if (batchNumber == flushCount) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the tracks that are still waiting to the sink, for example after the last track arrived.
+     */
+    public synchronized void flush() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<T> flushed = batch;
+        batch = new ArrayList<>();
+        flushedAny = true;
+        flushCount++;
+        sink.accept(flushed);
+    }
+
+    interface FlushScheduler {
+        /**
+         * Runs the flush once the delay has passed
+         */
+        void schedule(Runnable flush, long delayNanos);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.source;
+
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the content of playlists we fetch ourselves for a short while, so checking a playlist before loading it and then
+ * loading it costs a single request to the paste service or Spotify.
+ * <p>
+ * Concurrent lookups of the same playlist share one fetch. Failed fetches are not cached.
+ */
+class PlaylistContentCache<V> {
+
+    private static final String LOOKUPS_HELP = "Lookups of fetched playlist contents, by cache and result";
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final LongSupplier nanoTime;
+    private final Counter hits;
+    private final Counter coalesced;
+    private final Counter misses;
+
+    //guarded by this, in the order the entries were stored, which is the order they expire in
+    private final Object2ObjectLinkedOpenHashMap<String, Stored<V>> entries = new Object2ObjectLinkedOpenHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    PlaylistContentCache(String name, long ttlNanos, int maxSize) {
+        this(name, ttlNanos, maxSize, System::nanoTime);
+    }
+
+    PlaylistContentCache(String name, long ttlNanos, int maxSize, LongSupplier nanoTime) {
+        this.ttlNanos = ttlNanos;
+        this.maxSize = maxSize;
+        this.nanoTime = nanoTime;
+        this.hits = Metrics.counter("fredboat_playlist_content_lookups_total", LOOKUPS_HELP,
+                "cache", name, "result", "hit");
+        this.coalesced = Metrics.counter("fredboat_playlist_content_lookups_total", LOOKUPS_HELP,
+                "cache", name, "result", "coalesced");
+        this.misses = Metrics.counter("fredboat_playlist_content_lookups_total", LOOKUPS_HELP,
+                "cache", name, "result", "miss");
+    }
+
+    /**
+     * @param key    identifies the playlist, should be built from the parsed identifier so different links to the same
+     *               playlist share the entry
+     * @param loader fetches the playlist if it is not cached and nobody else is fetching it right now
+     * @return the cached or freshly fetched content
+     * @throws Exception whatever the loader threw, also when waiting on somebody else's fetch
+     */
+    V get(String key, Callable<V> loader) throws Exception {
+        synchronized (this) {
+            Stored<V> stored = entries.get(key);
+            if (stored != null) {
+                if (nanoTime.getAsLong() - stored.storedNanos < ttlNanos) {
+                    hits.inc();
+                    return stored.value;
+                }
+                entries.remove(key);
+            }
+        }
+
+        CompletableFuture<V> fetch = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, fetch);
+        if (running != null) {
+            coalesced.inc();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        misses.inc();
+        try {
+            V value = loader.call();
+            put(key, value);
+            fetch.complete(value);
+            return value;
+        } catch (Throwable t) {
+            fetch.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, fetch);
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void put(String key, V value) {
+        long now = nanoTime.getAsLong();
+        entries.remove(key);
+        entries.put(key, new Stored<>(value, now));
+        while (!entries.isEmpty()
+                && (entries.size() > maxSize || now - entries.get(entries.firstKey()).storedNanos >= ttlNanos)) {
+            entries.removeFirst();
+        }
+    }
+
+    private static class Stored<V> {
+        private final V value;
+        private final long storedNanos;
+
+        private Stored(V value, long storedNanos) {
+            this.value = value;
+            this.storedNanos = storedNanos;
+        }
+    }
+}
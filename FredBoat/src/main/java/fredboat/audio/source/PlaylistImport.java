@@ -0,0 +1,59 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.source;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A playlist that is being imported by a {@link StreamingPlaylistImporter}
+ */
+public interface PlaylistImport {
+
+    /**
+     * @return completes with all tracks that were loaded once the import is done, or with a
+     * {@link com.sedmelluq.discord.lavaplayer.tools.FriendlyException} if the playlist could not be retrieved
+     */
+    CompletableFuture<AudioPlaylist> getResult();
+
+    String getPlaylistName();
+
+    /**
+     * @return number of tracks of the playlist, -1 until it is known
+     */
+    int getTotalTracks();
+
+    /**
+     * @return number of tracks that were attempted to be loaded, successfully or not
+     */
+    int getProcessedTracks();
+
+    /**
+     * Stops loading more tracks. The import completes with the tracks that were loaded so far.
+     */
+    void cancel();
+}
@@ -33,6 +33,7 @@ import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.*;
+import fredboat.FredBoat;
 import fredboat.audio.player.AbstractPlayer;
 import fredboat.audio.queue.PlaylistInfo;
 import org.slf4j.LoggerFactory;
@@ -41,18 +42,29 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 
-public class PlaylistImportSourceManager implements AudioSourceManager, PlaylistImporter {
+public class PlaylistImportSourceManager implements AudioSourceManager, StreamingPlaylistImporter {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(PlaylistImportSourceManager.class);
 
     private static final AudioPlayerManager PRIVATE_MANAGER = AbstractPlayer
             .registerSourceManagers(new DefaultAudioPlayerManager());
 
+    //shared by the rate limit check and the import of a paste, and by all instances of this source manager
+    private static final PlaylistContentCache<List<String>> PASTES = new PlaylistContentCache<>("paste",
+            TimeUnit.MINUTES.toNanos(2), 100);
+
     @Override
     public String getSourceName() {
         return "playlist_import";
@@ -60,35 +72,40 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
 
     @Override
     public AudioItem loadItem(DefaultAudioPlayerManager manager, AudioReference ar) {
+        PasteImport pasteImport = startImport(ar.identifier, track -> {
+        });
+        if (pasteImport == null) return null;
+
+        AudioPlaylist playlist;
+        try {
+            playlist = pasteImport.getResult().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof FriendlyException) {
+                throw (FriendlyException) e.getCause();
+            }
+            throw e;
+        }
+        //empty paste
+        if (pasteImport.getTotalTracks() == 0) {
+            return null;
+        }
+        return playlist;
+    }
 
-        String[] parsed = parse(ar.identifier);
+    @Override
+    public PasteImport startImport(String identifier, Consumer<AudioTrack> listener) {
+        String[] parsed = parse(identifier);
         if (parsed == null) return null;
         String serviceName = parsed[0];
         String pasteId = parsed[1];
 
-
         if (pasteId == null || "".equals(pasteId) || !PasteServiceConstants.PASTE_SERVICE_URLS.containsKey(serviceName)) {
             return null;
         }
-        List<String> trackIds = loadAndParseTrackIds(serviceName, pasteId);
 
-        PasteServiceAudioResultHandler handler = new PasteServiceAudioResultHandler();
-        Future<Void> lastFuture = null;
-        for (String id : trackIds) {
-            lastFuture = PRIVATE_MANAGER.loadItemOrdered(handler, id, handler);
-        }
-
-        if (lastFuture == null) {
-            return null;
-        }
-
-        try {
-            lastFuture.get();
-        } catch (InterruptedException | ExecutionException ex) {
-            throw new FriendlyException("Failed loading playlist item", FriendlyException.Severity.FAULT, ex);
-        }
-
-        return new BasicAudioPlaylist(pasteId, handler.getLoadedTracks(), null, false);
+        PasteImport pasteImport = new PasteImport(serviceName, pasteId, listener);
+        FredBoat.executor.execute(pasteImport::start);
+        return pasteImport;
     }
 
     @Override
@@ -151,6 +168,16 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         return result;
     }
 
+    private List<String> getTrackIds(String serviceName, String pasteId) {
+        try {
+            return PASTES.get(serviceName + ":" + pasteId, () -> loadAndParseTrackIds(serviceName, pasteId));
+        } catch (FriendlyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FriendlyException("Couldn't load playlist.", FriendlyException.Severity.FAULT, e);
+        }
+    }
+
     private List<String> loadAndParseTrackIds(String serviceName, String pasteId) {
         String response;
         try {
@@ -169,7 +196,7 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
                 filtered.add(str);
             }
         }
-        return filtered;
+        return Collections.unmodifiableList(filtered);
     }
 
 
@@ -183,43 +210,129 @@ public class PlaylistImportSourceManager implements AudioSourceManager, Playlist
         String pasteId = pasteData[1];
         if (serviceName == null || "".equals(serviceName) || pasteId == null || "".equals(pasteId)) return null;
 
-        List<String> trackIds = loadAndParseTrackIds(serviceName, pasteId);
+        List<String> trackIds = getTrackIds(serviceName, pasteId);
 
         return new PlaylistInfo(trackIds.size(), pasteId, PlaylistInfo.Source.PASTESERVICE);
     }
 
-    private class PasteServiceAudioResultHandler implements AudioLoadResultHandler {
+    /**
+     * Loads the tracks of a paste in the order they are listed, handing each one to the listener as soon as it loaded
+     */
+    private class PasteImport implements PlaylistImport, AudioLoadResultHandler {
+
+        private final String serviceName;
+        private final String pasteId;
+        private final Consumer<AudioTrack> listener;
+        private final CompletableFuture<AudioPlaylist> result = new CompletableFuture<>();
+
+        //guarded by this
+        private final List<AudioTrack> loadedTracks = new ArrayList<>();
+        private final Queue<Future<Void>> loads = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger processed = new AtomicInteger();
+        private volatile int totalTracks = -1;
+        private volatile boolean cancelled = false;
+
+        private PasteImport(String serviceName, String pasteId, Consumer<AudioTrack> listener) {
+            this.serviceName = serviceName;
+            this.pasteId = pasteId;
+            this.listener = listener;
+        }
+
+        private void start() {
+            List<String> trackIds;
+            try {
+                trackIds = getTrackIds(serviceName, pasteId);
+            } catch (FriendlyException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+
+            totalTracks = trackIds.size();
+            if (trackIds.isEmpty()) {
+                finish();
+                return;
+            }
+            //loaded one after another, so the tracks arrive in the order of the paste
+            for (String id : trackIds) {
+                if (cancelled) break;
+                loads.add(PRIVATE_MANAGER.loadItemOrdered(this, id, this));
+            }
+        }
+
+        @Override
+        public CompletableFuture<AudioPlaylist> getResult() {
+            return result;
+        }
+
+        @Override
+        public String getPlaylistName() {
+            return pasteId;
+        }
 
-        private final List<AudioTrack> loadedTracks;
+        @Override
+        public int getTotalTracks() {
+            return totalTracks;
+        }
 
-        private PasteServiceAudioResultHandler() {
-            this.loadedTracks = new ArrayList<>();
+        @Override
+        public int getProcessedTracks() {
+            return processed.get();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            //the loads that are cancelled won't call back, so there is nothing to wait for
+            for (Future<Void> load : loads) {
+                load.cancel(false);
+            }
+            finish();
+        }
+
+        private void finish() {
+            synchronized (this) {
+                result.complete(new BasicAudioPlaylist(pasteId, new ArrayList<>(loadedTracks), null, false));
+            }
+        }
+
+        private void onProcessed() {
+            if (processed.incrementAndGet() == totalTracks) {
+                finish();
+            }
         }
 
         @Override
         public void trackLoaded(AudioTrack track) {
-            loadedTracks.add(track);
+            if (!cancelled) {
+                synchronized (this) {
+                    loadedTracks.add(track);
+                }
+                try {
+                    listener.accept(track);
+                } catch (Exception e) {
+                    log.error("Listener of paste import failed to accept a track", e);
+                }
+            }
+            onProcessed();
         }
 
         @Override
         public void playlistLoaded(AudioPlaylist playlist) {
             log.info("Attempt to load a playlist recursively, skipping");
+            onProcessed();
         }
 
         @Override
         public void noMatches() {
             // ignore
+            onProcessed();
         }
 
         @Override
         public void loadFailed(FriendlyException exception) {
             log.debug("Failed loading track provided via the paste service", exception);
+            onProcessed();
         }
-
-        public List<AudioTrack> getLoadedTracks() {
-            return loadedTracks;
-        }
-
     }
 
 }
@@ -0,0 +1,431 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.source;
+
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.FredBoat;
+import fredboat.audio.queue.PlaylistInfo;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
+import fredboat.util.rest.SearchUtil;
+import fredboat.util.rest.SpotifyAPIWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A single import of a Spotify playlist.
+ * <p>
+ * The pages of the playlist are fetched in the background, ahead of the searches for their tracks. Tracks are searched
+ * in parallel, a few at a time per import and a few at a time per search provider across all imports, and handed to the
+ * listener in the order of the playlist as soon as all tracks before them are done.
+ */
+public class SpotifyPlaylistImport implements PlaylistImport {
+
+    private static final Logger log = LoggerFactory.getLogger(SpotifyPlaylistImport.class);
+
+    //searches of a single import that may run at the same time
+    static final int MAX_SEARCHES_PER_IMPORT = 8;
+    //searches that may run at the same time across all imports. Take care when upping these: uncached searches may hog
+    // database connections (for selfhosters running on the SQLite db) and fire search requests aggressively against
+    // Youtube which is probably better avoided.
+    private static final SearchLimiter YOUTUBE_SEARCHES = new SearchLimiter(4, FredBoat.executor);
+    private static final SearchLimiter SOUNDCLOUD_SEARCHES = new SearchLimiter(2, FredBoat.executor);
+    private static final int SEARCH_TIMEOUT_MILLIS = 60000;
+
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    private static final String TRACKS_HELP = "Tracks of Spotify playlists that were imported, by result";
+    private static final Counter TRACKS_FOUND = Metrics.counter("fredboat_spotify_import_tracks_total", TRACKS_HELP, "result", "found");
+    private static final Counter TRACKS_NOT_FOUND = Metrics.counter("fredboat_spotify_import_tracks_total", TRACKS_HELP, "result", "not_found");
+    private static final Timer IMPORT_DURATION = Metrics.timer("fredboat_spotify_import_duration_seconds",
+            "Time taken to import a whole Spotify playlist");
+
+    static {
+        Metrics.gauge("fredboat_spotify_imports_running", "Spotify playlist imports that are running", RUNNING::get);
+    }
+
+    private final PageSource pages;
+    private final Function<String, CompletableFuture<AudioTrack>> search;
+    private final Executor executor;
+    private final Consumer<AudioTrack> listener;
+    private final CompletableFuture<AudioPlaylist> result = new CompletableFuture<>();
+    private final long startNanos = System.nanoTime();
+
+    //guarded by this: the tracks of the playlist in order, the ones before the cursor have been handed out already
+    private final List<Slot> slots = new ArrayList<>();
+    private int cursor = 0;
+    //index of the next slot to search for
+    private int nextSearch = 0;
+    private int searching = 0;
+    private boolean allPagesFetched = false;
+    private final List<AudioTrack> found = new ArrayList<>();
+
+    //drain loop for starting searches, searches that complete right away must not recurse into it
+    private final AtomicInteger fillRequests = new AtomicInteger();
+
+    private volatile String playlistName = "Spotify Playlist";
+    private volatile int totalTracks = -1;
+    private final AtomicInteger processed = new AtomicInteger();
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param listener receives the tracks that were found, in the order of the playlist. Called by one thread at a time
+     *                 while the import is locked, so it should be quick.
+     */
+    SpotifyPlaylistImport(String spotifyUser, String spotifyListId, Consumer<AudioTrack> listener) {
+        this(new SpotifyPages(spotifyUser, spotifyListId), SpotifyPlaylistImport::resolve, FredBoat.executor, listener);
+    }
+
+    /**
+     * @param search   finds the track for a search term, completing with null if there is none
+     * @param executor runs the fetching of the pages
+     */
+    SpotifyPlaylistImport(PageSource pages, Function<String, CompletableFuture<AudioTrack>> search, Executor executor,
+                          Consumer<AudioTrack> listener) {
+        this.pages = pages;
+        this.search = search;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    CompletableFuture<AudioPlaylist> start() {
+        RUNNING.incrementAndGet();
+        executor.execute(this::fetchPages);
+        return result;
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        fill();
+    }
+
+    @Override
+    public CompletableFuture<AudioPlaylist> getResult() {
+        return result;
+    }
+
+    @Override
+    public String getPlaylistName() {
+        return playlistName;
+    }
+
+    @Override
+    public int getTotalTracks() {
+        return totalTracks;
+    }
+
+    @Override
+    public int getProcessedTracks() {
+        return processed.get();
+    }
+
+    public double getTracksPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : processed.get() / seconds;
+    }
+
+    private void fetchPages() {
+        try {
+            PlaylistInfo plData = pages.getPlaylistData();
+            if (plData.getName() != null && !"".equals(plData.getName())) {
+                playlistName = plData.getName();
+            }
+            totalTracks = plData.getTotalTracks();
+            log.info("Retrieved playlist data for " + playlistName + " from Spotify, loading up " + totalTracks + " tracks");
+
+            for (int offset = 0; offset < totalTracks && !cancelled; offset += SpotifyAPIWrapper.MAX_TRACKS_PAGE_SIZE) {
+                List<String> searchTerms;
+                try {
+                    searchTerms = pages.getSearchTerms(offset, SpotifyAPIWrapper.MAX_TRACKS_PAGE_SIZE);
+                } catch (Exception e) {
+                    if (offset == 0) throw e;
+                    //keep what we have, the playlist may have shrunk while we were importing it
+                    log.warn("Could not retrieve tracks at offset " + offset + " of " + pages
+                            + ", importing the ones we got", e);
+                    break;
+                }
+                synchronized (this) {
+                    for (String searchTerm : searchTerms) {
+                        //remove all punctuation
+                        slots.add(new Slot(searchTerm.replaceAll(SearchUtil.PUNCTUATION_REGEX, "")));
+                    }
+                }
+                fill();
+            }
+        } catch (Exception e) {
+            log.warn("Could not retrieve " + pages, e);
+            finish(new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.",
+                    FriendlyException.Severity.COMMON, e));
+            return;
+        }
+
+        synchronized (this) {
+            allPagesFetched = true;
+        }
+        fill();
+    }
+
+    /**
+     * Starts searches until the import runs the maximum amount of them, and finishes the import if all is done
+     */
+    private void fill() {
+        if (fillRequests.getAndIncrement() != 0) {
+            return; //whoever is filling right now will go around once more
+        }
+        do {
+            List<Slot> toSearch = new ArrayList<>();
+            boolean done;
+            synchronized (this) {
+                if (cancelled) {
+                    //forget about the tracks that are not being searched yet
+                    slots.subList(nextSearch, slots.size()).clear();
+                }
+                while (searching < MAX_SEARCHES_PER_IMPORT && nextSearch < slots.size()) {
+                    toSearch.add(slots.get(nextSearch++));
+                    searching++;
+                }
+                //a cancelled import is done with the tracks handed out so far, searches still running are ignored
+                done = cancelled || (allPagesFetched && searching == 0 && cursor == slots.size());
+            }
+            for (Slot slot : toSearch) {
+                search.apply(slot.query).whenComplete((track, t) -> onSearched(slot, t == null ? track : null));
+            }
+            if (done) {
+                finish(null);
+            }
+        } while (fillRequests.decrementAndGet() != 0);
+    }
+
+    private void onSearched(Slot slot, AudioTrack track) {
+        processed.incrementAndGet();
+        (track != null ? TRACKS_FOUND : TRACKS_NOT_FOUND).inc();
+        synchronized (this) {
+            searching--;
+            slot.track = track;
+            slot.done = true;
+            //hand out everything that is in order now, unless the import is over already
+            while (!result.isDone() && cursor < slots.size() && slots.get(cursor).done) {
+                AudioTrack next = slots.get(cursor).track;
+                slots.set(cursor, Slot.HANDED_OUT);
+                cursor++;
+                if (next != null) {
+                    found.add(next);
+                    try {
+                        listener.accept(next);
+                    } catch (Exception e) {
+                        log.error("Listener of spotify playlist import failed to accept a track", e);
+                    }
+                }
+            }
+        }
+        fill();
+    }
+
+    private void finish(Exception failure) {
+        boolean completed;
+        synchronized (this) {
+            completed = failure != null ? result.completeExceptionally(failure)
+                    : result.complete(new BasicAudioPlaylist(playlistName, new ArrayList<>(found), null, true));
+        }
+        if (!completed) {
+            return;
+        }
+        RUNNING.decrementAndGet();
+        IMPORT_DURATION.observeSince(startNanos);
+        if (failure == null) {
+            log.info(String.format("Imported %s of %s tracks of Spotify playlist %s in %.1fs, %.1f tracks/s%s",
+                    found.size(), totalTracks, playlistName, (System.nanoTime() - startNanos) / 1e9,
+                    getTracksPerSecond(), cancelled ? " (cancelled)" : ""));
+        }
+    }
+
+    /**
+     * Searches all available searching sources for a single track.
+     * <p>
+     * Will go Youtube > SoundCloud > null
+     *
+     * @param query Term that shall be searched
+     * @return An AudioTrack likely corresponding to the query term or null.
+     */
+    private static CompletableFuture<AudioTrack> resolve(String query) {
+        return search(query, SearchUtil.SearchProvider.YOUTUBE, YOUTUBE_SEARCHES)
+                .thenCompose(track -> track != null ? CompletableFuture.completedFuture(track)
+                        : search(query, SearchUtil.SearchProvider.SOUNDCLOUD, SOUNDCLOUD_SEARCHES));
+    }
+
+    private static CompletableFuture<AudioTrack> search(String query, SearchUtil.SearchProvider provider,
+                                                        SearchLimiter limiter) {
+        return limiter.submit(() -> SearchUtil.searchForTracks(query, SpotifyPlaylistSourceManager.CACHE_DURATION,
+                SEARCH_TIMEOUT_MILLIS, Collections.singletonList(provider)))
+                .handle((list, t) -> {
+                    //provider not available, or didn't find anything
+                    if (t != null || list == null || list.getTracks().isEmpty()) {
+                        return null;
+                    }
+
+                    //pick topmost result, and hope it's what the user wants to listen to
+                    //having users pick tracks like they can do for individual searches would be ridiculous for playlists with
+                    //dozens of tracks. youtube search is probably good enough for this
+                    //
+                    //testcase:   Rammstein playlists; high quality Rammstein vids are really rare on Youtube.
+                    //            https://open.spotify.com/user/11174036433/playlist/0ePRMvD3Dn3zG31A8y64xX
+                    //result:     lots of low quality (covers, pitched up/down, etc) tracks loaded.
+                    //conclusion: there's room for improvement to this whole method
+                    return list.getTracks().get(0);
+                });
+    }
+
+    /**
+     * Source of a playlist and the search terms of its tracks
+     */
+    interface PageSource {
+        PlaylistInfo getPlaylistData() throws Exception;
+
+        /**
+         * @return the search terms of the tracks at offset, at most limit of them
+         */
+        List<String> getSearchTerms(int offset, int limit) throws Exception;
+    }
+
+    private static class SpotifyPages implements PageSource {
+        private final String spotifyUser;
+        private final String spotifyListId;
+
+        SpotifyPages(String spotifyUser, String spotifyListId) {
+            this.spotifyUser = spotifyUser;
+            this.spotifyListId = spotifyListId;
+        }
+
+        @Override
+        public PlaylistInfo getPlaylistData() throws Exception {
+            return SpotifyPlaylistSourceManager.getPlaylistData(spotifyUser, spotifyListId);
+        }
+
+        @Override
+        public List<String> getSearchTerms(int offset, int limit) throws Exception {
+            return SpotifyAPIWrapper.getApi().getPlaylistTracksSearchTermsBlocking(spotifyUser, spotifyListId, offset, limit);
+        }
+
+        @Override
+        public String toString() {
+            return "playlist " + spotifyListId + " of user " + spotifyUser;
+        }
+    }
+
+    private static class Slot {
+        //takes the place of slots that were handed out, so they don't hold on to their tracks
+        static final Slot HANDED_OUT = new Slot(null);
+
+        final String query;
+        AudioTrack track;
+        boolean done = false;
+
+        Slot(String query) {
+            this.query = query;
+        }
+    }
+
+    /**
+     * Runs at most a fixed amount of searches at the same time, the others wait in line
+     */
+    private static class SearchLimiter {
+        private final int maxRunning;
+        private final Executor executor;
+        //guarded by this
+        private int running = 0;
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+        SearchLimiter(int maxRunning, Executor executor) {
+            this.maxRunning = maxRunning;
+            this.executor = executor;
+        }
+
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> search) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable run = () -> {
+                CompletableFuture<T> running;
+                try {
+                    running = search.get();
+                } catch (Exception e) {
+                    running = new CompletableFuture<>();
+                    running.completeExceptionally(e);
+                }
+                running.whenComplete((value, t) -> {
+                    release();
+                    if (t != null) {
+                        result.completeExceptionally(t);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            };
+
+            boolean runNow;
+            synchronized (this) {
+                runNow = running < maxRunning;
+                if (runNow) {
+                    running++;
+                } else {
+                    waiting.add(run);
+                }
+            }
+            if (runNow) {
+                run.run();
+            }
+            return result;
+        }
+
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    running--;
+                }
+            }
+            if (next != null) {
+                //not on this thread, searches that complete right away would recurse through the whole line
+                executor.execute(next);
+            }
+        }
+    }
+}
@@ -28,13 +28,10 @@ import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioItem;
-import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioReference;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
-import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
 import fredboat.audio.queue.PlaylistInfo;
-import fredboat.util.rest.SearchUtil;
 import fredboat.util.rest.SpotifyAPIWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,27 +39,22 @@ import org.slf4j.LoggerFactory;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Created by napster on 08.03.17.
  * <p>
- * Loads playlists from Spotify playlist links.
+ * Loads playlists from Spotify playlist links. See {@link SpotifyPlaylistImport} for how the tracks are found.
  *
  * todo bulk load the songs from the search cache (remote db connections are slow when loading one by one)
  *
  * @author napster
  */
-public class SpotifyPlaylistSourceManager implements AudioSourceManager, PlaylistImporter {
+public class SpotifyPlaylistSourceManager implements AudioSourceManager, StreamingPlaylistImporter {
 
     public static long CACHE_DURATION = TimeUnit.DAYS.toMillis(7);// 1 week;
 
@@ -71,13 +63,9 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
     //https://regex101.com/r/AEWyxi/3
     private static final Pattern PLAYLIST_PATTERN = Pattern.compile("https?://.*\\.spotify\\.com/user/(.*)/playlist/([^?/\\s]*)");
 
-    //Take care when deciding on upping the core pool size: The threads may hog database connections
-    // (for selfhosters running on the SQLite db) when loading an uncached playlist.
-    // Upping the threads will also fire search requests more aggressively against Youtube which is probably better avoided.
-    public static ScheduledExecutorService loader = Executors.newScheduledThreadPool(1);
-
-    private static final List<SearchUtil.SearchProvider> searchProviders
-            = Arrays.asList(SearchUtil.SearchProvider.YOUTUBE, SearchUtil.SearchProvider.SOUNDCLOUD);
+    //shared by the rate limit check and the import of a playlist, and by all instances of this source manager
+    private static final PlaylistContentCache<PlaylistInfo> PLAYLISTS = new PlaylistContentCache<>("spotify",
+            TimeUnit.MINUTES.toNanos(2), 100);
 
     @Override
     public String getSourceName() {
@@ -86,95 +74,28 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
 
     @Override
     public AudioItem loadItem(final DefaultAudioPlayerManager manager, final AudioReference ar) {
+        SpotifyPlaylistImport spotifyImport = startImport(ar.identifier, track -> {
+        });
+        if (spotifyImport == null) return null;
 
-        String[] data = parse(ar.identifier);
-        if (data == null) return null;
-        final String spotifyUser = data[0];
-        final String spotifyListId = data[1];
-
-        final SpotifyAPIWrapper saw = SpotifyAPIWrapper.getApi();
-
-        PlaylistInfo plData;
         try {
-            plData = saw.getPlaylistDataBlocking(spotifyUser, spotifyListId);
-        } catch (Exception e) {
-            log.warn("Could not retrieve playlist " + spotifyListId + " of user " + spotifyUser, e);
-            throw new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e);
-        }
-
-        String playlistName = plData.getName();
-        if (playlistName == null || "".equals(playlistName)) playlistName = "Spotify Playlist";
-        int tracksTotal = plData.getTotalTracks();
-
-        final List<AudioTrack> trackList = new ArrayList<>();
-        final List<String> trackListSearchTerms;
-
-        try {
-            trackListSearchTerms = saw.getPlaylistTracksSearchTermsBlocking(spotifyUser, spotifyListId);
-        } catch (Exception e) {
-            log.warn("Could not retrieve tracks for playlist " + spotifyListId + " of user " + spotifyUser, e);
-            throw new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e);
-        }
-        log.info("Retrieved playlist data for " + playlistName + " from Spotify, loading up " + tracksTotal + " tracks");
-
-        //build a task list
-        List<CompletableFuture<AudioTrack>> taskList = new ArrayList<>();
-        for (final String s : trackListSearchTerms) {
-            //remove all punctuation
-            final String query = s.replaceAll(SearchUtil.PUNCTUATION_REGEX, "");
-
-            CompletableFuture<AudioTrack> f = CompletableFuture.supplyAsync(() -> searchSingleTrack(query), loader);
-            taskList.add(f);
-        }
-
-        //build a tracklist from that task list
-        for (CompletableFuture<AudioTrack> futureTrack : taskList) {
-            try {
-                final AudioTrack audioItem = futureTrack.get();
-                if (audioItem == null) {
-                    continue; //skip the track if we couldn't find it
-                }
-                trackList.add(audioItem);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (ExecutionException ignored) {
-                //this is fine, loop will go for the next item
+            return spotifyImport.getResult().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof FriendlyException) {
+                throw (FriendlyException) e.getCause();
             }
+            throw e;
         }
-        return new BasicAudioPlaylist(playlistName, trackList, null, true);
     }
 
-    /**
-     * Searches all available searching sources for a single track.
-     * <p>
-     * Will go Youtube > SoundCloud > return null
-     * This could probably be moved to SearchUtil
-     *
-     * @param query Term that shall be searched
-     * @return An AudioTrack likely corresponding to the query term or null.
-     */
-    private AudioTrack searchSingleTrack(final String query) {
-        try {
-            AudioPlaylist list = SearchUtil.searchForTracks(query, CACHE_DURATION, 60000, searchProviders);
-            //didn't find anything
-            if (list == null || list.getTracks().isEmpty()) {
-                return null;
-            }
+    @Override
+    public SpotifyPlaylistImport startImport(String identifier, Consumer<AudioTrack> listener) {
+        String[] data = parse(identifier);
+        if (data == null) return null;
 
-            //pick topmost result, and hope it's what the user wants to listen to
-            //having users pick tracks like they can do for individual searches would be ridiculous for playlists with
-            //dozens of tracks. youtube search is probably good enough for this
-            //
-            //testcase:   Rammstein playlists; high quality Rammstein vids are really rare on Youtube.
-            //            https://open.spotify.com/user/11174036433/playlist/0ePRMvD3Dn3zG31A8y64xX
-            //result:     lots of low quality (covers, pitched up/down, etc) tracks loaded.
-            //conclusion: there's room for improvement to this whole method
-            return list.getTracks().get(0);
-        } catch (SearchUtil.SearchingException e) {
-            //youtube & soundcloud not available
-            return null;
-        }
+        SpotifyPlaylistImport spotifyImport = new SpotifyPlaylistImport(data[0], data[1], listener);
+        spotifyImport.start();
+        return spotifyImport;
     }
 
     @Override
@@ -224,10 +145,18 @@ public class SpotifyPlaylistSourceManager implements AudioSourceManager, Playlis
         final String spotifyListId = data[1];
 
         try {
-            return SpotifyAPIWrapper.getApi().getPlaylistDataBlocking(spotifyUser, spotifyListId);
+            return getPlaylistData(spotifyUser, spotifyListId);
         } catch (Exception e) {
             log.warn("Could not retrieve playlist " + spotifyListId + " of user " + spotifyUser, e);
             throw new FriendlyException("Couldn't load playlist. Either Spotify is down or the playlist does not exist.", FriendlyException.Severity.COMMON, e);
         }
     }
+
+    /**
+     * @return name and size of the playlist, fetched from Spotify unless it was fetched a moment ago
+     */
+    static PlaylistInfo getPlaylistData(String spotifyUser, String spotifyListId) throws Exception {
+        return PLAYLISTS.get(spotifyUser + "/" + spotifyListId,
+                () -> SpotifyAPIWrapper.getApi().getPlaylistDataBlocking(spotifyUser, spotifyListId));
+    }
 }
@@ -0,0 +1,47 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.source;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.util.function.Consumer;
+
+/**
+ * A playlist importer that hands out the tracks of a playlist while it is still loading the rest of them, instead of
+ * returning all of them at once from {@link com.sedmelluq.discord.lavaplayer.source.AudioSourceManager#loadItem}.
+ */
+public interface StreamingPlaylistImporter extends PlaylistImporter {
+
+    /**
+     * Imports a playlist without waiting for it to finish.
+     *
+     * @param identifier the same string by which the importer may be asked to load the whole playlist
+     * @param listener   receives the tracks that were loaded, in the order of the playlist, as soon as they are loaded.
+     *                   Called by one thread at a time.
+     * @return the running import, or null if it's not a playlist recognized by this importer
+     */
+    PlaylistImport startImport(String identifier, Consumer<AudioTrack> listener);
+}
@@ -46,7 +46,7 @@ public class PlayerDebugCommand extends Command implements ICommandRestricted {
     public void onInvoke(CommandContext context) {
         JSONArray a = new JSONArray();
         
-        for(GuildPlayer gp : PlayerRegistry.getRegistry().values()){
+        for(GuildPlayer gp : PlayerRegistry.getAll()){
             JSONObject data = new JSONObject();
             data.put("name", gp.getGuild().getName());
             data.put("id", gp.getGuild().getId());
@@ -54,6 +54,8 @@ public class PlayerDebugCommand extends Command implements ICommandRestricted {
             data.put("isPlaying", gp.isPlaying());
             data.put("isPaused", gp.isPaused());
             data.put("songCount", gp.getTrackCount());
+            data.put("lossLastMinute", gp.getAudioLossCounter().getLastMinute().getLossRate());
+            data.put("lossLast5Minutes", gp.getAudioLossCounter().getLastFiveMinutes().getLossRate());
             
             a.put(data);
         }
@@ -33,6 +33,9 @@ import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.IMaintenanceCommand;
 import net.dv8tion.jda.core.entities.Guild;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class AudioDebugCommand extends Command implements IMaintenanceCommand {
 
     @Override
@@ -43,18 +46,38 @@ public class AudioDebugCommand extends Command implements IMaintenanceCommand {
         if(guildPlayer == null) {
             msg = msg + "No GuildPlayer found.\n";
         } else {
-            int deficit = AudioLossCounter.EXPECTED_PACKET_COUNT_PER_MIN - (guildPlayer.getAudioLossCounter().getLastMinuteLoss() + guildPlayer.getAudioLossCounter().getLastMinuteSuccess());
+            AudioLossCounter counter = guildPlayer.getAudioLossCounter();
+            msg = msg + formatWindow("Last minute's packet stats:", counter.getLastMinute())
+                    + formatWindow("Last 5 minutes' packet stats:", counter.getLastFiveMinutes());
+        }
 
-            msg = msg + "Last minute's packet stats:```\n"
-                + "Packets sent:   " + guildPlayer.getAudioLossCounter().getLastMinuteSuccess() + "\n"
-                + "Null packets:   " + guildPlayer.getAudioLossCounter().getLastMinuteLoss() + "\n"
-                + "Packet deficit: " + deficit + "\n```";
+        List<AudioLossCounter> counters = new ArrayList<>();
+        for (GuildPlayer player : PlayerRegistry.getAll()) {
+            counters.add(player.getAudioLossCounter());
         }
+        msg = msg + "Loss rates across players:```\n"
+                + formatSummary("1 min: ", AudioLossCounter.summarize(counters, 60))
+                + formatSummary("5 min: ", AudioLossCounter.summarize(counters, AudioLossCounter.HISTORY_SECONDS))
+                + "```";
 
         context.replyWithName(msg);
 
     }
 
+    private static String formatWindow(String title, AudioLossCounter.Window window) {
+        return title + "```\n"
+                + "Packets sent:   " + window.getSent() + "\n"
+                + "Null packets:   " + window.getNulled() + "\n"
+                + "Packet deficit: " + window.getDeficit() + "\n"
+                + "Loss rate:      " + String.format("%.2f%%", window.getLossRate() * 100) + "\n```";
+    }
+
+    private static String formatSummary(String title, AudioLossCounter.Summary summary) {
+        return title + String.format("p50 %.2f%%, p90 %.2f%%, p99 %.2f%%, max %.2f%% (%d players)\n",
+                summary.getP50() * 100, summary.getP90() * 100, summary.getP99() * 100, summary.getMax() * 100,
+                summary.getPlayers());
+    }
+
     @Override
     public String help(Guild guild) {
         return "{0}{1}\n#Show audio related debug information.";
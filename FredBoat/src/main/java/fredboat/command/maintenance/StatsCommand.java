@@ -68,7 +68,7 @@ public class StatsCommand extends Command implements IMaintenanceCommand {
 
         str = str + "Sharding:                       " + FredBoat.getInstance(context.guild.getJDA()).getShardInfo().getShardString() + "\n";
         if (DiscordUtil.isMusicBot()) {
-            str = str + "Players playing:                " + PlayerRegistry.getPlayingPlayers().size() + "\n";
+            str = str + "Players playing:                " + PlayerRegistry.getPlayingCount() + "\n";
         }
         str = str + "Known servers:                  " + FredBoat.countAllGuilds() + "\n";
         str = str + "Known users in servers:         " + FredBoat.countAllUniqueUsers() + "\n";
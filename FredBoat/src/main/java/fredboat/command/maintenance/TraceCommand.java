@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.command.maintenance;
+
+import fredboat.commandmeta.abs.Command;
+import fredboat.commandmeta.abs.CommandContext;
+import fredboat.commandmeta.abs.IMaintenanceCommand;
+import fredboat.metrics.CommandTrace;
+import fredboat.metrics.Timer;
+import net.dv8tion.jda.core.entities.Guild;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows where the time of sampled commands goes
+ */
+public class TraceCommand extends Command implements IMaintenanceCommand {
+
+    private static final int MAX_COMMANDS = 10;
+
+    @Override
+    public void onInvoke(CommandContext context) {
+        Map<String, Timer[]> timers = CommandTrace.getTimers();
+        if (timers.isEmpty()) {
+            context.replyWithName("No commands have been traced yet. One in " + CommandTrace.SAMPLE_RATE
+                    + " commands is traced.");
+            return;
+        }
+
+        if (context.args.length > 1) {
+            Timer[] commandTimers = timers.get(context.args[1]);
+            if (commandTimers == null) {
+                context.replyWithName("No traces for `" + context.args[1] + "`. Use the class name of the command, e.g. PlayCommand.");
+                return;
+            }
+            StringBuilder out = new StringBuilder("Traces of " + context.args[1] + " (times in ms):```\n");
+            out.append(String.format("%-12s %7s %9s %9s %9s %9s\n", "span", "count", "mean", "p50", "p90", "p99"));
+            for (CommandTrace.Span span : CommandTrace.Span.values()) {
+                Timer timer = commandTimers[span.ordinal()];
+                if (timer.getCount() == 0) continue;
+                out.append(String.format("%-12s %7d %9.1f %9s %9s %9s\n", span.getLabel(), timer.getCount(),
+                        timer.getSum() * 1000 / timer.getCount(),
+                        formatMillis(timer.getQuantile(0.5)),
+                        formatMillis(timer.getQuantile(0.9)),
+                        formatMillis(timer.getQuantile(0.99))));
+            }
+            context.reply(out.append("```").toString());
+            return;
+        }
+
+        List<Map.Entry<String, Timer[]>> entries = new ArrayList<>(timers.entrySet());
+        entries.sort((a, b) -> Long.compare(totalOf(b.getValue()).getCount(), totalOf(a.getValue()).getCount()));
+
+        StringBuilder out = new StringBuilder("Sampled commands, total time until the last reply (times in ms):```\n");
+        out.append(String.format("%-24s %7s %9s %9s %9s\n", "command", "count", "mean", "p50", "p90"));
+        for (Map.Entry<String, Timer[]> entry : entries.subList(0, Math.min(MAX_COMMANDS, entries.size()))) {
+            Timer total = totalOf(entry.getValue());
+            if (total.getCount() == 0) continue;
+            out.append(String.format("%-24s %7d %9.1f %9s %9s\n", entry.getKey(), total.getCount(),
+                    total.getSum() * 1000 / total.getCount(),
+                    formatMillis(total.getQuantile(0.5)),
+                    formatMillis(total.getQuantile(0.9))));
+        }
+        out.append("```Use `").append(context.prefix).append(context.trigger).append(" <command>` for a breakdown.");
+        context.reply(out.toString());
+    }
+
+    private static Timer totalOf(Timer[] timers) {
+        return timers[CommandTrace.Span.TOTAL.ordinal()];
+    }
+
+    //quantiles are bucket bounds, so they are shown as "<= x"
+    private static String formatMillis(double seconds) {
+        if (Double.isInfinite(seconds)) {
+            return "inf";
+        }
+        return "<=" + Math.round(seconds * 1000);
+    }
+
+    @Override
+    public String help(Guild guild) {
+        return "{0}{1} [command]\n#Show where the time of sampled commands is spent.";
+    }
+}
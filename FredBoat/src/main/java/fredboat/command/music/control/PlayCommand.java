@@ -44,6 +44,7 @@ import fredboat.util.TextUtils;
 import fredboat.util.rest.SearchUtil;
 import net.dv8tion.jda.core.MessageBuilder;
 import net.dv8tion.jda.core.entities.Guild;
+import net.dv8tion.jda.core.entities.Message;
 import net.dv8tion.jda.core.entities.Message.Attachment;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
@@ -149,54 +150,62 @@ public class PlayCommand extends Command implements IMusicCommand, ICommandRestr
         query = query.replaceAll(SearchUtil.PUNCTUATION_REGEX, "");
 
         String finalQuery = query;
-        context.reply(I18n.get(context, "playSearching").replace("{q}", query), outMsg -> {
-            AudioPlaylist list;
-            try {
-                list = SearchUtil.searchForTracks(finalQuery, searchProviders);
-            } catch (SearchUtil.SearchingException e) {
-                context.reply(I18n.get(context, "playYoutubeSearchError"));
-                log.error("YouTube search exception", e);
-                return;
+        context.reply(I18n.get(context, "playSearching").replace("{q}", query), outMsg ->
+                //someone is waiting for an answer, so don't let a slow youtube hold them up for too long
+                SearchUtil.searchForTracks(finalQuery, searchProviders, SearchUtil.SearchStrategy.HEDGED)
+                        .whenComplete((list, t) -> {
+                            if (t != null) {
+                                context.reply(I18n.get(context, "playYoutubeSearchError"));
+                                log.error("YouTube search exception", t);
+                                return;
+                            }
+                            try {
+                                onSearchResult(context, outMsg, finalQuery, list);
+                            } catch (Exception e) {
+                                TextUtils.handleException(e, context);
+                            }
+                        })
+        );
+    }
+
+    private void onSearchResult(CommandContext context, Message outMsg, String query, AudioPlaylist list) {
+        if (list == null || list.getTracks().isEmpty()) {
+            CentralMessaging.editMessage(outMsg,
+                    I18n.get(context, "playSearchNoResults").replace("{q}", query)
+            );
+
+        } else {
+            //Clean up any last search by this user
+            GuildPlayer player = PlayerRegistry.get(context.guild);
+
+            //Get at most 5 tracks
+            List<AudioTrack> selectable = list.getTracks().subList(0, Math.min(SearchUtil.MAX_RESULTS, list.getTracks().size()));
+
+            VideoSelection oldSelection = player.selections.get(context.invoker.getUser().getId());
+            if(oldSelection != null) {
+                CentralMessaging.deleteMessageById(context.channel, oldSelection.getOutMsgId());
             }
 
-            if (list == null || list.getTracks().isEmpty()) {
-                CentralMessaging.editMessage(outMsg,
-                        I18n.get(context, "playSearchNoResults").replace("{q}", finalQuery)
-                );
-
-            } else {
-                //Clean up any last search by this user
-                GuildPlayer player = PlayerRegistry.get(context.guild);
-
-                //Get at most 5 tracks
-                List<AudioTrack> selectable = list.getTracks().subList(0, Math.min(SearchUtil.MAX_RESULTS, list.getTracks().size()));
-
-                VideoSelection oldSelection = player.selections.get(context.invoker.getUser().getId());
-                if(oldSelection != null) {
-                    CentralMessaging.deleteMessageById(context.channel, oldSelection.getOutMsgId());
-                }
-
-                MessageBuilder builder = CentralMessaging.getClearThreadLocalMessageBuilder();
-                builder.append(MessageFormat.format(I18n.get(context, "playSelectVideo"), Config.CONFIG.getPrefix()));
-
-                int i = 1;
-                for (AudioTrack track : selectable) {
-                    builder.append("\n**")
-                            .append(String.valueOf(i))
-                            .append(":** ")
-                            .append(track.getInfo().title)
-                            .append(" (")
-                            .append(TextUtils.formatTime(track.getInfo().length))
-                            .append(")");
-
-                    i++;
-                }
-
-                CentralMessaging.editMessage(outMsg, builder.build());
-                player.setCurrentTC(context.channel);
-                player.selections.put(context.invoker.getUser().getId(), new VideoSelection(selectable, outMsg));
+            MessageBuilder builder = CentralMessaging.getClearThreadLocalMessageBuilder();
+            builder.append(MessageFormat.format(I18n.get(context, "playSelectVideo"), Config.CONFIG.getPrefix()));
+
+            int i = 1;
+            for (AudioTrack track : selectable) {
+                builder.append("\n**")
+                        .append(String.valueOf(i))
+                        .append(":** ")
+                        .append(track.getInfo().title)
+                        .append(" (")
+                        .append(TextUtils.formatTime(track.getInfo().length))
+                        .append(")");
+
+                i++;
             }
-        });
+
+            CentralMessaging.editMessage(outMsg, builder.build());
+            player.setCurrentTC(context.channel);
+            player.selections.put(context.invoker.getUser().getId(), new VideoSelection(selectable, outMsg));
+        }
     }
 
     @Override
@@ -104,7 +104,7 @@ public class NowplayingCommand extends Command implements IMusicCommand {
     }
 
     private EmbedBuilder getYoutubeEmbed(ResourceBundle i18n, AudioTrackContext atc, YoutubeAudioTrack at) {
-        YoutubeVideo yv = YoutubeAPI.getVideoFromID(at.getIdentifier(), true);
+        YoutubeVideo yv = YoutubeAPI.getVideoFromID(at.getIdentifier());
         String timeField = "["
                 + TextUtils.formatTime(atc.getEffectivePosition())
                 + "/"
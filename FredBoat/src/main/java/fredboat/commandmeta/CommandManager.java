@@ -36,6 +36,11 @@ import fredboat.commandmeta.abs.IMusicCommand;
 import fredboat.feature.I18n;
 import fredboat.feature.PatronageChecker;
 import fredboat.feature.togglz.FeatureFlags;
+import fredboat.metrics.CommandTrace;
+import fredboat.metrics.Counter;
+import fredboat.metrics.MetricFamily;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
 import fredboat.perms.PermissionLevel;
 import fredboat.perms.PermsUtil;
 import fredboat.shared.constant.BotConstants;
@@ -60,6 +65,11 @@ public class CommandManager {
 
     public static final AtomicInteger commandsExecuted = new AtomicInteger(0);
 
+    private static final MetricFamily<Timer> COMMAND_DURATION = Metrics.timerFamily("fredboat_command_duration_seconds",
+            "Time spent executing commands", "command");
+    private static final MetricFamily<Counter> COMMAND_ERRORS = Metrics.counterFamily("fredboat_command_errors_total",
+            "Commands that threw an exception", "command");
+
     public static void prefixCalled(CommandContext context) {
         Guild guild = context.guild;
         Command invoked = context.command;
@@ -137,11 +147,17 @@ public class CommandManager {
             }
         }
 
+        //label by class rather than by trigger, the latter is whatever case and alias the user typed
+        String commandName = invoked.getClass().getSimpleName();
+        long start = System.nanoTime();
         try {
             invoked.onInvoke(context);
         } catch (Exception e) {
+            COMMAND_ERRORS.get(commandName).inc();
             TextUtils.handleException(e, context);
         }
+        COMMAND_DURATION.get(commandName).observeSince(start);
+        CommandTrace.record(CommandTrace.Span.EXECUTE, start);
 
     }
 
@@ -30,6 +30,7 @@ import fredboat.commandmeta.CommandManager;
 import fredboat.commandmeta.CommandRegistry;
 import fredboat.messaging.CentralMessaging;
 import fredboat.messaging.internal.Context;
+import fredboat.metrics.CommandTrace;
 import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Message;
@@ -63,6 +64,7 @@ public class CommandContext extends Context {
     public String trigger = "";                        // the command trigger, e.g. "play", or "p", or "pLaY", whatever the user typed
     public String[] args = new String[0];              // the arguments including prefix + trigger in args[0]
     public Command command = null;
+    public CommandTrace trace = null;                  // set if this invocation was sampled for tracing
 
     /**
      * @param event the event to be parsed
@@ -46,6 +46,7 @@ public class MainCommandInitializer {
         CommandRegistry.registerCommand("unblacklist", new UnblacklistCommand(), "unlimit");
         CommandRegistry.registerCommand("version", new VersionCommand());
         CommandRegistry.registerCommand("uptime", new StatsCommand(), "stats");
+        CommandRegistry.registerCommand("traces", new TraceCommand());
         CommandRegistry.registerCommand("update", new UpdateCommand());
         CommandRegistry.registerCommand("compile", new CompileCommand());
         CommandRegistry.registerCommand("mvntest", new MavenTestCommand());
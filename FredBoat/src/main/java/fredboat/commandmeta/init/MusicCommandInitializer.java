@@ -25,6 +25,7 @@
 package fredboat.commandmeta.init;
 
 import fredboat.Config;
+import fredboat.agent.PlayerEvictionAgent;
 import fredboat.agent.VoiceChannelCleanupAgent;
 import fredboat.command.admin.*;
 import fredboat.command.maintenance.*;
@@ -51,6 +52,8 @@ import fredboat.util.rest.SearchUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+
 public class MusicCommandInitializer {
 
     private static final Logger log = LoggerFactory.getLogger(MusicCommandInitializer.class);
@@ -97,6 +100,7 @@ public class MusicCommandInitializer {
         CommandRegistry.registerCommand("mexit", new ExitCommand());
         CommandRegistry.registerCommand("mbotrestart", new BotRestartCommand());
         CommandRegistry.registerCommand("mstats", new StatsCommand());
+        CommandRegistry.registerCommand("mtraces", new TraceCommand());
         CommandRegistry.registerCommand("meval", new EvalCommand());
         CommandRegistry.registerCommand("mupdate", new UpdateCommand());
         CommandRegistry.registerCommand("mcompile", new CompileCommand());
@@ -127,6 +131,10 @@ public class MusicCommandInitializer {
         } else {
             log.info("Skipped setting up the VoiceChannelCleanupAgent since we are running as PATRON distribution.");
         }
+
+        //runs even if players are never evicted, it also keeps the count of playing players right
+        long playerIdleTtl = Config.CONFIG == null ? 0 : TimeUnit.MINUTES.toMillis(Config.CONFIG.getPlayerIdleTtlMinutes());
+        new PlayerEvictionAgent(playerIdleTtl).start();
     }
 
     /**
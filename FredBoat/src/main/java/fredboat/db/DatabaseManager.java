@@ -123,6 +123,11 @@ public class DatabaseManager {
             //timeout the validation query (will be done automatically through Connection.isValid())
             properties.put("hibernate.hikari.validationTimeout", "1000");
 
+            //the EntityWriter writes queued entities in batches, let those go out as jdbc batches
+            properties.put("hibernate.jdbc.batch_size", "50");
+            properties.put("hibernate.order_inserts", "true");
+            properties.put("hibernate.order_updates", "true");
+
 
             LocalContainerEntityManagerFactoryBean emfb = new LocalContainerEntityManagerFactoryBean();
             emfb.setPackagesToScan("fredboat.db.entity");
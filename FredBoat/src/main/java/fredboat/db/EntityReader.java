@@ -32,24 +32,55 @@ import fredboat.db.entity.GuildConfig;
 import fredboat.db.entity.GuildPermissions;
 import fredboat.db.entity.IEntity;
 import fredboat.db.entity.UConfig;
+import fredboat.metrics.CommandTrace;
+import fredboat.metrics.Counter;
+import fredboat.metrics.MetricFamily;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
 import net.dv8tion.jda.core.entities.Guild;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class EntityReader {
 
     private static final Logger log = LoggerFactory.getLogger(EntityReader.class);
 
+    private static final MetricFamily<Timer> READ_DURATION = Metrics.timerFamily("fredboat_db_read_duration_seconds",
+            "Time taken to load an entity from the database", "entity");
+    private static final Counter READ_ERRORS = Metrics.counter("fredboat_db_read_errors_total",
+            "Failed attempts to load an entity from the database");
+
+    private static final ExecutorService CACHE_REFRESHER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "guild-config-refresher");
+        t.setDaemon(true);
+        return t;
+    });
+    static final GuildConfigCache GUILD_CONFIGS = new GuildConfigCache(
+            guildId -> getEntity(Long.toString(guildId), GuildConfig.class), CACHE_REFRESHER,
+            50000, TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(10));
+
+    static {
+        Metrics.gauge("fredboat_guild_config_cache_size", "Guild configs held in memory", GUILD_CONFIGS::size);
+    }
+
     public static UConfig getUConfig(String id) {
         return getEntity(id, UConfig.class);
     }
 
     public static GuildConfig getGuildConfig(String id) {
-        return getEntity(id, GuildConfig.class);
+        return getGuildConfig(Long.parseLong(id));
+    }
+
+    public static GuildConfig getGuildConfig(long guildId) {
+        return GUILD_CONFIGS.get(guildId);
     }
 
     public static GuildPermissions getGuildPermissions(Guild guild) {
@@ -57,11 +88,25 @@ public class EntityReader {
     }
 
     private static <E extends IEntity> E getEntity(String id, Class<E> clazz) throws DatabaseNotReadyException {
-        DatabaseManager dbManager = FredBoat.getDbManager();
+        //writes are queued, so the latest state of the entity may not have reached the database yet
+        EntityWriteQueue.Op pending = EntityWriter.QUEUE.getPending(clazz, id);
+        if (pending != null) {
+            return pending.isDelete() ? newInstance(id, clazz) : clazz.cast(pending.getEntity());
+        }
+
+        return loadEntity(FredBoat.getDbManager(), id, clazz);
+    }
+
+    /**
+     * Reads an entity from the database, ignoring writes that are still queued
+     */
+    static <E extends IEntity> E loadEntity(DatabaseManager dbManager, String id, Class<E> clazz)
+            throws DatabaseNotReadyException {
         if (!dbManager.isAvailable()) {
             throw new DatabaseNotReadyException();
         }
 
+        long start = System.nanoTime();
         EntityManager em = dbManager.getEntityManager();
         E config = null;
         try {
@@ -70,16 +115,49 @@ public class EntityReader {
             em.getTransaction().commit();
         } catch (PersistenceException e) {
             log.error("Error while trying to find entity of class {} from DB for id {}", clazz.getName(), id, e);
+            READ_ERRORS.inc();
             throw new DatabaseNotReadyException(e);
         } finally {
             em.close();
+            READ_DURATION.get(clazz.getSimpleName()).observeSince(start);
+            CommandTrace.record(CommandTrace.Span.DB_READ, start);
         }
         //return a fresh object if we didn't find the one we were looking for
         if (config == null) config = newInstance(id, clazz);
         return config;
     }
 
-    private static <E extends IEntity> E newInstance(String id, Class<E> clazz) {
+    /**
+     * Loads the entities with the given ids in a single query. Ids that have no row in the database are left out.
+     *
+     * @param idField name of the id field of the entity class
+     */
+    static <E extends IEntity> List<E> loadEntities(Class<E> clazz, String idField, Collection<String> ids)
+            throws DatabaseNotReadyException {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (!dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
+        }
+
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            List<E> result = em.createQuery("SELECT e FROM " + clazz.getSimpleName() + " e WHERE e." + idField
+                    + " IN :ids", clazz)
+                    .setParameter("ids", ids)
+                    .getResultList();
+            em.getTransaction().commit();
+            return result;
+        } catch (PersistenceException e) {
+            log.error("Error while trying to load {} entities of class {} from DB", ids.size(), clazz.getName(), e);
+            READ_ERRORS.inc();
+            throw new DatabaseNotReadyException(e);
+        } finally {
+            em.close();
+        }
+    }
+
+    static <E extends IEntity> E newInstance(String id, Class<E> clazz) {
         try {
             E entity = clazz.newInstance();
             entity.setId(id);
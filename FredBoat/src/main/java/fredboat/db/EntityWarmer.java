@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import fredboat.Config;
+import fredboat.FredBoat;
+import fredboat.db.entity.GuildConfig;
+import fredboat.db.entity.GuildPermissions;
+import fredboat.feature.togglz.FeatureFlags;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
+import fredboat.perms.PermsUtil;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.dv8tion.jda.core.JDA;
+import net.dv8tion.jda.core.entities.Guild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the guild configs and permissions of a shard's guilds once it is ready.
+ * <p>
+ * Without this, the first message in every guild after a restart loads both of them one row at a time, which adds up
+ * to thousands of queries at once. Here they are loaded with one query per batch of guilds instead, and put into the
+ * in-memory caches. Only a few batches run at the same time, so the connection pool is left to the commands.
+ */
+public class EntityWarmer {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityWarmer.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final ExecutorService LOADERS = Executors.newFixedThreadPool(
+            Math.max(1, Config.CONFIG.getHikariPoolSize() / 4), new DaemonThreadFactory("entity-warmer"));
+
+    private static final AtomicInteger PENDING_GUILDS = new AtomicInteger();
+    private static final Counter GUILD_CONFIGS = Metrics.counter("fredboat_db_warmup_entities_total",
+            "Entities loaded ahead of time when a shard gets ready", "entity", "GuildConfig");
+    private static final Counter GUILD_PERMISSIONS = Metrics.counter("fredboat_db_warmup_entities_total",
+            "Entities loaded ahead of time when a shard gets ready", "entity", "GuildPermissions");
+    private static final Counter FAILED_BATCHES = Metrics.counter("fredboat_db_warmup_failed_batches_total",
+            "Batches of guilds whose entities could not be loaded ahead of time");
+    private static final Timer BATCH_DURATION = Metrics.timer("fredboat_db_warmup_batch_duration_seconds",
+            "Time taken to load the entities of a batch of guilds");
+
+    static {
+        Metrics.gauge("fredboat_db_warmup_pending_guilds", "Guilds waiting for their entities to be loaded ahead of time",
+                PENDING_GUILDS::get);
+    }
+
+    /**
+     * Queues loading the entities of all guilds of the shard, returns right away
+     */
+    public static void warmUp(JDA jda) {
+        DatabaseManager dbManager = FredBoat.getDbManager();
+        if (dbManager == null || !dbManager.isAvailable()) {
+            return;
+        }
+
+        List<Guild> guilds = jda.getGuilds();
+        String shard = FredBoat.getInstance(jda).getShardInfo().getShardString();
+        int batchCount = (guilds.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        if (batchCount == 0) return;
+
+        log.info("Loading entities of {} guilds of {} in {} batches", guilds.size(), shard, batchCount);
+        long start = System.currentTimeMillis();
+        AtomicInteger remainingBatches = new AtomicInteger(batchCount);
+        PENDING_GUILDS.addAndGet(guilds.size());
+
+        for (int i = 0; i < guilds.size(); i += BATCH_SIZE) {
+            List<Guild> batch = guilds.subList(i, Math.min(i + BATCH_SIZE, guilds.size()));
+            List<String> ids = new ArrayList<>(batch.size());
+            for (Guild guild : batch) {
+                ids.add(guild.getId());
+            }
+
+            LOADERS.execute(() -> {
+                try {
+                    warmBatch(ids);
+                } finally {
+                    PENDING_GUILDS.addAndGet(-ids.size());
+                    if (remainingBatches.decrementAndGet() == 0) {
+                        log.info("Loaded entities of {} guilds of {} in {}ms", guilds.size(), shard,
+                                System.currentTimeMillis() - start);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void warmBatch(List<String> ids) {
+        long start = System.nanoTime();
+        try {
+            Set<String> missing = new ObjectOpenHashSet<>(ids);
+            for (GuildConfig config : EntityReader.loadEntities(GuildConfig.class, "guildId", ids)) {
+                missing.remove(config.getGuildId());
+                warmGuildConfig(config);
+            }
+            //no row means the guild uses the defaults, remember that as well
+            for (String id : missing) {
+                warmGuildConfig(EntityReader.newInstance(id, GuildConfig.class));
+            }
+
+            if (!FeatureFlags.PERMISSIONS.isActive()) return;
+
+            missing = new ObjectOpenHashSet<>(ids);
+            for (GuildPermissions gp : EntityReader.loadEntities(GuildPermissions.class, "id", ids)) {
+                missing.remove(gp.getEntityId());
+                warmGuildPermissions(gp);
+            }
+            for (String id : missing) {
+                warmGuildPermissions(EntityReader.newInstance(id, GuildPermissions.class));
+            }
+        } catch (Exception e) {
+            //not a problem, the entities will be loaded when they are needed
+            log.warn("Failed to load entities of a batch of {} guilds ahead of time", ids.size(), e);
+            FAILED_BATCHES.inc();
+        } finally {
+            BATCH_DURATION.observeSince(start);
+        }
+    }
+
+    private static void warmGuildConfig(GuildConfig config) {
+        //queued writes are newer than what we loaded
+        if (EntityWriter.QUEUE.getPending(GuildConfig.class, config.getGuildId()) != null) return;
+
+        EntityReader.GUILD_CONFIGS.putIfAbsent(Long.parseLong(config.getGuildId()), config);
+        GUILD_CONFIGS.inc();
+    }
+
+    private static void warmGuildPermissions(GuildPermissions gp) {
+        if (EntityWriter.QUEUE.getPending(GuildPermissions.class, gp.getEntityId()) != null) return;
+
+        PermsUtil.preload(gp);
+        GUILD_PERMISSIONS.inc();
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.db.entity.IEntity;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Write-behind queue for entity merges and deletes.
+ * <p>
+ * Writes are queued per entity; a write to an entity that is still queued replaces the queued one, so an entity that
+ * is saved many times in a short while (blacklist entries on every rate limit hit) only hits the database once. A
+ * background thread writes the queued operations in batches, each batch in a single transaction. If the database is
+ * not available, the batch is queued again and retried later with a backoff.
+ * <p>
+ * Queued and in flight writes can be looked up, so readers see their own writes before they reach the database.
+ * Entities are merged while holding their monitor; code changing a queued entity should synchronize on it.
+ */
+class EntityWriteQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityWriteQueue.class);
+
+    private static final Counter WRITES = Metrics.counter("fredboat_db_writes_total",
+            "Entity merges and deletes written to the database");
+    private static final Counter COALESCED = Metrics.counter("fredboat_db_writes_coalesced_total",
+            "Entity writes that replaced a queued write of the same entity");
+    private static final Counter RETRIES = Metrics.counter("fredboat_db_write_retries_total",
+            "Batches of entity writes queued again because the database was not available");
+    private static final Counter FAILED = Metrics.counter("fredboat_db_writes_failed_total",
+            "Entity writes that were dropped after failing");
+
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    /**
+     * Writes a batch of operations to the database, in a single transaction.
+     */
+    @FunctionalInterface
+    interface BatchWriter {
+        /**
+         * @throws DatabaseNotReadyException if the batch should be retried later
+         */
+        void write(List<Op> batch);
+    }
+
+    private final BatchWriter writer;
+    private final int maxBatchSize;
+    private final long coalesceMillis;
+
+    //guarded by this
+    private final LinkedHashMap<Key, Op> queued = new LinkedHashMap<>();
+    private final HashMap<Key, Op> inFlight = new HashMap<>();
+    private Thread thread = null;
+
+    //only one batch is written at a time, this keeps the writes of an entity in order
+    private final Object writeLock = new Object();
+
+    /**
+     * @param maxBatchSize   most operations written in one transaction
+     * @param coalesceMillis how long the background thread waits for more writes before writing a batch
+     */
+    EntityWriteQueue(BatchWriter writer, int maxBatchSize, long coalesceMillis) {
+        this.writer = writer;
+        this.maxBatchSize = maxBatchSize;
+        this.coalesceMillis = coalesceMillis;
+    }
+
+    CompletableFuture<Void> merge(IEntity entity) {
+        return enqueue(new Op(entity.getClass(), entity.getEntityId(), entity));
+    }
+
+    CompletableFuture<Void> delete(Class<? extends IEntity> entityClass, Object id) {
+        return enqueue(new Op(entityClass, id, null));
+    }
+
+    /**
+     * @return the latest queued or in flight operation for the entity, null if there is none
+     */
+    synchronized Op getPending(Class<? extends IEntity> entityClass, String id) {
+        Key key = new Key(entityClass, id);
+        Op op = queued.get(key);
+        return op != null ? op : inFlight.get(key);
+    }
+
+    synchronized int size() {
+        return queued.size();
+    }
+
+    /**
+     * Writes everything queued on the calling thread.
+     *
+     * @return true if the queue was emptied, false if it wasn't before the timeout ran out
+     */
+    boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (size() > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (!writeNextBatch()) {
+                try {
+                    Thread.sleep(Math.min(MIN_BACKOFF_MILLIS, remaining));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private CompletableFuture<Void> enqueue(Op op) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        op.futures.add(future);
+        synchronized (this) {
+            //replacing the value of a present key keeps its position, so hot entities don't starve
+            Op replaced = queued.put(op.key, op);
+            if (replaced != null) {
+                op.futures.addAll(replaced.futures);
+                COALESCED.inc();
+            }
+            if (thread == null) {
+                thread = new Thread(this::run, "entity-write-behind");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notifyAll();
+        }
+        return future;
+    }
+
+    private void run() {
+        log.info("Started entity write-behind");
+        long backoff = MIN_BACKOFF_MILLIS;
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (queued.isEmpty()) {
+                        wait();
+                    }
+                }
+                //give repeated writes of the same entities a moment to coalesce
+                if (size() < maxBatchSize) {
+                    Thread.sleep(coalesceMillis);
+                }
+
+                if (writeNextBatch()) {
+                    backoff = MIN_BACKOFF_MILLIS;
+                } else {
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Entity write-behind interrupted, {} writes are left in the queue", size());
+                return;
+            } catch (Exception e) {
+                log.error("Caught an exception while writing entities!", e);
+            }
+        }
+    }
+
+    /**
+     * @return false if the database was not available
+     */
+    private boolean writeNextBatch() {
+        synchronized (writeLock) {
+            List<Op> batch = new ArrayList<>();
+            synchronized (this) {
+                Iterator<Op> it = queued.values().iterator();
+                while (it.hasNext() && batch.size() < maxBatchSize) {
+                    Op op = it.next();
+                    it.remove();
+                    inFlight.put(op.key, op);
+                    batch.add(op);
+                }
+            }
+            if (batch.isEmpty()) {
+                return true;
+            }
+
+            try {
+                writer.write(batch);
+                done(batch, null);
+                return true;
+            } catch (DatabaseNotReadyException e) {
+                requeue(batch);
+                return false;
+            } catch (Exception e) {
+                if (batch.size() == 1) {
+                    done(batch, e);
+                    return true;
+                }
+            }
+
+            //something in the batch can't be written, write them one by one to drop only the culprit
+            for (int i = 0; i < batch.size(); i++) {
+                List<Op> single = Collections.singletonList(batch.get(i));
+                try {
+                    writer.write(single);
+                    done(single, null);
+                } catch (DatabaseNotReadyException e) {
+                    requeue(batch.subList(i, batch.size()));
+                    return false;
+                } catch (Exception e) {
+                    done(single, e);
+                }
+            }
+            return true;
+        }
+    }
+
+    private void done(List<Op> ops, Exception failure) {
+        synchronized (this) {
+            for (Op op : ops) {
+                inFlight.remove(op.key, op);
+            }
+        }
+        for (Op op : ops) {
+            if (failure == null) {
+                WRITES.inc();
+                op.futures.forEach(f -> f.complete(null));
+            } else {
+                log.error("Dropping write of entity {} {} after it failed", op.entityClass.getSimpleName(), op.key.id, failure);
+                FAILED.inc();
+                op.futures.forEach(f -> f.completeExceptionally(failure));
+            }
+        }
+    }
+
+    private synchronized void requeue(List<Op> ops) {
+        RETRIES.inc();
+        //the failed ones go first, unless a newer write of the same entity was queued in the meantime
+        LinkedHashMap<Key, Op> requeued = new LinkedHashMap<>();
+        for (Op op : ops) {
+            inFlight.remove(op.key, op);
+            requeued.put(op.key, op);
+        }
+        for (Map.Entry<Key, Op> entry : queued.entrySet()) {
+            Op older = requeued.get(entry.getKey());
+            if (older != null) {
+                entry.getValue().futures.addAll(older.futures);
+            }
+            requeued.put(entry.getKey(), entry.getValue());
+        }
+        queued.clear();
+        queued.putAll(requeued);
+    }
+
+    /**
+     * A queued merge or delete of an entity
+     */
+    static final class Op {
+        private final Key key;
+        private final Class<? extends IEntity> entityClass;
+        private final Object id;
+        private final IEntity entity;
+        //guarded by the monitor of the queue
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+
+        private Op(Class<? extends IEntity> entityClass, Object id, IEntity entity) {
+            this.key = new Key(entityClass, String.valueOf(id));
+            this.entityClass = entityClass;
+            this.id = id;
+            this.entity = entity;
+        }
+
+        Class<? extends IEntity> getEntityClass() {
+            return entityClass;
+        }
+
+        /**
+         * @return the id of the entity to delete, in the type of its id field
+         */
+        Object getId() {
+            return id;
+        }
+
+        /**
+         * @return the entity to merge, null if this is a delete
+         */
+        IEntity getEntity() {
+            return entity;
+        }
+
+        boolean isDelete() {
+            return entity == null;
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> entityClass;
+        private final String id;
+
+        private Key(Class<?> entityClass, String id) {
+            this.entityClass = entityClass;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return entityClass == key.entityClass && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityClass, id);
+        }
+    }
+}
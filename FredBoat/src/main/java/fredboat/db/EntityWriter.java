@@ -31,70 +31,111 @@ import fredboat.db.entity.GuildConfig;
 import fredboat.db.entity.GuildPermissions;
 import fredboat.db.entity.IEntity;
 import fredboat.db.entity.UConfig;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
+import fredboat.perms.PermsUtil;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.hibernate.exception.JDBCConnectionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Writes go through a write-behind queue, see {@link EntityWriteQueue}. None of these methods block on the database;
+ * the returned futures complete once the write made it into the database.
+ */
 public class EntityWriter {
 
     private static final Logger log = LoggerFactory.getLogger(EntityWriter.class);
 
-    public static void mergeUConfig(UConfig config) {
-        merge(config);
+    private static final Timer BATCH_DURATION = Metrics.timer("fredboat_db_write_batch_duration_seconds",
+            "Time taken to write a batch of entities to the database");
+
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final long COALESCE_MILLIS = 1000;
+
+    static final EntityWriteQueue QUEUE = new EntityWriteQueue(EntityWriter::writeBatch, MAX_BATCH_SIZE, COALESCE_MILLIS);
+
+    static {
+        Metrics.gauge("fredboat_db_writes_queued", "Entity writes waiting to be written to the database", QUEUE::size);
     }
 
-    public static void mergeGuildConfig(GuildConfig config) {
-        merge(config);
+    public static CompletableFuture<Void> mergeUConfig(UConfig config) {
+        return QUEUE.merge(config);
     }
 
-    public static void mergeBlacklistEntry(BlacklistEntry ble) {
-        merge(ble);
+    public static CompletableFuture<Void> mergeGuildConfig(GuildConfig config) {
+        EntityReader.GUILD_CONFIGS.put(Long.parseLong(config.getEntityId()), config);
+        return QUEUE.merge(config);
     }
 
-    public static void mergeGuildPermissions(GuildPermissions guildPermissions) {
-        merge(guildPermissions);
+    public static CompletableFuture<Void> mergeBlacklistEntry(BlacklistEntry ble) {
+        return QUEUE.merge(ble);
     }
 
-    private static void merge(IEntity entity) {
-        DatabaseManager dbManager = FredBoat.getDbManager();
-        if (!dbManager.isAvailable()) {
-            throw new DatabaseNotReadyException();
-        }
+    public static CompletableFuture<Void> mergeGuildPermissions(GuildPermissions guildPermissions) {
+        PermsUtil.onPermissionsChanged(guildPermissions);
+        return QUEUE.merge(guildPermissions);
+    }
 
-        EntityManager em = dbManager.getEntityManager();
-        try {
-            em.getTransaction().begin();
-            em.merge(entity);
-            em.getTransaction().commit();
-        } catch (JDBCConnectionException e) {
-            log.error("Failed to merge entity {}", entity, e);
-            throw new DatabaseNotReadyException(e);
-        } finally {
-            em.close();
-        }
+    public static CompletableFuture<Void> deleteBlacklistEntry(long id) {
+        return QUEUE.delete(BlacklistEntry.class, id);
+    }
+
+    /**
+     * Write all queued entities, blocking. Meant to be called on shutdown.
+     *
+     * @return true if everything was written before the timeout ran out
+     */
+    public static boolean flush(long timeoutMillis) {
+        return QUEUE.flush(timeoutMillis);
     }
 
-    public static void deleteBlacklistEntry(long id) {
+    private static void writeBatch(List<EntityWriteQueue.Op> batch) {
         DatabaseManager dbManager = FredBoat.getDbManager();
-        if (!dbManager.isAvailable()) {
-            throw new DatabaseNotReadyException("The database is not available currently. Please try again later.");
+        if (dbManager == null || !dbManager.isAvailable()) {
+            throw new DatabaseNotReadyException();
         }
 
+        long start = System.nanoTime();
         EntityManager em = dbManager.getEntityManager();
         try {
             em.getTransaction().begin();
-            BlacklistEntry ble = em.find(BlacklistEntry.class, id);
+            for (EntityWriteQueue.Op op : batch) {
+                if (op.isDelete()) {
+                    IEntity entity = em.find(op.getEntityClass(), op.getId());
+                    if (entity != null) {
+                        em.remove(entity);
+                    }
+                } else {
+                    IEntity entity = op.getEntity();
+                    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                    synchronized (entity) {
+                        em.merge(entity);
+                    }
+                }
+            }
             em.getTransaction().commit();
-
-            if (ble != null) {
-                em.getTransaction().begin();
-                em.remove(ble);
-                em.getTransaction().commit();
+        } catch (PersistenceException e) {
+            if (ExceptionUtils.indexOfType(e, JDBCConnectionException.class) >= 0) {
+                log.error("Failed to write a batch of {} entities", batch.size(), e);
+                throw new DatabaseNotReadyException(e);
             }
+            throw e;
         } finally {
+            try {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+            } catch (PersistenceException e) {
+                log.warn("Failed to roll back a batch of entity writes", e);
+            }
             em.close();
+            BATCH_DURATION.observeSince(start);
         }
     }
 }
@@ -0,0 +1,228 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.db.entity.GuildConfig;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.function.LongFunction;
+
+/**
+ * In-process cache of guild configs, keyed by guild id.
+ * <p>
+ * Guild configs are read for nearly every reply (the language), every track start and every voice join, while they
+ * hardly ever change. A hit costs a map lookup under a lock instead of an EntityManager and a transaction. The guilds are
+ * spread over several partitions, each with its own lock, so the threads of all shards don't queue up on a single one.
+ * <p>
+ * Entries older than the refresh time are returned as they are and reloaded in the background; entries older than the
+ * expiry time are reloaded before being returned. The least recently used entries of a partition are dropped once it
+ * holds its share of the max size. Writes of guild configs must go through {@link #put(long, GuildConfig)} so readers
+ * see them right away.
+ */
+class GuildConfigCache {
+
+    private static final Logger log = LoggerFactory.getLogger(GuildConfigCache.class);
+
+    static final int DEFAULT_PARTITIONS = 16;
+
+    private static final Counter HITS = Metrics.counter("fredboat_guild_config_cache_total",
+            "Guild config lookups, by result", "result", "hit");
+    private static final Counter MISSES = Metrics.counter("fredboat_guild_config_cache_total",
+            "Guild config lookups, by result", "result", "miss");
+
+    private final LongFunction<GuildConfig> loader;
+    private final Executor refresher;
+    private final long refreshAfterMillis;
+    private final long expireAfterMillis;
+    private final Partition[] partitions;
+
+    /**
+     * @param loader    loads a config from the database, may throw {@link DatabaseNotReadyException}
+     * @param refresher runs the background reloads
+     */
+    GuildConfigCache(LongFunction<GuildConfig> loader, Executor refresher, int maxSize, long refreshAfterMillis,
+                     long expireAfterMillis) {
+        this(loader, refresher, DEFAULT_PARTITIONS, maxSize, refreshAfterMillis, expireAfterMillis);
+    }
+
+    /**
+     * @param maxSize split evenly between the partitions
+     */
+    GuildConfigCache(LongFunction<GuildConfig> loader, Executor refresher, int partitionCount, int maxSize,
+                     long refreshAfterMillis, long expireAfterMillis) {
+        this.loader = loader;
+        this.refresher = refresher;
+        this.refreshAfterMillis = refreshAfterMillis;
+        this.expireAfterMillis = expireAfterMillis;
+        this.partitions = new Partition[partitionCount];
+        int partitionSize = Math.max(1, (maxSize + partitionCount - 1) / partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(partitionSize);
+        }
+    }
+
+    private Partition getPartition(long guildId) {
+        return partitions[(int) ((HashCommon.mix(guildId) & Long.MAX_VALUE) % partitions.length)];
+    }
+
+    GuildConfig get(long guildId) {
+        long now = System.currentTimeMillis();
+        Partition partition = getPartition(guildId);
+        long loadGeneration;
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            Entry entry = partition.entries.getAndMoveToLast(guildId);
+            if (entry != null) {
+                long age = now - entry.loadedAt;
+                if (age < expireAfterMillis) {
+                    if (age >= refreshAfterMillis && partition.refreshing.add(guildId)) {
+                        long refreshGeneration = partition.generation;
+                        refresher.execute(() -> refresh(guildId, refreshGeneration));
+                    }
+                    HITS.inc();
+                    return entry.config;
+                }
+            }
+            loadGeneration = partition.generation;
+        }
+
+        MISSES.inc();
+        GuildConfig config = loader.apply(guildId);
+        store(guildId, config, now, loadGeneration);
+        return config;
+    }
+
+    /**
+     * Replaces the cached config of a guild with a newer one
+     */
+    void put(long guildId, GuildConfig config) {
+        Partition partition = getPartition(guildId);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            partition.generation++;
+            partition.put(guildId, new Entry(config, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Caches a config loaded by other means than the loader, unless the guild already has one cached
+     */
+    void putIfAbsent(long guildId, GuildConfig config) {
+        Partition partition = getPartition(guildId);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            if (!partition.entries.containsKey(guildId)) {
+                partition.put(guildId, new Entry(config, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    void invalidate(long guildId) {
+        Partition partition = getPartition(guildId);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            partition.generation++;
+            partition.entries.remove(guildId);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Partition partition : partitions) {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (partition) {
+                size += partition.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private void refresh(long guildId, long refreshGeneration) {
+        try {
+            long now = System.currentTimeMillis();
+            store(guildId, loader.apply(guildId), now, refreshGeneration);
+        } catch (Exception e) {
+            //keep serving the old one, it will be loaded synchronously once it expires
+            log.debug("Failed to refresh guild config of guild {}", guildId, e);
+        } finally {
+            Partition partition = getPartition(guildId);
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (partition) {
+                partition.refreshing.remove(guildId);
+            }
+        }
+    }
+
+    private void store(long guildId, GuildConfig config, long loadedAt, long loadGeneration) {
+        Partition partition = getPartition(guildId);
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (partition) {
+            if (partition.generation == loadGeneration) {
+                partition.put(guildId, new Entry(config, loadedAt));
+            }
+        }
+    }
+
+    /**
+     * The guilds of one partition, guarded by its monitor
+     */
+    private static final class Partition {
+        private final int maxSize;
+        private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>();
+        private final LongOpenHashSet refreshing = new LongOpenHashSet();
+        //bumped by every write, loads that started before a write don't get to overwrite it
+        private long generation = 0;
+
+        private Partition(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        //must hold the monitor
+        private void put(long guildId, Entry entry) {
+            entries.putAndMoveToLast(guildId, entry);
+            while (entries.size() > maxSize) {
+                entries.removeFirst();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final GuildConfig config;
+        private final long loadedAt;
+
+        private Entry(GuildConfig config, long loadedAt) {
+            this.config = config;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -74,6 +74,11 @@ public class BlacklistEntry implements IEntity {
         this.id = Long.valueOf(id);
     }
 
+    @Override
+    public String getEntityId() {
+        return Long.toString(id);
+    }
+
     @Override
     public int hashCode() {
         return Long.hashCode(id);
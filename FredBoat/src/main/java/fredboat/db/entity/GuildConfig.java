@@ -64,6 +64,11 @@ public class GuildConfig implements IEntity, Serializable {
         this.guildId = id;
     }
 
+    @Override
+    public String getEntityId() {
+        return guildId;
+    }
+
     public GuildConfig() {
     }
 
@@ -62,6 +62,11 @@ public class GuildPermissions implements IEntity, Serializable {
         this.userList = id;
     }
 
+    @Override
+    public String getEntityId() {
+        return id;
+    }
+
     @Column(name = "list_admin", nullable = false, columnDefinition = "text")
     private String adminList = "";
 
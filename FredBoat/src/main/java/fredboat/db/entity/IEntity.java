@@ -34,4 +34,9 @@ package fredboat.db.entity;
 public interface IEntity {
 
     void setId(String id);
+
+    /**
+     * @return the id of this entity in the same form it is passed to {@link #setId(String)}
+     */
+    String getEntityId();
 }
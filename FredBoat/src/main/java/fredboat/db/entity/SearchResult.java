@@ -31,10 +31,14 @@ import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.DecodedTrackHolder;
 import fredboat.FredBoat;
 import fredboat.db.DatabaseManager;
 import fredboat.db.DatabaseNotReadyException;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
 import fredboat.util.rest.SearchUtil;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
 import org.apache.commons.lang3.SerializationUtils;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -52,16 +56,26 @@ import javax.persistence.PersistenceException;
 import javax.persistence.Table;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Created by napster on 27.08.17.
  * <p>
  * Caches a search result
+ * <p>
+ * The tracks are stored in a compact binary format, see {@link #encode}. Rows written in the old format, a java
+ * serialized {@link SerializableAudioPlaylist}, are still read and get rewritten in the new format when loaded.
+ * The most recently used results are also kept decoded in memory, so popular searches don't hit the database.
  */
 @Entity
 @Table(name = "search_results")
@@ -76,6 +90,25 @@ public class SearchResult implements Serializable {
 
     private static final Logger log = LoggerFactory.getLogger(SearchResult.class);
 
+    //first byte of the binary format. java serialization streams start with 0xACED, so the formats can't be confused
+    static final byte FORMAT_VERSION = 1;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_SEARCH_RESULT = 1 << 1;
+    //don't bother compressing anything smaller
+    private static final int COMPRESSION_THRESHOLD = 256;
+
+    private static final int MAX_RECENT_RESULTS = 2000;
+    //guarded by itself, least recently used first
+    private static final Object2ObjectLinkedOpenHashMap<SearchResultId, RecentResult> RECENT_RESULTS =
+            new Object2ObjectLinkedOpenHashMap<>();
+
+    private static final String LOOKUPS_HELP = "Lookups of cached search results, by where they were answered from";
+    private static final Counter LOOKUPS_MEMORY = Metrics.counter("fredboat_search_cache_lookups_total", LOOKUPS_HELP, "tier", "memory");
+    private static final Counter LOOKUPS_DATABASE = Metrics.counter("fredboat_search_cache_lookups_total", LOOKUPS_HELP, "tier", "database");
+    private static final Counter LOOKUPS_MISSED = Metrics.counter("fredboat_search_cache_lookups_total", LOOKUPS_HELP, "tier", "none");
+    private static final Counter MIGRATED = Metrics.counter("fredboat_search_cache_migrated_total",
+            "Cached search results rewritten from java serialization to the binary format");
+
     @Id
     private SearchResultId searchResultId;
 
@@ -86,6 +119,9 @@ public class SearchResult implements Serializable {
     @Column(name = "search_result")
     private byte[] serializedSearchResult;
 
+    //the search result this was created from, not persisted
+    private transient AudioPlaylist searchResult;
+
     //for JPA
     public SearchResult() {
     }
@@ -94,7 +130,8 @@ public class SearchResult implements Serializable {
                         AudioPlaylist searchResult) {
         this.searchResultId = new SearchResultId(provider, searchTerm);
         this.timestamp = System.currentTimeMillis();
-        this.serializedSearchResult = SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+        this.serializedSearchResult = encode(playerManager, searchResult);
+        this.searchResult = searchResult;
     }
 
     /**
@@ -106,14 +143,23 @@ public class SearchResult implements Serializable {
      */
     public static AudioPlaylist load(AudioPlayerManager playerManager, SearchUtil.SearchProvider provider,
                                      String searchTerm, long maxAgeMillis) throws DatabaseNotReadyException {
+        SearchResultId sId = new SearchResultId(provider, searchTerm);
+        RecentResult recent;
+        synchronized (RECENT_RESULTS) {
+            recent = RECENT_RESULTS.getAndMoveToLast(sId);
+        }
+        if (recent != null && isFresh(recent.timestamp, maxAgeMillis)) {
+            LOOKUPS_MEMORY.inc();
+            return SearchUtil.copyOf(recent.searchResult);
+        }
+
         DatabaseManager dbManager = FredBoat.getDbManager();
-        if (!dbManager.isAvailable()) {
+        if (dbManager == null || !dbManager.isAvailable()) {
             throw new DatabaseNotReadyException();
         }
 
         EntityManager em = dbManager.getEntityManager();
         SearchResult sr;
-        SearchResultId sId = new SearchResultId(provider, searchTerm);
         try {
             em.getTransaction().begin();
             sr = em.find(SearchResult.class, sId);
@@ -125,11 +171,46 @@ public class SearchResult implements Serializable {
             em.close();
         }
 
-        if (sr != null && (maxAgeMillis < 0 || System.currentTimeMillis() < sr.timestamp + maxAgeMillis)) {
-            return sr.getSearchResult(playerManager);
-        } else {
+        if (sr == null || !isFresh(sr.timestamp, maxAgeMillis)) {
+            LOOKUPS_MISSED.inc();
+            return null;
+        }
+
+        AudioPlaylist result = sr.getSearchResult(playerManager);
+        if (result == null) {
+            LOOKUPS_MISSED.inc();
             return null;
         }
+        LOOKUPS_DATABASE.inc();
+
+        if (isLegacyFormat(sr.serializedSearchResult)) {
+            sr.serializedSearchResult = encode(playerManager, result);
+            FredBoat.executor.execute(() -> {
+                try {
+                    sr.save();
+                    MIGRATED.inc();
+                } catch (DatabaseNotReadyException ignored) {
+                    //we'll get another chance next time it is loaded
+                }
+            });
+        }
+
+        remember(sId, result, sr.timestamp);
+        return SearchUtil.copyOf(result);
+    }
+
+    private static boolean isFresh(long timestamp, long maxAgeMillis) {
+        return maxAgeMillis < 0 || System.currentTimeMillis() < timestamp + maxAgeMillis;
+    }
+
+    private static void remember(SearchResultId sId, AudioPlaylist searchResult, long timestamp) {
+        RecentResult recent = new RecentResult(searchResult, timestamp);
+        synchronized (RECENT_RESULTS) {
+            RECENT_RESULTS.putAndMoveToLast(sId, recent);
+            while (RECENT_RESULTS.size() > MAX_RECENT_RESULTS) {
+                RECENT_RESULTS.removeFirst();
+            }
+        }
     }
 
     /**
@@ -138,8 +219,13 @@ public class SearchResult implements Serializable {
      * @return the merged SearchResult object
      */
     public SearchResult save() {
+        if (searchResult != null) {
+            //the tracks we were created from belong to the caller, remember copies of them
+            remember(searchResultId, SearchUtil.copyOf(searchResult), timestamp);
+        }
+
         DatabaseManager dbManager = FredBoat.getDbManager();
-        if (!dbManager.isAvailable()) {
+        if (dbManager == null || !dbManager.isAvailable()) {
             throw new DatabaseNotReadyException();
         }
 
@@ -186,13 +272,166 @@ public class SearchResult implements Serializable {
         this.timestamp = timestamp;
     }
 
+    /**
+     * @return the search result, or null if it could not be decoded
+     */
     public AudioPlaylist getSearchResult(AudioPlayerManager playerManager) {
-        SerializableAudioPlaylist sap = SerializationUtils.deserialize(serializedSearchResult);
-        return sap.decode(playerManager);
+        return decode(playerManager, serializedSearchResult);
     }
 
     public void setSearchResult(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
-        this.serializedSearchResult = SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+        this.serializedSearchResult = encode(playerManager, searchResult);
+        this.searchResult = searchResult;
+    }
+
+    /**
+     * Binary format of a search result:
+     * <ul>
+     * <li>a byte holding the {@link #FORMAT_VERSION}</li>
+     * <li>a byte of flags: whether the rest is deflated, and whether the playlist is a search result</li>
+     * <li>the name of the playlist, if any, as a boolean followed by modified UTF-8</li>
+     * <li>whether there is a selected track, as a boolean</li>
+     * <li>the selected track, if any, followed by the tracks, as lavaplayer messages
+     * (see {@link AudioPlayerManager#encodeTrack}), ending with an empty message</li>
+     * </ul>
+     * Tracks that fail to encode are left out.
+     */
+    static byte[] encode(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(body);
+            output.writeBoolean(searchResult.getName() != null);
+            if (searchResult.getName() != null) {
+                output.writeUTF(searchResult.getName());
+            }
+            byte[] selectedTrack = encodeTrack(playerManager, searchResult.getSelectedTrack());
+            output.writeBoolean(selectedTrack != null);
+            if (selectedTrack != null) {
+                output.write(selectedTrack);
+            }
+
+            MessageOutput tracks = new MessageOutput(output);
+            for (AudioTrack track : searchResult.getTracks()) {
+                try {
+                    playerManager.encodeTrack(tracks, track);
+                } catch (IOException e) {
+                    log.debug("Skipping track {} of search result that failed to encode", track.getIdentifier(), e);
+                }
+            }
+            tracks.finish();
+        } catch (IOException e) {
+            //we are writing into memory, so this would be a bug
+            throw new IllegalStateException("Failed to encode search result " + searchResult.getName(), e);
+        }
+
+        int flags = searchResult.isSearchResult() ? FLAG_SEARCH_RESULT : 0;
+        byte[] payload = body.toByteArray();
+        if (payload.length >= COMPRESSION_THRESHOLD) {
+            byte[] compressed = deflate(payload);
+            if (compressed.length < payload.length) {
+                payload = compressed;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        byte[] result = new byte[payload.length + 2];
+        result[0] = FORMAT_VERSION;
+        result[1] = (byte) flags;
+        System.arraycopy(payload, 0, result, 2, payload.length);
+        return result;
+    }
+
+    /**
+     * Decodes both the binary format of {@link #encode} and the java serialized format used before.
+     *
+     * @return the decoded search result, or null if it could not be decoded
+     */
+    static AudioPlaylist decode(AudioPlayerManager playerManager, byte[] serialized) {
+        if (serialized == null || serialized.length < 2) return null;
+
+        if (isLegacyFormat(serialized)) {
+            try {
+                SerializableAudioPlaylist sap = SerializationUtils.deserialize(serialized);
+                return sap.decode(playerManager);
+            } catch (Exception e) {
+                log.warn("Failed to deserialize a search result", e);
+                return null;
+            }
+        }
+        if (serialized[0] != FORMAT_VERSION) {
+            log.warn("Unknown search result format version {}", serialized[0]);
+            return null;
+        }
+
+        int flags = serialized[1];
+        InputStream body = new ByteArrayInputStream(serialized, 2, serialized.length - 2);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            body = new InflaterInputStream(body);
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(body);
+            String name = input.readBoolean() ? input.readUTF() : null;
+            boolean hasSelectedTrack = input.readBoolean();
+
+            MessageInput trackInput = new MessageInput(input);
+            AudioTrack selectedTrack = null;
+            if (hasSelectedTrack) {
+                DecodedTrackHolder holder = playerManager.decodeTrack(trackInput);
+                selectedTrack = holder == null ? null : holder.decodedTrack;
+            }
+            List<AudioTrack> tracks = new ArrayList<>();
+            DecodedTrackHolder holder;
+            while ((holder = playerManager.decodeTrack(trackInput)) != null) {
+                //null if the source of the track is gone
+                if (holder.decodedTrack != null) {
+                    tracks.add(holder.decodedTrack);
+                }
+            }
+            return new BasicAudioPlaylist(name, tracks, selectedTrack, (flags & FLAG_SEARCH_RESULT) != 0);
+        } catch (IOException e) {
+            log.warn("Failed to decode a search result", e);
+            return null;
+        }
+    }
+
+    //a single lavaplayer message, may return null if the encoding fails or the input is null
+    private static byte[] encodeTrack(AudioPlayerManager playerManager, AudioTrack track) {
+        if (track == null) {
+            return null;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            playerManager.encodeTrack(new MessageOutput(baos), track);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            log.debug("Failed to encode track {} of search result", track.getIdentifier(), e);
+            return null;
+        }
+    }
+
+    static boolean isLegacyFormat(byte[] serialized) {
+        return serialized.length >= 2 && serialized[0] == (byte) 0xAC && serialized[1] == (byte) 0xED;
+    }
+
+    /**
+     * Only used to benchmark and test reading the old format
+     */
+    static byte[] encodeLegacy(AudioPlayerManager playerManager, AudioPlaylist searchResult) {
+        return SerializationUtils.serialize(new SerializableAudioPlaylist(playerManager, searchResult));
+    }
+
+    private static byte[] deflate(byte[] input) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream output = new DeflaterOutputStream(compressed, deflater)) {
+            output.write(input);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to compress a search result", e);
+        } finally {
+            deflater.end();
+        }
+        return compressed.toByteArray();
     }
 
     /**
@@ -249,6 +488,19 @@ public class SearchResult implements Serializable {
     }
 
 
+    private static class RecentResult {
+        private final AudioPlaylist searchResult;
+        private final long timestamp;
+
+        private RecentResult(AudioPlaylist searchResult, long timestamp) {
+            this.searchResult = searchResult;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The format search results used to be stored in. Not written anymore, only kept to read old rows.
+     */
     private static class SerializableAudioPlaylist implements Serializable {
         private static final long serialVersionUID = -6823555858689776338L;
 
@@ -36,6 +36,7 @@ import fredboat.db.EntityReader;
 import fredboat.feature.I18n;
 import fredboat.feature.togglz.FeatureFlags;
 import fredboat.messaging.CentralMessaging;
+import fredboat.metrics.CommandTrace;
 import fredboat.util.TextUtils;
 import fredboat.util.Tuple2;
 import fredboat.util.ratelimit.Ratelimiter;
@@ -101,13 +102,32 @@ public class EventListenerBoat extends AbstractEventListener {
         if (content.startsWith(Config.CONFIG.getPrefix())) {
             log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + event.getMessage().getRawContent());
 
-            CommandContext context = CommandContext.parse(event);
-
-            if (context == null) {
+            CommandTrace trace = CommandTrace.startSampled();
+            if (trace == null) {
+                CommandContext context = CommandContext.parse(event);
+                if (context != null) {
+                    limitOrExecuteCommand(context);
+                }
                 return;
             }
 
-            limitOrExecuteCommand(context);
+            CommandTrace previous = trace.bind();
+            try {
+                long start = System.nanoTime();
+                CommandContext context = CommandContext.parse(event);
+                CommandTrace.record(CommandTrace.Span.PARSE, start);
+
+                if (context == null) {
+                    return;
+                }
+
+                context.trace = trace;
+                trace.setCommand(context.command.getClass().getSimpleName());
+                limitOrExecuteCommand(context);
+            } finally {
+                CommandTrace.restore(previous);
+                trace.release();
+            }
         } else if (event.getMessage().getMentionedUsers().contains(event.getJDA().getSelfUser())) {
             log.info(event.getGuild().getName() + " \t " + event.getAuthor().getName() + " \t " + event.getMessage().getRawContent());
             CommandManager.commandsExecuted.getAndIncrement();
@@ -127,8 +147,9 @@ public class EventListenerBoat extends AbstractEventListener {
     private void limitOrExecuteCommand(CommandContext context) {
         Tuple2<Boolean, Class> ratelimiterResult = new Tuple2<>(true, null);
         if (FeatureFlags.RATE_LIMITER.isActive()) {
+            long start = System.nanoTime();
             ratelimiterResult = Ratelimiter.getRatelimiter().isAllowed(context, context.command, 1);
-
+            CommandTrace.record(CommandTrace.Span.RATELIMIT, start);
         }
         if (ratelimiterResult.a)
             CommandManager.prefixCalled(context);
@@ -209,7 +230,7 @@ public class EventListenerBoat extends AbstractEventListener {
                 && player.getPlayingTrack() != null
                 && joinedChannel.getMembers().contains(guild.getSelfMember())
                 && player.getHumanUsersInCurrentVC().size() > 0
-                && EntityReader.getGuildConfig(guild.getId()).isAutoResume()
+                && EntityReader.getGuildConfig(guild.getIdLong()).isAutoResume()
                 ) {
             CentralMessaging.sendMessage(player.getActiveTextChannel(), I18n.get(guild).getString("eventAutoResumed"));
             player.setPause(false);
@@ -30,6 +30,7 @@ import fredboat.db.EntityReader;
 import fredboat.db.EntityWriter;
 import fredboat.db.entity.GuildConfig;
 import fredboat.messaging.internal.Context;
+import fredboat.metrics.CommandTrace;
 import net.dv8tion.jda.core.entities.Guild;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -95,14 +96,17 @@ public class I18n {
     public static FredBoatLocale getLocale(Guild guild) {
         GuildConfig config;
 
+        long start = System.nanoTime();
         try {
-            config = EntityReader.getGuildConfig(guild.getId());
+            config = EntityReader.getGuildConfig(guild.getIdLong());
         } catch (DatabaseNotReadyException e) {
             //don't log spam the full exceptions or logs
             return DEFAULT;
         } catch (Exception e) {
             log.error("Error when reading entity", e);
             return DEFAULT;
+        } finally {
+            CommandTrace.record(CommandTrace.Span.LOCALE, start);
         }
 
         return LANGS.getOrDefault(config.getLang(), DEFAULT);
@@ -112,7 +116,7 @@ public class I18n {
         if (!LANGS.containsKey(lang))
             throw new LanguageNotSupportedException("Language not found");
 
-        GuildConfig config = EntityReader.getGuildConfig(guild.getId());
+        GuildConfig config = EntityReader.getGuildConfig(guild.getIdLong());
         config.setLang(lang);
         EntityWriter.mergeGuildConfig(config);
     }
@@ -25,6 +25,9 @@
 
 package fredboat.messaging;
 
+import fredboat.metrics.CommandTrace;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
 import net.dv8tion.jda.core.EmbedBuilder;
 import net.dv8tion.jda.core.JDA;
 import net.dv8tion.jda.core.MessageBuilder;
@@ -44,6 +47,7 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.util.Collection;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Created by napster on 10.09.17.
@@ -52,6 +56,14 @@ import java.util.function.Consumer;
  */
 public class CentralMessaging {
 
+    private static final String SENT_HELP = "Messages, files and edits successfully sent to discord";
+    private static final String FAILED_HELP = "Messages, files and edits that failed to be sent to discord";
+    private static final Counter MESSAGES_SENT = Metrics.counter("fredboat_messages_sent_total", SENT_HELP, "kind", "message");
+    private static final Counter FILES_SENT = Metrics.counter("fredboat_messages_sent_total", SENT_HELP, "kind", "file");
+    private static final Counter EDITS_SENT = Metrics.counter("fredboat_messages_sent_total", SENT_HELP, "kind", "edit");
+    private static final Counter MESSAGES_FAILED = Metrics.counter("fredboat_messages_failed_total", FAILED_HELP, "kind", "message");
+    private static final Counter FILES_FAILED = Metrics.counter("fredboat_messages_failed_total", FAILED_HELP, "kind", "file");
+    private static final Counter EDITS_FAILED = Metrics.counter("fredboat_messages_failed_total", FAILED_HELP, "kind", "edit");
 
     // ********************************************************************************
     //       Thread local handling and providing of Messages and Embeds builders
@@ -392,22 +404,7 @@ public class CentralMessaging {
             throw new IllegalArgumentException("Message is null");
         }
 
-        MessageFuture result = new MessageFuture();
-        Consumer<Message> successWrapper = m -> {
-            result.complete(m);
-            if (onSuccess != null) {
-                onSuccess.accept(m);
-            }
-        };
-        Consumer<Throwable> failureWrapper = t -> {
-            result.completeExceptionally(t);
-            if (onFail != null) {
-                onFail.accept(t);
-            }
-        };
-
-        channel.sendMessage(message).queue(successWrapper, failureWrapper);
-        return result;
+        return queue(() -> channel.sendMessage(message), MESSAGES_SENT, MESSAGES_FAILED, onSuccess, onFail);
     }
 
     //class internal file sending method
@@ -420,22 +417,7 @@ public class CentralMessaging {
             throw new IllegalArgumentException("File is null");
         }
 
-        MessageFuture result = new MessageFuture();
-        Consumer<Message> successWrapper = m -> {
-            result.complete(m);
-            if (onSuccess != null) {
-                onSuccess.accept(m);
-            }
-        };
-        Consumer<Throwable> failureWrapper = t -> {
-            result.completeExceptionally(t);
-            if (onFail != null) {
-                onFail.accept(t);
-            }
-        };
-
-        channel.sendFile(file, message).queue(successWrapper, failureWrapper);
-        return result;
+        return queue(() -> channel.sendFile(file, message), FILES_SENT, FILES_FAILED, onSuccess, onFail);
     }
 
     //class internal editing method
@@ -448,22 +430,56 @@ public class CentralMessaging {
             throw new IllegalArgumentException("New message is null");
         }
 
+        return queue(() -> oldMessage.editMessage(newMessage), EDITS_SENT, EDITS_FAILED, onSuccess, onFail);
+    }
+
+    //class internal queueing method: keeps the trace of the command open until discord acknowledged the action, and
+    // continues it in the callbacks
+    private static MessageFuture queue(@Nonnull Supplier<RestAction<Message>> action, @Nonnull Counter sent,
+                                       @Nonnull Counter failed, @Nullable Consumer<Message> onSuccess,
+                                       @Nullable Consumer<Throwable> onFail) {
         MessageFuture result = new MessageFuture();
+        CommandTrace trace = CommandTrace.current();
+        if (trace != null) {
+            trace.retain();
+        }
         Consumer<Message> successWrapper = m -> {
+            sent.inc();
             result.complete(m);
-            if (onSuccess != null) {
-                onSuccess.accept(m);
-            }
+            continueTrace(trace, onSuccess, m);
         };
         Consumer<Throwable> failureWrapper = t -> {
+            failed.inc();
             result.completeExceptionally(t);
-            if (onFail != null) {
-                onFail.accept(t);
-            }
+            continueTrace(trace, onFail, t);
         };
 
-        oldMessage.editMessage(newMessage).queue(successWrapper, failureWrapper);
+        try {
+            action.get().queue(successWrapper, failureWrapper);
+        } catch (RuntimeException e) {
+            //building the action may throw right away (missing permissions etc), the callbacks will never run then
+            if (trace != null) {
+                trace.release();
+            }
+            throw e;
+        }
         return result;
     }
 
+    //marks the trace as replied, runs the callback bound to it and releases the reference taken in queue()
+    private static <T> void continueTrace(@Nullable CommandTrace trace, @Nullable Consumer<T> callback, T value) {
+        if (trace != null) {
+            trace.replied();
+        }
+        try {
+            if (callback != null) {
+                CommandTrace.runBound(trace, callback, value);
+            }
+        } finally {
+            if (trace != null) {
+                trace.release();
+            }
+        }
+    }
+
 }
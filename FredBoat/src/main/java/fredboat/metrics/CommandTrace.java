@@ -0,0 +1,213 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Records where the time of a single command invocation goes, from receiving the message to the last reply being
+ * acknowledged by discord.
+ * <p>
+ * Only one in {@link #SAMPLE_RATE} commands is traced. The trace of the command being handled is bound to the current
+ * thread, so code deep down the call graph (permission and database lookups, searches) can record its spans without
+ * having the CommandContext at hand; for untraced commands recording costs a thread local lookup. Replies sent while a
+ * trace is bound keep it open until they complete, and their callbacks run with the trace bound again.
+ * <p>
+ * When the trace is done its spans are observed into per command timers, see {@link #getTimers()}.
+ */
+public class CommandTrace {
+
+    public static final int SAMPLE_RATE = 10;
+
+    public enum Span {
+        PARSE,
+        RATELIMIT,
+        PERMISSIONS,
+        LOCALE,
+        DB_READ,
+        SEARCH,
+        EXECUTE,
+        FIRST_REPLY,
+        TOTAL;
+
+        private final String label = name().toLowerCase();
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final ThreadLocal<CommandTrace> CURRENT = new ThreadLocal<>();
+    private static final ConcurrentHashMap<String, Timer[]> TIMERS = new ConcurrentHashMap<>();
+
+    private final long startNanos = System.nanoTime();
+    //guarded by this
+    private final long[] spanNanos = new long[Span.values().length];
+    //the handling thread holds one reference, each reply in flight another one
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile String command = "unknown";
+
+    private CommandTrace() {
+    }
+
+    /**
+     * @return a new trace for a sampled command, null if this command should not be traced
+     */
+    public static CommandTrace startSampled() {
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) {
+            return null;
+        }
+        return new CommandTrace();
+    }
+
+    /**
+     * @return the trace bound to the current thread, may be null
+     */
+    public static CommandTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Adds the time since startNanos to the span of the trace bound to the current thread, if there is one.
+     *
+     * @param startNanos result of {@link System#nanoTime()} at the beginning of the span
+     */
+    public static void record(Span span, long startNanos) {
+        CommandTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.add(span, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Runs the consumer with the given trace bound to the current thread
+     */
+    public static <T> void runBound(CommandTrace trace, Consumer<T> consumer, T value) {
+        if (trace == null) {
+            consumer.accept(value);
+            return;
+        }
+        CommandTrace previous = trace.bind();
+        try {
+            consumer.accept(value);
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Binds this trace to the current thread.
+     *
+     * @return the previously bound trace, to be passed to {@link #restore(CommandTrace)}
+     */
+    public CommandTrace bind() {
+        CommandTrace previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    public static void restore(CommandTrace previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    public synchronized void add(Span span, long nanos) {
+        spanNanos[span.ordinal()] += nanos;
+    }
+
+    /**
+     * Called for each reply sent while this trace is bound
+     */
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Called when a reply completed, successfully or not, before its callbacks run
+     */
+    public synchronized void replied() {
+        if (spanNanos[Span.FIRST_REPLY.ordinal()] == 0) {
+            spanNanos[Span.FIRST_REPLY.ordinal()] = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Called by the handling thread when it is done, and for each reply after its callbacks ran. The last one publishes
+     * the trace.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        Timer[] timers = getTimers(command);
+        long[] spans;
+        synchronized (this) {
+            spanNanos[Span.TOTAL.ordinal()] = System.nanoTime() - startNanos;
+            spans = spanNanos.clone();
+        }
+        for (Span span : Span.values()) {
+            //spans that didn't happen in this command would only drag the histograms towards zero
+            if (spans[span.ordinal()] > 0) {
+                timers[span.ordinal()].observeNanos(spans[span.ordinal()]);
+            }
+        }
+    }
+
+    private static Timer[] getTimers(String command) {
+        Timer[] timers = TIMERS.get(command);
+        if (timers == null) {
+            timers = TIMERS.computeIfAbsent(command, cmd -> {
+                Timer[] result = new Timer[Span.values().length];
+                for (Span span : Span.values()) {
+                    result[span.ordinal()] = Metrics.timer("fredboat_command_trace_seconds",
+                            "Time spent in the parts of sampled commands", "command", cmd, "span", span.getLabel());
+                }
+                return result;
+            });
+        }
+        return timers;
+    }
+
+    /**
+     * @return the timers of all traced commands, each indexed by the ordinal of {@link Span}
+     */
+    public static ConcurrentHashMap<String, Timer[]> getTimers() {
+        return TIMERS;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of all metrics of this FredBoat instance. Metrics are meant to be created once and kept in static fields by
+ * the classes recording them; recording values is then just an increment of a striped adder.
+ * <p>
+ * Labels are passed as alternating names and values: <code>Metrics.counter("name", "help", "provider", "youtube")</code>
+ */
+public class Metrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final List<Metric> METRICS = new CopyOnWriteArrayList<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return register(new Counter(name, help, renderLabels(labels)));
+    }
+
+    public static Gauge gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        return register(new Gauge(name, help, renderLabels(labels), supplier));
+    }
+
+    public static Histogram histogram(String name, String help, double[] upperBounds, String... labels) {
+        return register(new Histogram(name, help, renderLabels(labels), upperBounds));
+    }
+
+    public static Timer timer(String name, String help, String... labels) {
+        return register(new Timer(name, help, renderLabels(labels)));
+    }
+
+    public static MetricFamily<Counter> counterFamily(String name, String help, String labelName) {
+        return new MetricFamily<>(value -> counter(name, help, labelName, value));
+    }
+
+    public static MetricFamily<Timer> timerFamily(String name, String help, String labelName) {
+        return new MetricFamily<>(value -> timer(name, help, labelName, value));
+    }
+
+    /**
+     * @return all registered metrics in the Prometheus text exposition format
+     */
+    public static String scrape() {
+        //group the time series by name, the format wants them together below a single HELP and TYPE line
+        Map<String, List<Metric>> byName = new LinkedHashMap<>();
+        for (Metric metric : METRICS) {
+            byName.computeIfAbsent(metric.getName(), __ -> new ArrayList<>()).add(metric);
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, List<Metric>> entry : byName.entrySet()) {
+            Metric first = entry.getValue().get(0);
+            out.append("# HELP ").append(entry.getKey()).append(' ')
+                    .append(first.getHelp().replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(entry.getKey()).append(' ').append(first.getType()).append('\n');
+            for (Metric metric : entry.getValue()) {
+                metric.writeSamples(out);
+            }
+        }
+        return out.toString();
+    }
+
+    private static synchronized <M extends Metric> M register(M metric) {
+        for (Metric registered : METRICS) {
+            if (registered.getName().equals(metric.getName()) && registered.getLabels().equals(metric.getLabels())) {
+                throw new IllegalStateException("Metric " + metric.getName() + "{" + metric.getLabels()
+                        + "} is already registered");
+            }
+            if (registered.getName().equals(metric.getName()) && !registered.getType().equals(metric.getType())) {
+                throw new IllegalStateException("Metric " + metric.getName() + " is already registered as a "
+                        + registered.getType());
+            }
+        }
+        METRICS.add(metric);
+        return metric;
+    }
+
+    private static String renderLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.perms;
+
+import fredboat.db.entity.GuildPermissions;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.dv8tion.jda.core.entities.Member;
+import net.dv8tion.jda.core.entities.Role;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The permission lists of a guild, parsed into sets of user and role ids.
+ * <p>
+ * {@link GuildPermissions} stores each list as a space separated string, going through it means splitting the string
+ * and looking up every role in the guild. This does that once, after which resolving the level of a member takes a
+ * few set lookups per level. Instances are immutable, changes to the permissions of a guild compile a new instance.
+ */
+public class CompiledPermissions {
+
+    //highest first, the first one a member is found in is their level
+    private static final PermissionLevel[] LEVELS = {PermissionLevel.ADMIN, PermissionLevel.DJ, PermissionLevel.USER};
+
+    private final LongOpenHashSet[] ids = new LongOpenHashSet[LEVELS.length];
+    //whether the @everyone role, which shares its id with the guild, is part of the list
+    private final boolean[] everyone = new boolean[LEVELS.length];
+
+    CompiledPermissions(long guildId, List<String> adminList, List<String> djList, List<String> userList) {
+        compileLevel(0, guildId, adminList);
+        compileLevel(1, guildId, djList);
+        compileLevel(2, guildId, userList);
+    }
+
+    public static CompiledPermissions compile(GuildPermissions gp) {
+        return new CompiledPermissions(Long.parseLong(gp.getEntityId()),
+                gp.getAdminList(), gp.getDjList(), gp.getUserList());
+    }
+
+    private void compileLevel(int index, long guildId, List<String> list) {
+        LongOpenHashSet set = parseIds(list);
+        everyone[index] = set.remove(guildId);
+        ids[index] = set;
+    }
+
+    /**
+     * @return the ids in the collection, ignoring blank entries and anything that is not an id
+     */
+    static LongOpenHashSet parseIds(Collection<String> list) {
+        LongOpenHashSet set = new LongOpenHashSet(list.size());
+        for (String id : list) {
+            if (id.isEmpty()) continue;
+            try {
+                set.add(Long.parseLong(id));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        set.trim();
+        return set;
+    }
+
+    /**
+     * @return the highest of ADMIN, DJ and USER whose list contains the member, any of their roles or @everyone,
+     * or BASE if there is none
+     */
+    public PermissionLevel getLevel(Member member) {
+        long userId = member.getUser().getIdLong();
+        List<Role> roles = member.getRoles();
+        for (int i = 0; i < LEVELS.length; i++) {
+            LongOpenHashSet set = ids[i];
+            if (everyone[i] || set.contains(userId)) return LEVELS[i];
+            for (int j = 0; j < roles.size(); j++) {
+                if (set.contains(roles.get(j).getIdLong())) return LEVELS[i];
+            }
+        }
+        return PermissionLevel.BASE;
+    }
+
+    /**
+     * Same as {@link #getLevel(Member)}, for a user holding the given roles
+     */
+    PermissionLevel getLevel(long userId, long[] roleIds) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            LongOpenHashSet set = ids[i];
+            if (everyone[i] || set.contains(userId)) return LEVELS[i];
+            for (long roleId : roleIds) {
+                if (set.contains(roleId)) return LEVELS[i];
+            }
+        }
+        return PermissionLevel.BASE;
+    }
+}
@@ -30,8 +30,12 @@ import fredboat.commandmeta.abs.CommandContext;
 import fredboat.db.EntityReader;
 import fredboat.db.entity.GuildPermissions;
 import fredboat.feature.togglz.FeatureFlags;
+import fredboat.metrics.CommandTrace;
 import fredboat.util.DiscordUtil;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.dv8tion.jda.core.Permission;
+import net.dv8tion.jda.core.entities.Guild;
 import net.dv8tion.jda.core.entities.Member;
 import net.dv8tion.jda.core.entities.Role;
 import net.dv8tion.jda.core.entities.User;
@@ -42,7 +46,23 @@ import java.util.List;
 
 public class PermsUtil {
 
+    private static final int MAX_COMPILED_GUILDS = 50000;
+
+    //guarded by itself, least recently used first
+    private static final Long2ObjectLinkedOpenHashMap<CompiledPermissions> COMPILED = new Long2ObjectLinkedOpenHashMap<>();
+
+    private static volatile LongOpenHashSet botAdminIds = null;
+
     public static PermissionLevel getPerms(Member member) {
+        long start = System.nanoTime();
+        try {
+            return resolvePerms(member);
+        } finally {
+            CommandTrace.record(CommandTrace.Span.PERMISSIONS, start);
+        }
+    }
+
+    private static PermissionLevel resolvePerms(Member member) {
         if (isUserBotOwner(member.getUser())) {
             return PermissionLevel.BOT_OWNER; // https://fred.moe/Q-EB.png
         } else if (isAdmin(member)) {
@@ -55,13 +75,59 @@ public class PermsUtil {
             return PermissionUtil.checkPermission(member, Permission.MESSAGE_MANAGE) ? PermissionLevel.DJ : PermissionLevel.USER;
         }
 
-        GuildPermissions gp = EntityReader.getGuildPermissions(member.getGuild());
+        return getCompiledPermissions(member.getGuild()).getLevel(member);
+    }
 
-        if (checkList(gp.getAdminList(), member)) return PermissionLevel.ADMIN;
-        if (checkList(gp.getDjList(), member)) return PermissionLevel.DJ;
-        if (checkList(gp.getUserList(), member)) return PermissionLevel.USER;
+    private static CompiledPermissions getCompiledPermissions(Guild guild) {
+        long guildId = guild.getIdLong();
+        synchronized (COMPILED) {
+            CompiledPermissions compiled = COMPILED.getAndMoveToLast(guildId);
+            if (compiled != null) return compiled;
+        }
 
-        return PermissionLevel.BASE;
+        CompiledPermissions compiled = CompiledPermissions.compile(EntityReader.getGuildPermissions(guild));
+        synchronized (COMPILED) {
+            //don't replace permissions that were changed while we were loading these
+            CompiledPermissions existing = COMPILED.putIfAbsent(guildId, compiled);
+            if (existing != null) return existing;
+            trimCompiled();
+        }
+        return compiled;
+    }
+
+    /**
+     * Replaces the compiled permissions of a guild. Must be called whenever its permissions are written.
+     */
+    public static void onPermissionsChanged(GuildPermissions gp) {
+        CompiledPermissions compiled = CompiledPermissions.compile(gp);
+        synchronized (COMPILED) {
+            COMPILED.putAndMoveToLast(Long.parseLong(gp.getEntityId()), compiled);
+            trimCompiled();
+        }
+    }
+
+    /**
+     * Compiles permissions loaded ahead of time, unless the guild already has compiled ones
+     */
+    public static void preload(GuildPermissions gp) {
+        long guildId = Long.parseLong(gp.getEntityId());
+        synchronized (COMPILED) {
+            if (COMPILED.containsKey(guildId)) return;
+        }
+
+        CompiledPermissions compiled = CompiledPermissions.compile(gp);
+        synchronized (COMPILED) {
+            if (COMPILED.putIfAbsent(guildId, compiled) == null) {
+                trimCompiled();
+            }
+        }
+    }
+
+    //must hold the monitor of COMPILED
+    private static void trimCompiled() {
+        while (COMPILED.size() > MAX_COMPILED_GUILDS) {
+            COMPILED.removeFirst();
+        }
     }
 
     public static boolean checkPerms(PermissionLevel minLevel, Member member) {
@@ -88,16 +154,17 @@ public class PermsUtil {
      * returns true if the member is or holds a role defined as admin in the configuration file
      */
     private static boolean isAdmin(Member member) {
-        boolean admin = false;
-        for (String id : Config.CONFIG.getAdminIds()) {
-            Role r = member.getGuild().getRoleById(id);
-            if (member.getUser().getId().equals(id)
-                    || (r != null && member.getRoles().contains(r))) {
-                admin = true;
-                break;
-            }
+        LongOpenHashSet adminIds = botAdminIds;
+        if (adminIds == null) {
+            adminIds = CompiledPermissions.parseIds(Config.CONFIG.getAdminIds());
+            botAdminIds = adminIds;
         }
-        return admin;
+
+        if (adminIds.contains(member.getUser().getIdLong())) return true;
+        for (Role role : member.getRoles()) {
+            if (adminIds.contains(role.getIdLong())) return true;
+        }
+        return false;
     }
 
     // TODO: Make private and use getPerms() instead
@@ -132,8 +132,7 @@ public class Blacklist {
 
                 blacklistingLength = getBlacklistTimeLength(blEntry.level);
             }
-            //persist it
-            //if this turns up to be a performance bottleneck, have an agent run that persists the blacklist occasionally
+            //persist it, this is queued and doesn't block on the database
             EntityWriter.mergeBlacklistEntry(blEntry);
             return blacklistingLength;
         }
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Remembers searches that found nothing for a while, so they aren't repeated right away. Bounded in size, the entries
+ * remembered the longest ago are forgotten first.
+ */
+class NoMatchCache {
+
+    private final long maxAgeMillis;
+    private final int maxSize;
+    private final LongSupplier clock;
+    //guarded by itself, search key -> when to forget about it
+    private final Object2LongLinkedOpenHashMap<String> noMatches = new Object2LongLinkedOpenHashMap<>();
+
+    NoMatchCache(long maxAgeMillis, int maxSize, LongSupplier clock) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxSize = maxSize;
+        this.clock = clock;
+    }
+
+    boolean contains(String key) {
+        synchronized (noMatches) {
+            long forgetAt = noMatches.getLong(key);
+            if (forgetAt == 0) return false;
+            if (clock.getAsLong() < forgetAt) return true;
+            noMatches.removeLong(key);
+            return false;
+        }
+    }
+
+    void add(String key) {
+        synchronized (noMatches) {
+            noMatches.putAndMoveToLast(key, clock.getAsLong() + maxAgeMillis);
+            while (noMatches.size() > maxSize) {
+                noMatches.removeFirstLong();
+            }
+        }
+    }
+
+    int size() {
+        synchronized (noMatches) {
+            return noMatches.size();
+        }
+    }
+}
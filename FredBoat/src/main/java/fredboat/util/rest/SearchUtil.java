@@ -30,6 +30,7 @@ import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
 import com.sedmelluq.discord.lavaplayer.source.soundcloud.SoundCloudAudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
@@ -39,6 +40,11 @@ import fredboat.FredBoat;
 import fredboat.db.DatabaseNotReadyException;
 import fredboat.db.entity.SearchResult;
 import fredboat.feature.togglz.FeatureFlags;
+import fredboat.metrics.CommandTrace;
+import fredboat.metrics.Counter;
+import fredboat.metrics.MetricFamily;
+import fredboat.metrics.Metrics;
+import fredboat.metrics.Timer;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
 import org.slf4j.Logger;
@@ -47,7 +53,21 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
 
 public class SearchUtil {
 
@@ -55,15 +75,48 @@ public class SearchUtil {
     public static final int MAX_RESULTS = 5;
     public static final long DEFAULT_CACHE_MAX_AGE = TimeUnit.HOURS.toMillis(24); //24 hours
     public static final String PUNCTUATION_REGEX = "[.,/#!$%^&*;:{}=\\-_`~()\"\']";
+    private static final Pattern PUNCTUATION = Pattern.compile(PUNCTUATION_REGEX);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    //searches that found nothing are not repeated for a while
+    private static final NoMatchCache NO_MATCHES = new NoMatchCache(TimeUnit.MINUTES.toMillis(5), 10000,
+            System::currentTimeMillis);
+
+    //searches that are currently running, callers searching for the same thing wait for them instead
+    private static final ConcurrentHashMap<String, SharedSearch> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    //runs the blocking parts of searches: cache lookups and youtube api requests
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory("search"));
+    private static final ScheduledExecutorService TIMEOUTS =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("search-timeout"));
 
     private static final Logger log = LoggerFactory.getLogger(SearchUtil.class);
 
+    private static final Timer SEARCH_DURATION = Metrics.timer("fredboat_search_duration_seconds",
+            "Time taken to answer a search, across all providers");
+    private static final String SEARCH_RESULTS_HELP = "Searches answered, by where the result came from";
+    private static final Counter SEARCH_FROM_CACHE = Metrics.counter("fredboat_search_results_total", SEARCH_RESULTS_HELP, "source", "cache");
+    private static final Counter SEARCH_FROM_LAVAPLAYER = Metrics.counter("fredboat_search_results_total", SEARCH_RESULTS_HELP, "source", "lavaplayer");
+    private static final Counter SEARCH_FROM_YOUTUBE_API = Metrics.counter("fredboat_search_results_total", SEARCH_RESULTS_HELP, "source", "youtube_api");
+    private static final Counter SEARCH_EMPTY = Metrics.counter("fredboat_search_results_total", SEARCH_RESULTS_HELP, "source", "none");
+    private static final Counter SEARCH_FAILED = Metrics.counter("fredboat_search_results_total", SEARCH_RESULTS_HELP, "source", "failed");
+    private static final Counter SEARCH_FROM_NO_MATCH_CACHE = Metrics.counter("fredboat_search_results_total", SEARCH_RESULTS_HELP, "source", "no_match_cache");
+    private static final Counter SEARCH_COALESCED = Metrics.counter("fredboat_search_results_total", SEARCH_RESULTS_HELP, "source", "coalesced");
+    private static final MetricFamily<Counter> HEDGED_WINS = Metrics.counterFamily("fredboat_search_hedged_wins_total",
+            "Hedged searches, by the provider that answered first", "provider");
+    private static final MetricFamily<Timer> HEDGED_DURATION = Metrics.timerFamily("fredboat_search_hedged_duration_seconds",
+            "Time taken by hedged searches, by the provider that answered first", "provider");
+    private static final MetricFamily<Counter> HEDGES = Metrics.counterFamily("fredboat_search_hedges_total",
+            "Providers that hedged searches asked before the previous one gave up, by why they were asked", "reason");
+
     private static final AudioPlayerManager PLAYER_MANAGER = initPlayerManager();
+    //starts the lavaplayer searches, replaced by tests
+    static volatile BiFunction<String, AudioLoadResultHandler, Future<Void>> lavaplayerLoader = PLAYER_MANAGER::loadItem;
     private static final int DEFAULT_TIMEOUT = 3000;
 
     //give youtube a break if we get flagged and keep getting 503s
     private static final long DEFAULT_YOUTUBE_COOLDOWN = TimeUnit.MINUTES.toMillis(10); // 10 minutes
-    private static long youtubeCooldownUntil;
+    private static volatile long youtubeCooldownUntil;
 
     private static AudioPlayerManager initPlayerManager() {
         DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
@@ -76,22 +129,56 @@ public class SearchUtil {
         return manager;
     }
 
-    public static AudioPlaylist searchForTracks(String query, List<SearchProvider> providers) throws SearchingException {
-        return searchForTracks(query, DEFAULT_CACHE_MAX_AGE, DEFAULT_TIMEOUT, providers);
+    public static CompletableFuture<AudioPlaylist> searchForTracks(String query, List<SearchProvider> providers) {
+        return searchForTracks(query, providers, SearchStrategy.SEQUENTIAL);
+    }
+
+    public static CompletableFuture<AudioPlaylist> searchForTracks(String query, List<SearchProvider> providers,
+                                                                   SearchStrategy strategy) {
+        return searchForTracks(query, DEFAULT_CACHE_MAX_AGE, DEFAULT_TIMEOUT, providers, strategy);
+    }
+
+    public static CompletableFuture<AudioPlaylist> searchForTracks(String query, long cacheMaxAge, int timeoutMillis,
+                                                                   List<SearchProvider> providers) {
+        return searchForTracks(query, cacheMaxAge, timeoutMillis, providers, SearchStrategy.SEQUENTIAL);
     }
 
     /**
+     * Searches without blocking the calling thread. Cancelling the returned future stops waiting for the search, the
+     * search itself is only cancelled once nobody is waiting for it anymore.
+     *
      * @param query         The search term
      * @param cacheMaxAge   Age of acceptable results from cache. See {@link fredboat.db.entity.SearchResult#load} for details.
      * @param timeoutMillis How long to wait for each lavaplayer search to answer
      * @param providers     Providers that shall be used for the search. They will be used in the order they are provided, the
      *                      result of the first successful one will be returned
-     * @return The result of the search, or an empty list.
-     * @throws SearchingException If none of the search providers could give us a result, and there was at least one SearchingException thrown by them
+     * @param strategy      Whether to wait for each provider before asking the next one
+     * @return The result of the search, or an empty list. Completes with a SearchingException if none of the search
+     * providers could give us a result, and there was at least one SearchingException thrown by them. Unless answered
+     * from cache right away, it completes on a thread of the search pool, so callers may continue on it.
      */
-    public static AudioPlaylist searchForTracks(String query, long cacheMaxAge, int timeoutMillis, List<SearchProvider> providers)
-            throws SearchingException {
+    public static CompletableFuture<AudioPlaylist> searchForTracks(String query, long cacheMaxAge, int timeoutMillis,
+                                                                   List<SearchProvider> providers, SearchStrategy strategy) {
+        long start = System.nanoTime();
+        CommandTrace trace = CommandTrace.current();
+        if (trace != null) {
+            trace.retain();
+        }
+
+        CompletableFuture<AudioPlaylist> result = searchForTracks0(query, cacheMaxAge, timeoutMillis, providers, strategy);
+        result.whenComplete((list, t) -> {
+            SEARCH_DURATION.observeSince(start);
+            if (trace != null) {
+                trace.add(CommandTrace.Span.SEARCH, System.nanoTime() - start);
+                trace.release();
+            }
+        });
+        return result;
+    }
 
+    private static CompletableFuture<AudioPlaylist> searchForTracks0(String query, long cacheMaxAge, int timeoutMillis,
+                                                                     List<SearchProvider> providers,
+                                                                     SearchStrategy strategy) {
         List<SearchProvider> provs = new ArrayList<>();
         if (providers == null || providers.isEmpty()) {
             log.warn("No search provider provided, defaulting to youtube -> soundcloud.");
@@ -101,58 +188,227 @@ public class SearchUtil {
             provs.addAll(providers);
         }
 
-        SearchingException searchingException = null;
+        String term = normalizeQuery(query);
+        String key = provs + ":" + term;
+
+        if (NO_MATCHES.contains(key)) {
+            log.debug("Search {} is known to have no matches", key);
+            SEARCH_FROM_NO_MATCH_CACHE.inc();
+            return CompletableFuture.completedFuture(emptyResult(query));
+        }
+
+        SharedSearch search = new SharedSearch(query, term, key, cacheMaxAge, timeoutMillis, provs);
+        SharedSearch inFlight = IN_FLIGHT.putIfAbsent(key, search);
+        if (inFlight != null) {
+            log.debug("Waiting for running search {}", key);
+            SEARCH_COALESCED.inc();
+            return inFlight.join(true);
+        }
+
+        CompletableFuture<AudioPlaylist> result = search.join(false);
+        CompletableFuture<AudioPlaylist> running = strategy == SearchStrategy.HEDGED
+                ? new HedgedSearch(search).start() : searchFrom(search, 0);
+        running.whenComplete((found, t) -> {
+            IN_FLIGHT.remove(key, search);
+            if (t != null) {
+                search.result.completeExceptionally(unwrap(t));
+            } else if (found != null) {
+                search.result.complete(found);
+            } else if (search.failure != null) {
+                //did we run into searching exceptions that made us end up here?
+                SEARCH_FAILED.inc();
+                search.result.completeExceptionally(search.failure);
+            } else {
+                //no result with any of the search providers
+                SEARCH_EMPTY.inc();
+                //only if each of them actually said so, and didn't just get skipped, time out or get cancelled
+                if (!search.stopped && search.answeredEmpty.containsAll(search.providers)) {
+                    NO_MATCHES.add(key);
+                }
+                search.result.complete(emptyResult(query));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Tries the providers of the search in order, starting at the given one
+     *
+     * @return the first result that was found, or null if there was none
+     */
+    private static CompletableFuture<AudioPlaylist> searchFrom(SharedSearch search, int index) {
+        if (index >= search.providers.size() || search.stopped) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return searchProvider(search, search.providers.get(index))
+                .thenCompose(found -> found != null ? CompletableFuture.completedFuture(found)
+                        : searchFrom(search, index + 1));
+    }
+
+    /**
+     * Asks a single provider: cache, lavaplayer, then optionally the youtube api
+     *
+     * @return the result that was found, or null if there was none
+     */
+    private static CompletableFuture<AudioPlaylist> searchProvider(SharedSearch search, SearchProvider provider) {
+        return fromCacheAsync(search, provider)
+                .thenCompose(found -> found != null ? CompletableFuture.completedFuture(found)
+                        : fromLavaplayer(search, provider))
+                .thenCompose(found -> found != null ? CompletableFuture.completedFuture(found)
+                        : fromYoutubeApi(search, provider));
+    }
 
-        for (SearchProvider provider : provs) {
-            //1. cache
-            AudioPlaylist cacheResult = fromCache(provider, query, cacheMaxAge);
+    //1. cache
+    private static CompletableFuture<AudioPlaylist> fromCacheAsync(SharedSearch search, SearchProvider provider) {
+        return CompletableFuture.supplyAsync(() -> {
+            AudioPlaylist cacheResult = fromCache(provider, search.term, search.cacheMaxAge);
             if (cacheResult != null && !cacheResult.getTracks().isEmpty()) {
-                log.debug("Loaded search result {} {} from cache", provider, query);
+                log.debug("Loaded search result {} {} from cache", provider, search.query);
+                SEARCH_FROM_CACHE.inc();
                 return cacheResult;
             }
+            return null;
+        }, SEARCH_EXECUTOR);
+    }
 
-            //2. lavaplayer todo break up this beautiful construction of ifs and exception handling in a better readable one?
-            if (provider != SearchProvider.YOUTUBE || System.currentTimeMillis() > youtubeCooldownUntil) {
-                try {
-                    AudioPlaylist lavaplayerResult = new SearchResultHandler().searchSync(provider, query, timeoutMillis);
-                    if (!lavaplayerResult.getTracks().isEmpty()) {
-                        log.debug("Loaded search result {} {} from lavaplayer", provider, query);
-                        // got a search result? cache and return it
-                        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, query, lavaplayerResult).save());
-                        return lavaplayerResult;
-                    }
-                } catch (Http503Exception e) {
-                    if (provider == SearchProvider.YOUTUBE) {
-                        youtubeCooldownUntil = System.currentTimeMillis() + DEFAULT_YOUTUBE_COOLDOWN;
-                    }
-                    searchingException = e;
-                } catch (SearchingException e) {
-                    searchingException = e;
+    //2. lavaplayer
+    private static CompletableFuture<AudioPlaylist> fromLavaplayer(SharedSearch search, SearchProvider provider) {
+        if (search.stopped || (provider == SearchProvider.YOUTUBE && isYoutubeCoolingDown())) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return searchLavaplayer(search, provider).handle((lavaplayerResult, t) -> {
+            if (t != null) {
+                Throwable cause = unwrap(t);
+                if (cause instanceof Http503Exception && provider == SearchProvider.YOUTUBE) {
+                    youtubeCooldownUntil = System.currentTimeMillis() + DEFAULT_YOUTUBE_COOLDOWN;
+                }
+                if (cause instanceof SearchingException) {
+                    search.failure = (SearchingException) cause;
+                    return null;
                 }
+                if (cause instanceof CancellationException) {
+                    //another provider answered first or nobody is waiting for this search anymore
+                    return null;
+                }
+                throw new CompletionException(cause);
+            }
+            if (lavaplayerResult.getTracks().isEmpty()) {
+                search.answeredEmpty.add(provider);
+                return null;
             }
 
-            //3. optional: youtube api
-            if (provider == SearchProvider.YOUTUBE &&
-                    (Config.CONFIG.isPatronDistribution() || Config.CONFIG.isDevDistribution())) {
-                try {
-                    AudioPlaylist youtubeApiResult = YoutubeAPI.search(query, MAX_RESULTS, PLAYER_MANAGER.source(YoutubeAudioSourceManager.class));
-                    if (!youtubeApiResult.getTracks().isEmpty()) {
-                        log.debug("Loaded search result {} {} from Youtube API", provider, query);
-                        // got a search result? cache and return it
-                        FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, query, youtubeApiResult).save());
-                        return youtubeApiResult;
-                    }
-                } catch (SearchingException e) {
-                    searchingException = e;
+            log.debug("Loaded search result {} {} from lavaplayer", provider, search.query);
+            SEARCH_FROM_LAVAPLAYER.inc();
+            // got a search result? cache and return it
+            FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, search.term, lavaplayerResult).save());
+            return lavaplayerResult;
+        });
+    }
+
+    //3. optional: youtube api
+    private static CompletableFuture<AudioPlaylist> fromYoutubeApi(SharedSearch search, SearchProvider provider) {
+        if (search.stopped || provider != SearchProvider.YOUTUBE
+                || !(Config.CONFIG.isPatronDistribution() || Config.CONFIG.isDevDistribution())) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                AudioPlaylist youtubeApiResult = YoutubeAPI.search(search.query, MAX_RESULTS, PLAYER_MANAGER.source(YoutubeAudioSourceManager.class));
+                if (youtubeApiResult.getTracks().isEmpty()) {
+                    search.answeredEmpty.add(provider);
+                    return null;
                 }
+                log.debug("Loaded search result {} {} from Youtube API", provider, search.query);
+                SEARCH_FROM_YOUTUBE_API.inc();
+                // got a search result? cache and return it
+                FredBoat.executor.execute(() -> new SearchResult(PLAYER_MANAGER, provider, search.term, youtubeApiResult).save());
+                return youtubeApiResult;
+            } catch (SearchingException e) {
+                search.failure = e;
+                return null;
+            }
+        }, SEARCH_EXECUTOR);
+    }
+
+    /**
+     * @return completes with the result of the lavaplayer search (which may be empty but not null), or a
+     * SearchingException if it failed or did not answer in time
+     */
+    private static CompletableFuture<AudioPlaylist> searchLavaplayer(SharedSearch search, SearchProvider provider) {
+        if (FeatureFlags.FORCE_SOUNDCLOUD_SEARCH.isActive()) {
+            provider = SearchProvider.SOUNDCLOUD;
+        }
+
+        log.debug("Searching {} for {}", provider, search.query);
+
+        CompletableFuture<AudioPlaylist> result = new CompletableFuture<>();
+        Future<Void> load = lavaplayerLoader.apply(provider.getPrefix() + search.query,
+                new SearchResultHandler(provider, search.query, result));
+
+        SearchProvider finalProvider = provider;
+        ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> {
+            if (result.completeExceptionally(new SearchingException(String.format(
+                    "Provider %s did not answer the search for query %s in time", finalProvider, search.query)))) {
+                load.cancel(true);
+            }
+        }, search.timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((list, t) -> {
+            timeout.cancel(false);
+            search.upstream.remove(result);
+            if (result.isCancelled()) {
+                load.cancel(true);
             }
+        });
+        search.upstream.add(result);
+        //the search may have been stopped while we started this one
+        if (search.stopped) {
+            result.cancel(false);
         }
 
-        //did we run into searching exceptions that made us end up here?
-        if (searchingException != null) {
-            throw searchingException;
+        return result;
+    }
+
+    /**
+     * Queries that differ only in case, whitespace and punctuation give the same results, so they share cache entries
+     */
+    static String normalizeQuery(String query) {
+        String normalized = PUNCTUATION.matcher(query.toLowerCase(Locale.ROOT)).replaceAll("");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        //nothing but punctuation, better not to lump all of those together
+        return normalized.isEmpty() ? query.trim() : normalized;
+    }
+
+    /**
+     * Track instances can only be played once, so anyone sharing a search result needs their own copies of the tracks
+     */
+    public static AudioPlaylist copyOf(AudioPlaylist searchResult) {
+        List<AudioTrack> tracks = new ArrayList<>(searchResult.getTracks().size());
+        AudioTrack selectedTrack = null;
+        for (AudioTrack track : searchResult.getTracks()) {
+            AudioTrack clone = track.makeClone();
+            if (track == searchResult.getSelectedTrack()) {
+                selectedTrack = clone;
+            }
+            tracks.add(clone);
+        }
+        if (selectedTrack == null && searchResult.getSelectedTrack() != null) {
+            selectedTrack = searchResult.getSelectedTrack().makeClone();
         }
-        //no result with any of the search providers
+        return new BasicAudioPlaylist(searchResult.getName(), tracks, selectedTrack, searchResult.isSearchResult());
+    }
+
+    private static boolean isYoutubeCoolingDown() {
+        return System.currentTimeMillis() <= youtubeCooldownUntil;
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    private static AudioPlaylist emptyResult(String query) {
         return new BasicAudioPlaylist("Search result for: " + query, Collections.emptyList(), null, true);
     }
 
@@ -180,6 +436,19 @@ public class SearchUtil {
         }
     }
 
+    public enum SearchStrategy {
+        /**
+         * Ask the providers one after another, each one only after the previous one came up empty. Easiest on the
+         * providers, but a provider that does not answer costs the full timeout before the next one is asked.
+         */
+        SEQUENTIAL,
+        /**
+         * Also ask the next provider if the previous one did not answer within the configured hedge delay, or right
+         * away if the previous one is youtube and it is cooling down. The first result wins, the others are cancelled.
+         */
+        HEDGED
+    }
+
     public static class SearchingException extends Exception {
         private static final long serialVersionUID = -1020150337258395420L;
 
@@ -205,82 +474,231 @@ public class SearchUtil {
         }
     }
 
-    static class SearchResultHandler implements AudioLoadResultHandler {
-
-        Exception exception;
-        AudioPlaylist result;
-        final Object toBeNotified = new Object();
+    /**
+     * A search, shared by everyone who searched for the same thing while it was running
+     */
+    private static class SharedSearch {
+        final String query;
+        final String term;
+        final String key;
+        final long cacheMaxAge;
+        final int timeoutMillis;
+        final List<SearchProvider> providers;
+
+        final CompletableFuture<AudioPlaylist> result = new CompletableFuture<>();
+        final AtomicInteger waiting = new AtomicInteger();
+        //the last SearchingException any of the providers ran into
+        volatile SearchingException failure;
+        //set once nothing more needs to be looked up, because nobody is waiting anymore or a provider answered
+        volatile boolean stopped = false;
+        //providers that answered that they have no matches
+        final Set<SearchProvider> answeredEmpty = ConcurrentHashMap.newKeySet();
+        //the running lavaplayer searches, cancelling them cancels the underlying loads
+        final Set<CompletableFuture<?>> upstream = ConcurrentHashMap.newKeySet();
+
+        SharedSearch(String query, String term, String key, long cacheMaxAge, int timeoutMillis,
+                     List<SearchProvider> providers) {
+            this.query = query;
+            this.term = term;
+            this.key = key;
+            this.cacheMaxAge = cacheMaxAge;
+            this.timeoutMillis = timeoutMillis;
+            this.providers = providers;
+        }
 
         /**
-         * @return The result of the search (which may be empty but not null).
+         * @param copy whether the caller needs their own copies of the tracks
+         * @return a future for one caller of this search
          */
-        AudioPlaylist searchSync(SearchProvider provider, String query, int timeoutMillis) throws SearchingException {
-            if (FeatureFlags.FORCE_SOUNDCLOUD_SEARCH.isActive()) {
-                provider = SearchProvider.SOUNDCLOUD;
+        CompletableFuture<AudioPlaylist> join(boolean copy) {
+            waiting.incrementAndGet();
+            CompletableFuture<AudioPlaylist> callerResult = new CompletableFuture<>();
+            //the search completes on lavaplayer or timeout threads, which must not run whatever the callers do next
+            result.whenCompleteAsync((list, t) -> {
+                if (t != null) {
+                    callerResult.completeExceptionally(unwrap(t));
+                    return;
+                }
+                try {
+                    callerResult.complete(copy ? copyOf(list) : list);
+                } catch (Exception e) {
+                    callerResult.completeExceptionally(e);
+                }
+            }, SEARCH_EXECUTOR);
+            callerResult.whenComplete((list, t) -> {
+                if (callerResult.isCancelled() && waiting.decrementAndGet() == 0) {
+                    cancel();
+                }
+            });
+            return callerResult;
+        }
+
+        private void cancel() {
+            log.debug("Cancelling search {}, nobody is waiting for it anymore", key);
+            IN_FLIGHT.remove(key, this);
+            stop();
+            result.cancel(false);
+        }
+
+        void stop() {
+            stopped = true;
+            for (CompletableFuture<?> running : upstream) {
+                running.cancel(false);
             }
+        }
+    }
 
-            log.debug("Searching {} for {}", provider, query);
+    /**
+     * Asks the providers of a search in order, but does not wait for each one to give up before asking the next one.
+     * <p>
+     * A provider is started when the previous one came up empty, when the previous one did not answer within the hedge
+     * delay, or right away if the previous one is youtube while it is cooling down. Each of these triggers starts the
+     * provider at most once.
+     */
+    private static class HedgedSearch {
+        private final SharedSearch search;
+        private final long delayMillis = Config.CONFIG.getSearchHedgeDelayMillis();
+        private final long start = System.nanoTime();
+        private final CompletableFuture<AudioPlaylist> result = new CompletableFuture<>();
+        //index of the next provider to start
+        private final AtomicInteger next = new AtomicInteger();
+        //providers that were started and did not finish yet
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Set<ScheduledFuture<?>> hedges = ConcurrentHashMap.newKeySet();
+        //anything that went wrong other than the providers failing to find something
+        private volatile Throwable unexpected;
+
+        HedgedSearch(SharedSearch search) {
+            this.search = search;
+        }
 
-            try {
-                synchronized (toBeNotified) {
-                    PLAYER_MANAGER.loadItem(provider.getPrefix() + query, this);
-                    toBeNotified.wait(timeoutMillis);
+        /**
+         * @return completes with the first result that was found, or null if there was none
+         */
+        CompletableFuture<AudioPlaylist> start() {
+            tryStart(0, null);
+            return result;
+        }
+
+        /**
+         * @param reason why the provider is started ahead of time, null if the previous one finished
+         */
+        private void tryStart(int index, String reason) {
+            if (index >= search.providers.size() || result.isDone()) {
+                return;
+            }
+            //count it before claiming it, so nobody sees all providers claimed but none of them pending
+            pending.incrementAndGet();
+            if (!next.compareAndSet(index, index + 1)) {
+                pending.decrementAndGet();
+                return;
+            }
+            if (reason != null) {
+                HEDGES.get(reason).inc();
+            }
+
+            SearchProvider provider = search.providers.get(index);
+            if (index + 1 < search.providers.size()) {
+                if (provider == SearchProvider.YOUTUBE && isYoutubeCoolingDown()) {
+                    tryStart(index + 1, "cooldown");
+                } else {
+                    ScheduledFuture<?> hedge = TIMEOUTS.schedule(() -> tryStart(index + 1, "delay"),
+                            delayMillis, TimeUnit.MILLISECONDS);
+                    hedges.add(hedge);
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
             }
 
-            if (exception != null) {
-                if (exception instanceof FriendlyException && exception.getCause() != null) {
-                    String messageOfCause = exception.getCause().getMessage();
-                    if (messageOfCause.contains("java.io.IOException: Invalid status code for search response: 503")) {
-                        throw new Http503Exception("Lavaplayer search returned a 503", exception);
-                    }
+            searchProvider(search, provider).whenComplete((found, t) -> {
+                if (t != null) {
+                    log.warn("Hedged search {} failed with provider {}", search.key, provider, t);
+                    unexpected = unwrap(t);
+                } else if (found != null) {
+                    win(provider, found);
+                }
+                if (!result.isDone()) {
+                    tryStart(index + 1, null);
+                }
+                if (pending.decrementAndGet() == 0 && next.get() >= search.providers.size()) {
+                    finish();
                 }
+            });
+        }
 
-                String message = String.format("Failed to search provider %s for query %s with exception %s.",
-                        provider, query, exception.getMessage());
-                throw new SearchingException(message, exception);
+        private void win(SearchProvider provider, AudioPlaylist found) {
+            if (!result.complete(found)) {
+                return;
             }
+            String label = provider.name().toLowerCase(Locale.ROOT);
+            HEDGED_WINS.get(label).inc();
+            HEDGED_DURATION.get(label).observeSince(start);
+            stopOthers();
+        }
 
-            if (result == null) {
-                throw new SearchingException(String.format("Result from provider %s for query %s is unexpectedly null", provider, query));
+        private void finish() {
+            Throwable t = unexpected;
+            boolean done = t != null ? result.completeExceptionally(t) : result.complete(null);
+            if (done) {
+                HEDGED_WINS.get("none").inc();
+                HEDGED_DURATION.get("none").observeSince(start);
+                //all providers are done, only the hedges may still be scheduled
+                for (ScheduledFuture<?> hedge : hedges) {
+                    hedge.cancel(false);
+                }
             }
+        }
 
-            return result;
+        private void stopOthers() {
+            for (ScheduledFuture<?> hedge : hedges) {
+                hedge.cancel(false);
+            }
+            search.stop();
+        }
+    }
+
+    static class SearchResultHandler implements AudioLoadResultHandler {
+
+        private final SearchProvider provider;
+        private final String query;
+        private final CompletableFuture<AudioPlaylist> result;
+
+        SearchResultHandler(SearchProvider provider, String query, CompletableFuture<AudioPlaylist> result) {
+            this.provider = provider;
+            this.query = query;
+            this.result = result;
         }
 
         @Override
         public void trackLoaded(AudioTrack audioTrack) {
-            exception = new UnsupportedOperationException("Can't load a single track when we are expecting a playlist!");
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
-            }
+            fail(new UnsupportedOperationException("Can't load a single track when we are expecting a playlist!"));
         }
 
         @Override
         public void playlistLoaded(AudioPlaylist audioPlaylist) {
-            result = audioPlaylist;
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
-            }
-
+            result.complete(audioPlaylist);
         }
 
         @Override
         public void noMatches() {
-            result = new BasicAudioPlaylist("No matches", Collections.emptyList(), null, true);
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
-            }
+            result.complete(new BasicAudioPlaylist("No matches", Collections.emptyList(), null, true));
         }
 
         @Override
         public void loadFailed(FriendlyException e) {
-            exception = e;
-            synchronized (toBeNotified) {
-                toBeNotified.notify();
+            if (e.getCause() != null) {
+                String messageOfCause = e.getCause().getMessage();
+                if (messageOfCause != null
+                        && messageOfCause.contains("java.io.IOException: Invalid status code for search response: 503")) {
+                    result.completeExceptionally(new Http503Exception("Lavaplayer search returned a 503", e));
+                    return;
+                }
             }
+            fail(e);
+        }
+
+        private void fail(Exception exception) {
+            String message = String.format("Failed to search provider %s for query %s with exception %s.",
+                    provider, query, exception.getMessage());
+            result.completeExceptionally(new SearchingException(message, exception));
         }
     }
 }
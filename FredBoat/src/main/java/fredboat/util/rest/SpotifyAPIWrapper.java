@@ -40,8 +40,6 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created by napster on 08.03.17.
@@ -51,8 +49,7 @@ import java.util.regex.Pattern;
  * When expanding this class, make sure to call refreshTokenIfNecessary() before every request
  */
 public class SpotifyAPIWrapper {
-    //https://regex101.com/r/FkknVc/1
-    private static final Pattern PARAMETER_PATTERN = Pattern.compile("offset=([0-9]*)&limit=([0-9]*)$");
+    public static final int MAX_TRACKS_PAGE_SIZE = 100;
 
     private static final String URL_SPOTIFY_API = "https://api.spotify.com";
     private static final String URL_SPOTIFY_AUTHENTICATION_HOST = "https://accounts.spotify.com";
@@ -152,66 +149,45 @@ public class SpotifyAPIWrapper {
     /**
      * @param userId Spotify user id of the owner of the requested playlist
      * @param playlistId Spotify playlist identifier
-     * @return a string for each track on the requested playlist, containing track and artist names
+     * @param offset index of the first track of the page
+     * @param limit size of the page, Spotify allows at most {@link #MAX_TRACKS_PAGE_SIZE}
+     * @return a string for each track on the requested page of the playlist, containing track and artist names. Tracks
+     * that could not be read are left out.
      */
-    public List<String> getPlaylistTracksSearchTermsBlocking(String userId, String playlistId) throws UnirestException, JSONException {
+    public List<String> getPlaylistTracksSearchTermsBlocking(String userId, String playlistId, int offset, int limit)
+            throws UnirestException, JSONException {
         refreshTokenIfNecessary();
 
         //strings on this list will contain name of the track + names of the artists
         List<String> list = new ArrayList<>();
 
-        JSONObject jsonPage = null;
-        //get page, then collect its tracks
-        do {
-            String offset = "0";
-            String limit = "100";
-
-            //this determines offset and limit on the 2nd+ pass of the do loop
-            if (jsonPage != null) {
-                String nextPageUrl;
-                if (!jsonPage.has("next") || jsonPage.get("next") == JSONObject.NULL) break;
-                nextPageUrl = jsonPage.getString("next");
-
-                final Matcher m = PARAMETER_PATTERN.matcher(nextPageUrl);
-
-                if (!m.find()) {
-                    log.debug("Did not find parameter pattern in next page URL provided by Spotify");
-                    break;
-                }
-                //We are trusting Spotify to get their shit together and provide us sane values for these
-                offset = m.group(1);
-                limit = m.group(2);
+        //request a page of tracks
+        JSONObject jsonPage = Unirest.get(URL_SPOTIFY_API + "/v1/users/" + userId + "/playlists/" + playlistId + "/tracks")
+                .queryString("offset", offset)
+                .queryString("limit", limit)
+                .header("Authorization", "Bearer " + accessToken)
+                .asJson()
+                .getBody()
+                .getObject();
+
+        //add tracks to our result list
+        // https://developer.spotify.com/web-api/object-model/#paging-object
+        JSONArray jsonTracks = jsonPage.getJSONArray("items");
+
+        jsonTracks.forEach((jsonPlaylistTrack) -> {
+            try {
+                JSONObject track = ((JSONObject) jsonPlaylistTrack).getJSONObject("track");
+                final StringBuilder trackNameAndArtists = new StringBuilder();
+                trackNameAndArtists.append(track.getString("name"));
+
+                track.getJSONArray("artists").forEach((jsonArtist) -> trackNameAndArtists.append(" ")
+                        .append(((JSONObject) jsonArtist).getString("name")));
+
+                list.add(trackNameAndArtists.toString());
+            } catch (Exception e) {
+                log.warn("Could not create track from json, skipping", e);
             }
-
-            //request a page of tracks
-            jsonPage = Unirest.get(URL_SPOTIFY_API + "/v1/users/" + userId + "/playlists/" + playlistId + "/tracks")
-                    .queryString("offset", offset)
-                    .queryString("limit", limit)
-                    .header("Authorization", "Bearer " + accessToken)
-                    .asJson()
-                    .getBody()
-                    .getObject();
-
-            //add tracks to our result list
-            // https://developer.spotify.com/web-api/object-model/#paging-object
-            JSONArray jsonTracks = jsonPage.getJSONArray("items");
-
-            jsonTracks.forEach((jsonPlaylistTrack) -> {
-                try {
-                    JSONObject track = ((JSONObject) jsonPlaylistTrack).getJSONObject("track");
-                    final StringBuilder trackNameAndArtists = new StringBuilder();
-                    trackNameAndArtists.append(track.getString("name"));
-
-                    track.getJSONArray("artists").forEach((jsonArtist) -> trackNameAndArtists.append(" ")
-                            .append(((JSONObject) jsonArtist).getString("name")));
-
-                    list.add(trackNameAndArtists.toString());
-                } catch (Exception e) {
-                    log.warn("Could not create track from json, skipping", e);
-                }
-            });
-
-        } while (jsonPage.has("next") && jsonPage.get("next") != null);
+        });
 
         return list;
     }
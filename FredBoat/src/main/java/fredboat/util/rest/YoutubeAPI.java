@@ -35,82 +35,30 @@ import fredboat.Config;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class YoutubeAPI {
 
-    private static final Logger log = LoggerFactory.getLogger(YoutubeAPI.class);
-
     private YoutubeAPI() {
     }
 
-    private static YoutubeVideo getVideoFromID(String id) {
-        JSONObject data = null;
-        try {
-            data = Unirest.get("https://www.googleapis.com/youtube/v3/videos?part=contentDetails,snippet&fields=items(id,snippet/title,contentDetails/duration)")
-                    .queryString("id", id)
-                    .queryString("key", Config.CONFIG.getRandomGoogleKey())
-                    .asJson()
-                    .getBody()
-                    .getObject();
-
-            YoutubeVideo vid = new YoutubeVideo();
-            vid.id = data.getJSONArray("items").getJSONObject(0).getString("id");
-            vid.name = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("title");
-            vid.duration = data.getJSONArray("items").getJSONObject(0).getJSONObject("contentDetails").getString("duration");
-
-            return vid;
-        } catch (JSONException ex) {
-            System.err.println(data);
-            throw ex;
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        }
-    }
-
-    public static YoutubeVideo getVideoFromID(String id, boolean verbose) {
-        if(verbose){
-            JSONObject data = null;
-            String gkey = Config.CONFIG.getRandomGoogleKey();
-            try {
-                data = Unirest.get("https://www.googleapis.com/youtube/v3/videos?part=contentDetails,snippet")
-                        .queryString("id", id)
-                        .queryString("key", gkey)
-                        .asJson()
-                        .getBody()
-                        .getObject();
-
-                YoutubeVideo vid = new YoutubeVideo();
-                vid.id = data.getJSONArray("items").getJSONObject(0).getString("id");
-                vid.name = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("title");
-                vid.duration = data.getJSONArray("items").getJSONObject(0).getJSONObject("contentDetails").getString("duration");
-                vid.description = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("description");
-                vid.channelId = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("channelId");
-                vid.channelTitle = data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("channelTitle");
-                vid.isStream = !data.getJSONArray("items").getJSONObject(0).getJSONObject("snippet").getString("liveBroadcastContent").equals("none");
-
-                return vid;
-            } catch (JSONException ex) {
-                log.error(data != null ? data.toString() : null);
-
-                log.error("API key used ends with: " + gkey.substring(20));
-
-                throw ex;
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
-            }
-        } else {
-            return getVideoFromID(id);
+    /**
+     * @return details of the video, possibly cached
+     */
+    public static YoutubeVideo getVideoFromID(String id) {
+        YoutubeVideo vid = YoutubeMetadataService.get().getVideo(id);
+        if (vid == null) {
+            throw new RuntimeException("No youtube video found for id " + id);
         }
+        return vid;
     }
 
     /**
      * @param query         Search Youtube for this query
-     * @param maxResults    Keep this as small as necessary, each of the videos needs to be looked up for more detailed info
+     * @param maxResults    Keep this as small as necessary, the videos need to be looked up for more detailed info
      * @param sourceManager The source manager may be used by the tracks to look further information up
      * @return A playlist representing the search results; null if there was an exception
      */
@@ -121,6 +69,7 @@ public class YoutubeAPI {
         JSONObject data;
         String gkey = Config.CONFIG.getRandomGoogleKey();
         try {
+            YoutubeMetadataService.SEARCH_REQUESTS.inc();
             data = Unirest.get("https://www.googleapis.com/youtube/v3/search?part=snippet")
                     .queryString("key", gkey)
                     .queryString("type", "video")
@@ -134,7 +83,7 @@ public class YoutubeAPI {
         }
 
         //The search contains all values we need, except for the duration :feelsbadman:
-        //so we need to do another query for each video.
+        //so we need to look the videos up, which is a single query for all of them.
         List<String> ids = new ArrayList<>(maxResults);
         try {
             JSONArray items = data.getJSONArray("items");
@@ -148,14 +97,16 @@ public class YoutubeAPI {
             throw new SearchUtil.SearchingException(message, e);
         }
 
+        Map<String, YoutubeVideo> videos;
+        try {
+            videos = YoutubeMetadataService.get().getVideos(ids);
+        } catch (RuntimeException e) {
+            throw new SearchUtil.SearchingException("Could not look up details for youtube videos with ids " + ids, e);
+        }
+
         List<AudioTrack> tracks = new ArrayList<>();
-        for (String id : ids) {
-            try {
-                YoutubeVideo vid = getVideoFromID(id, true);
-                tracks.add(sourceManager.buildTrackObject(id, vid.name, vid.channelTitle, vid.isStream, vid.getDurationInMillis()));
-            } catch (RuntimeException e) {
-                throw new SearchUtil.SearchingException("Could not look up details for youtube video with id " + id, e);
-            }
+        for (YoutubeVideo vid : videos.values()) {
+            tracks.add(sourceManager.buildTrackObject(vid.id, vid.name, vid.channelTitle, vid.isStream, vid.getDurationInMillis()));
         }
         return new BasicAudioPlaylist("Search results for: " + query, tracks, null, true);
     }
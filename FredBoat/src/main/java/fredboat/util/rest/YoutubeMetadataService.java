@@ -0,0 +1,372 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import com.mashape.unirest.http.Unirest;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import fredboat.Config;
+import fredboat.metrics.Counter;
+import fredboat.metrics.Metrics;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Looks up video details and channel thumbnails with the Youtube Data API and keeps them around for a while.
+ * <p>
+ * Videos are requested in batches, the videos endpoint takes up to {@link #MAX_IDS_PER_REQUEST} comma separated ids
+ * and costs the same quota for one or fifty of them. Callers asking for something that is already being requested
+ * wait for that request instead of sending their own.
+ */
+public class YoutubeMetadataService {
+
+    private static final Logger log = LoggerFactory.getLogger(YoutubeMetadataService.class);
+
+    public static final String DEFAULT_BASE_URL = "https://www.googleapis.com/youtube/v3";
+    static final int MAX_IDS_PER_REQUEST = 50;
+
+    private static final String VIDEO_FIELDS = "items(id,snippet(title,description,channelId,channelTitle,"
+            + "liveBroadcastContent),contentDetails/duration)";
+
+    private static final String LOOKUPS_HELP = "Youtube video and channel lookups, by result";
+    private static final Counter HITS = Metrics.counter("fredboat_youtube_metadata_lookups_total", LOOKUPS_HELP, "result", "hit");
+    private static final Counter MISSES = Metrics.counter("fredboat_youtube_metadata_lookups_total", LOOKUPS_HELP, "result", "miss");
+    private static final Counter COALESCED = Metrics.counter("fredboat_youtube_metadata_lookups_total", LOOKUPS_HELP, "result", "coalesced");
+    private static final String REQUESTS_HELP = "Requests sent to the Youtube Data API, by endpoint";
+    static final Counter VIDEOS_REQUESTS = Metrics.counter("fredboat_youtube_api_requests_total", REQUESTS_HELP, "endpoint", "videos");
+    static final Counter CHANNELS_REQUESTS = Metrics.counter("fredboat_youtube_api_requests_total", REQUESTS_HELP, "endpoint", "channels");
+    static final Counter SEARCH_REQUESTS = Metrics.counter("fredboat_youtube_api_requests_total", REQUESTS_HELP, "endpoint", "search");
+
+    /**
+     * @return the instance talking to the actual Youtube Data API with the configured google keys
+     */
+    public static YoutubeMetadataService get() {
+        return YoutubeMetadataServiceHolder.instance;
+    }
+
+    //holder class pattern
+    private static class YoutubeMetadataServiceHolder {
+        private static final YoutubeMetadataService instance = new YoutubeMetadataService(DEFAULT_BASE_URL,
+                Config.CONFIG::getRandomGoogleKey, TimeUnit.HOURS.toMillis(1), 10000);
+    }
+
+    private final String baseUrl;
+    private final Supplier<String> keys;
+
+    private final TtlCache<YoutubeVideo> videos;
+    private final TtlCache<String> channelThumbs;
+    private final ConcurrentHashMap<String, CompletableFuture<YoutubeVideo>> videosInFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<String>> channelThumbsInFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param baseUrl   where the Youtube Data API lives, without a trailing slash
+     * @param keys      hands out the google api key to use for each request
+     * @param ttlMillis how long looked up videos and thumbnails are kept
+     * @param maxSize   how many videos, and separately how many thumbnails, are kept at most
+     */
+    YoutubeMetadataService(String baseUrl, Supplier<String> keys, long ttlMillis, int maxSize) {
+        this.baseUrl = baseUrl;
+        this.keys = keys;
+        this.videos = new TtlCache<>(ttlMillis, maxSize);
+        this.channelThumbs = new TtlCache<>(ttlMillis, maxSize);
+    }
+
+    /**
+     * @return details of the video with the given id, or null if there is no such video
+     * @throws RuntimeException if the request failed
+     */
+    public YoutubeVideo getVideo(String id) {
+        return getVideos(Collections.singletonList(id)).get(id);
+    }
+
+    /**
+     * @return details of the videos with the given ids, in the order of the ids. Ids of videos that don't exist are
+     * left out.
+     * @throws RuntimeException if a request failed
+     */
+    public Map<String, YoutubeVideo> getVideos(Collection<String> ids) {
+        Map<String, YoutubeVideo> found = new HashMap<>();
+        Map<String, CompletableFuture<YoutubeVideo>> running = new HashMap<>();
+        List<String> claimed = new ArrayList<>();
+
+        for (String id : new LinkedHashSet<>(ids)) {
+            YoutubeVideo cached = videos.get(id);
+            if (cached != null) {
+                HITS.inc();
+                found.put(id, cached);
+                continue;
+            }
+            CompletableFuture<YoutubeVideo> inFlight = videosInFlight.putIfAbsent(id, new CompletableFuture<>());
+            if (inFlight != null) {
+                COALESCED.inc();
+                running.put(id, inFlight);
+                continue;
+            }
+            //the request that was running when we checked the cache may have finished in between
+            cached = videos.get(id);
+            if (cached != null) {
+                HITS.inc();
+                videosInFlight.remove(id).complete(cached);
+                found.put(id, cached);
+                continue;
+            }
+            MISSES.inc();
+            claimed.add(id);
+        }
+
+        fetchVideos(claimed, found);
+
+        for (Map.Entry<String, CompletableFuture<YoutubeVideo>> entry : running.entrySet()) {
+            YoutubeVideo video = await(entry.getValue());
+            if (video != null) {
+                found.put(entry.getKey(), video);
+            }
+        }
+
+        Map<String, YoutubeVideo> result = new LinkedHashMap<>();
+        for (String id : ids) {
+            YoutubeVideo video = found.get(id);
+            if (video != null) {
+                result.put(id, video);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return url of the default thumbnail of the channel, or null if it could not be looked up
+     */
+    @Nullable
+    public String getChannelThumbUrl(@Nullable String channelId) {
+        if (channelId == null) {
+            return null; //the video details came without a channel
+        }
+        String cached = channelThumbs.get(channelId);
+        if (cached != null) {
+            HITS.inc();
+            return cached;
+        }
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = channelThumbsInFlight.putIfAbsent(channelId, mine);
+        if (inFlight != null) {
+            COALESCED.inc();
+            return await(inFlight);
+        }
+
+        MISSES.inc();
+        String url = null;
+        try {
+            url = requestChannelThumbUrl(channelId);
+            if (url != null) {
+                channelThumbs.put(channelId, url);
+            }
+        } finally {
+            channelThumbsInFlight.remove(channelId, mine);
+            mine.complete(url);
+        }
+        return url;
+    }
+
+    /**
+     * Requests the claimed ids in batches and hands the videos to everyone waiting for them. Every claimed id is
+     * released, even if a request fails.
+     */
+    private void fetchVideos(List<String> claimed, Map<String, YoutubeVideo> found) {
+        RuntimeException failure = null;
+        for (int from = 0; from < claimed.size(); from += MAX_IDS_PER_REQUEST) {
+            List<String> batch = claimed.subList(from, Math.min(from + MAX_IDS_PER_REQUEST, claimed.size()));
+            Map<String, YoutubeVideo> fetched = null;
+            if (failure == null) {
+                try {
+                    fetched = requestVideos(batch);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+
+            for (String id : batch) {
+                CompletableFuture<YoutubeVideo> waiting = videosInFlight.remove(id);
+                if (fetched == null) {
+                    waiting.completeExceptionally(failure);
+                    continue;
+                }
+                YoutubeVideo video = fetched.get(id);
+                if (video != null) {
+                    videos.put(id, video);
+                    found.put(id, video);
+                }
+                waiting.complete(video);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //docs: https://developers.google.com/youtube/v3/docs/videos/list
+    private Map<String, YoutubeVideo> requestVideos(List<String> ids) {
+        JSONObject data = null;
+        String gkey = keys.get();
+        try {
+            VIDEOS_REQUESTS.inc();
+            data = Unirest.get(baseUrl + "/videos")
+                    .queryString("part", "contentDetails,snippet")
+                    .queryString("fields", VIDEO_FIELDS)
+                    .queryString("id", String.join(",", ids))
+                    .queryString("key", gkey)
+                    .asJson()
+                    .getBody()
+                    .getObject();
+
+            Map<String, YoutubeVideo> result = new HashMap<>();
+            JSONArray items = data.getJSONArray("items");
+            for (int i = 0; i < items.length(); i++) {
+                YoutubeVideo vid = parseVideo(items.getJSONObject(i));
+                result.put(vid.id, vid);
+            }
+            return result;
+        } catch (JSONException ex) {
+            log.error(data != null ? data.toString() : null);
+            log.error("API key used ends with: " + gkey.substring(Math.min(20, gkey.length())));
+            throw ex;
+        } catch (UnirestException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private String requestChannelThumbUrl(String channelId) {
+        try {
+            CHANNELS_REQUESTS.inc();
+            JSONObject json = Unirest.get(baseUrl + "/channels")
+                    .queryString("part", "snippet")
+                    .queryString("fields", "items(snippet/thumbnails)")
+                    .queryString("id", channelId)
+                    .queryString("key", keys.get())
+                    .asJson()
+                    .getBody()
+                    .getObject();
+
+            log.debug("Channel thumb response {}", json);
+
+            return json.getJSONArray("items")
+                    .getJSONObject(0)
+                    .getJSONObject("snippet")
+                    .getJSONObject("thumbnails")
+                    .getJSONObject("default")
+                    .getString("url");
+        } catch (UnirestException | JSONException e) {
+            log.error("Failed to get channel thumbnail", e);
+            return null;
+        }
+    }
+
+    static YoutubeVideo parseVideo(JSONObject item) {
+        JSONObject snippet = item.getJSONObject("snippet");
+        YoutubeVideo vid = new YoutubeVideo();
+        vid.id = item.getString("id");
+        vid.name = snippet.getString("title");
+        vid.duration = item.getJSONObject("contentDetails").getString("duration");
+        vid.description = snippet.optString("description", "");
+        vid.channelId = snippet.optString("channelId", null);
+        vid.channelTitle = snippet.optString("channelTitle", null);
+        vid.isStream = !snippet.optString("liveBroadcastContent", "none").equals("none");
+        return vid;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Least recently used entries are dropped once it is full, entries older than the ttl are not returned
+     */
+    private static class TtlCache<V> {
+        private final long ttlMillis;
+        private final int maxSize;
+        //guarded by this, values are paired with the time they were stored
+        private final Object2ObjectLinkedOpenHashMap<String, Stored<V>> entries = new Object2ObjectLinkedOpenHashMap<>();
+
+        TtlCache(long ttlMillis, int maxSize) {
+            this.ttlMillis = ttlMillis;
+            this.maxSize = maxSize;
+        }
+
+        synchronized V get(String key) {
+            Stored<V> stored = entries.getAndMoveToLast(key);
+            if (stored == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - stored.storedAt > ttlMillis) {
+                entries.remove(key);
+                return null;
+            }
+            return stored.value;
+        }
+
+        synchronized void put(String key, V value) {
+            entries.putAndMoveToLast(key, new Stored<>(value, System.currentTimeMillis()));
+            while (entries.size() > maxSize) {
+                entries.removeFirst();
+            }
+        }
+    }
+
+    private static class Stored<V> {
+        final V value;
+        final long storedAt;
+
+        Stored(V value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+}
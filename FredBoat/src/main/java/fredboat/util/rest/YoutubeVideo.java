@@ -25,20 +25,11 @@
 
 package fredboat.util.rest;
 
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
-import fredboat.Config;
-import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class YoutubeVideo {
 
-    private static final Logger log = LoggerFactory.getLogger(YoutubeVideo.class);
-
     String id = null;
     String name = null;
     String duration = null;//Youtube has strange duration strings suchs as PT2H3M33S
@@ -126,26 +117,7 @@ public class YoutubeVideo {
     }
 
     public String getChannelThumbUrl() {
-        try {
-            JSONObject json = Unirest.get("https://www.googleapis.com/youtube/v3/channels?part=snippet&fields=items(snippet/thumbnails)")
-                    .queryString("id", channelId)
-                    .queryString("key", Config.CONFIG.getRandomGoogleKey())
-                    .asJson()
-                    .getBody()
-                    .getObject();
-
-            log.debug("Channel thumb response", json);
-
-            return json.getJSONArray("items")
-                    .getJSONObject(0)
-                    .getJSONObject("snippet")
-                    .getJSONObject("thumbnails")
-                    .getJSONObject("default")
-                    .getString("url");
-        } catch (UnirestException e) {
-            log.error("Failed to get channel thumbnail", e);
-            return null;
-        }
+        return YoutubeMetadataService.get().getChannelThumbUrl(channelId);
     }
 
     private String forceTwoDigits(int i) {
@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ShardLauncherTest extends ProvideJDASingleton {
+
+    private static final long INTERVAL = 5000;
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(ShardLauncherTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testIdentifySlotsPerBucket() {
+        FakeGatewayClock clock = new FakeGatewayClock();
+        ShardLauncher sequential = new ShardLauncher(4, 1, INTERVAL, clock);
+        Assertions.assertEquals(0, sequential.reserveIdentifySlot(0));
+        Assertions.assertEquals(5000, sequential.reserveIdentifySlot(1));
+        Assertions.assertEquals(10000, sequential.reserveIdentifySlot(2));
+
+        ShardLauncher concurrent = new ShardLauncher(8, 4, INTERVAL, clock);
+        for (int shardId = 0; shardId < 4; shardId++) {
+            Assertions.assertEquals(0, concurrent.reserveIdentifySlot(shardId));
+        }
+        for (int shardId = 4; shardId < 8; shardId++) {
+            Assertions.assertEquals(5000, concurrent.reserveIdentifySlot(shardId));
+        }
+
+        //a revive long after the launch doesn't have to wait
+        clock.now.set(12000);
+        Assertions.assertEquals(12000, concurrent.reserveIdentifySlot(2));
+        Assertions.assertEquals(17000, concurrent.reserveIdentifySlot(6));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testLaunchInParallel() throws InterruptedException {
+        int numShards = 100;
+        int concurrency = 16;
+        FakeGatewayClock clock = new FakeGatewayClock();
+        ShardLauncher launcher = new ShardLauncher(numShards, concurrency, INTERVAL, clock);
+
+        AtomicLongArray identifiedAt = new AtomicLongArray(numShards);
+        List<Integer> sunk = Collections.synchronizedList(new ArrayList<>());
+        launcher.launch(shardId -> {
+            try {
+                launcher.awaitIdentifySlot(shardId);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            identifiedAt.set(shardId, clock.awakeAt());
+            return shardId;
+        }, sunk::add);
+
+        List<Integer> expectedOrder = new ArrayList<>();
+        for (int i = 0; i < numShards; i++) {
+            expectedOrder.add(i);
+        }
+        Assertions.assertEquals(expectedOrder, sunk);
+
+        //never more identifies at once than the concurrency, and each bucket once per interval
+        Long2IntOpenHashMap perSlot = new Long2IntOpenHashMap();
+        long last = 0;
+        for (int shardId = 0; shardId < numShards; shardId++) {
+            perSlot.addTo(identifiedAt.get(shardId), 1);
+            last = Math.max(last, identifiedAt.get(shardId));
+        }
+        for (int count : perSlot.values()) {
+            Assertions.assertTrue(count <= concurrency);
+        }
+        //100 shards in buckets of 16 take 7 slots, where one at a time would take 100
+        Assertions.assertEquals(6 * INTERVAL, last);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testReadiness() throws InterruptedException {
+        FakeGatewayClock clock = new FakeGatewayClock();
+        ShardLauncher launcher = new ShardLauncher(3, 1, INTERVAL, clock);
+        launcher.launch(shardId -> {
+            if (shardId == 1) {
+                throw new IllegalStateException("Failed to build");
+            }
+            return shardId;
+        }, shardId -> {
+        });
+
+        //the shard that failed isn't waited for, nor counted as ready
+        Assertions.assertEquals(0, launcher.getReadyCount());
+        Assertions.assertEquals(1, launcher.getFailedCount());
+        clock.now.set(10000);
+        launcher.markReady(0);
+        launcher.markReady(0);
+        Assertions.assertEquals(1, launcher.getReadyCount());
+        Assertions.assertFalse(launcher.isAllReady());
+        Assertions.assertEquals(-1, launcher.getTimeToAllReady());
+
+        clock.now.set(42000);
+        launcher.markReady(2);
+        Assertions.assertTrue(launcher.isAllReady());
+        Assertions.assertEquals(2, launcher.getReadyCount());
+        Assertions.assertEquals(42000, launcher.getTimeToAllReady());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testFailureAfterTheLastReadyShard() throws InterruptedException {
+        FakeGatewayClock clock = new FakeGatewayClock();
+        ShardLauncher launcher = new ShardLauncher(2, 2, INTERVAL, clock);
+        launcher.launch(shardId -> {
+            if (shardId == 1) {
+                //the first shard got ready long before the second one gave up
+                launcher.markReady(0);
+                clock.now.set(60000);
+                throw new IllegalStateException("Failed to build");
+            }
+            return shardId;
+        }, shardId -> {
+        });
+
+        Assertions.assertTrue(launcher.isAllReady());
+        Assertions.assertEquals(1, launcher.getReadyCount());
+        Assertions.assertEquals(1, launcher.getFailedCount());
+        //the failed shard doesn't count towards the time it took
+        Assertions.assertEquals(0, launcher.getTimeToAllReady());
+        bumpPassedTests();
+    }
+
+    /**
+     * Sleeping doesn't take any time, it only records until when the thread would have slept.
+     */
+    private static class FakeGatewayClock implements ShardLauncher.GatewayClock {
+        private final AtomicLong now = new AtomicLong(0);
+        private final ThreadLocal<Long> sleptUntil = ThreadLocal.withInitial(() -> 0L);
+
+        @Override
+        public long millis() {
+            return now.get();
+        }
+
+        @Override
+        public void sleep(long millis) {
+            sleptUntil.set(now.get() + millis);
+        }
+
+        //when the calling thread would be done with its last sleep
+        long awakeAt() {
+            long awakeAt = Math.max(sleptUntil.get(), now.get());
+            sleptUntil.set(0L);
+            return awakeAt;
+        }
+    }
+}
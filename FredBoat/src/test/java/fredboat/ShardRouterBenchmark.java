@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares looking up a channel by its id on synthetic shards holding 100k channels, by going through the channels of
+ * all shards like FredBoat.getTextChannelById used to, and by routing through the ShardRouter.
+ * <p>
+ * A shard is a list of channels for the scan and a map by id for the routed lookup, which is what jda keeps for each
+ * shard. Channels are spread over guilds of 20 channels each.
+ * <p>
+ * Not a unit test, run the main method (or the jmh runner) to get the numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardRouterBenchmark {
+
+    private static final int CHANNEL_COUNT = 100000;
+    private static final int CHANNELS_PER_GUILD = 20;
+
+    @Param({"10", "100"})
+    public int shardCount;
+
+    private List<List<SyntheticChannel>> shardChannels;
+    private List<Long2ObjectOpenHashMap<SyntheticChannel>> shardChannelMaps;
+    private ShardRouter router;
+    private long[] channelIds;
+    private int next = 0;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ShardRouterBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    @Setup
+    public void setUp() {
+        shardChannels = new ArrayList<>();
+        shardChannelMaps = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shardChannels.add(new ArrayList<>());
+            shardChannelMaps.add(new Long2ObjectOpenHashMap<>());
+        }
+        router = new ShardRouter(shardCount, shardId -> null);
+
+        channelIds = new long[CHANNEL_COUNT];
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            //snowflake-like ids, spread over a few years
+            long guildId = ((long) (i / CHANNELS_PER_GUILD) * 1000003L) << 22;
+            long channelId = guildId + ((i % CHANNELS_PER_GUILD) + 1);
+            SyntheticChannel channel = new SyntheticChannel(channelId);
+
+            int shardId = router.getShardId(guildId);
+            shardChannels.get(shardId).add(channel);
+            shardChannelMaps.get(shardId).put(channelId, channel);
+            router.index(channelId, guildId);
+            channelIds[i] = channelId;
+        }
+    }
+
+    @Benchmark
+    public SyntheticChannel scan() {
+        String id = Long.toString(channelIds[next++ % CHANNEL_COUNT]);
+        for (List<SyntheticChannel> shard : shardChannels) {
+            for (SyntheticChannel channel : shard) {
+                if (channel.getId().equals(id)) return channel;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public SyntheticChannel routed() {
+        long channelId = channelIds[next++ % CHANNEL_COUNT];
+        long guildId = router.getGuildIdOfChannel(channelId);
+        return shardChannelMaps.get(router.getShardId(guildId)).get(channelId);
+    }
+
+    public static class SyntheticChannel {
+        private final long id;
+
+        SyntheticChannel(long id) {
+            this.id = id;
+        }
+
+        //jda builds the string id on every call too
+        public String getId() {
+            return Long.toUnsignedString(id);
+        }
+    }
+}
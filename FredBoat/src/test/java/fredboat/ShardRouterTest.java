@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ShardRouterTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(ShardRouterTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testShardOfGuild() {
+        ShardRouter router = new ShardRouter(10, shardId -> null);
+        //examples of the sharding formula from the discord docs
+        Assertions.assertEquals(0, router.getShardId(0L));
+        Assertions.assertEquals(7, router.getShardId(7L << 22));
+        Assertions.assertEquals(3, router.getShardId(13L << 22));
+        Assertions.assertEquals(0, new ShardRouter(1, shardId -> null).getShardId(174674066072928256L));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testChannelIndex() {
+        ShardRouter router = new ShardRouter(2, shardId -> null);
+        Assertions.assertEquals(-1, router.getGuildIdOfChannel(1));
+
+        for (long channelId = 1; channelId <= 1000; channelId++) {
+            router.index(channelId, channelId / 10);
+        }
+        Assertions.assertEquals(1000, router.size());
+        Assertions.assertEquals(42, router.getGuildIdOfChannel(425));
+
+        router.unindex(425);
+        Assertions.assertEquals(-1, router.getGuildIdOfChannel(425));
+        Assertions.assertEquals(999, router.size());
+
+        //the shard isn't there, so there is nothing to resolve
+        Assertions.assertNull(router.getTextChannelById(426));
+        Assertions.assertNull(router.getGuildById(42));
+        bumpPassedTests();
+    }
+}
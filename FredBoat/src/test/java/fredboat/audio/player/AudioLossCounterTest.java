@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.player;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class AudioLossCounterTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(AudioLossCounterTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testWindows() {
+        long[] now = {10000};
+        AudioLossCounter counter = new AudioLossCounter(() -> now[0]);
+
+        for (int second = 0; second < 2 * AudioLossCounter.HISTORY_SECONDS; second++) {
+            for (int i = 0; i < 45; i++) counter.onSuccess();
+            for (int i = 0; i < 5; i++) counter.onLoss();
+            now[0]++;
+        }
+
+        AudioLossCounter.Window lastMinute = counter.getLastMinute();
+        Assertions.assertEquals(60 * 45, lastMinute.getSent());
+        Assertions.assertEquals(60 * 5, lastMinute.getNulled());
+        Assertions.assertEquals(0, lastMinute.getDeficit());
+        Assertions.assertEquals(0.1, lastMinute.getLossRate(), 0.0001);
+        Assertions.assertEquals(AudioLossCounter.HISTORY_SECONDS * 45, counter.getLastFiveMinutes().getSent());
+
+        //seconds without any frames were not played in and are not expected to have any
+        now[0] += 30;
+        lastMinute = counter.getLastMinute();
+        Assertions.assertEquals(30, lastMinute.getActiveSeconds());
+        Assertions.assertEquals(30 * 45, lastMinute.getSent());
+        Assertions.assertEquals(0, lastMinute.getDeficit());
+        Assertions.assertEquals(0.1, lastMinute.getLossRate(), 0.0001);
+
+        now[0] += 60;
+        lastMinute = counter.getLastMinute();
+        Assertions.assertEquals(0, lastMinute.getExpected());
+        Assertions.assertEquals(0, lastMinute.getLossRate(), 0.0001);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testDeficit() {
+        long[] now = {10000};
+        AudioLossCounter counter = new AudioLossCounter(() -> now[0]);
+
+        //started playing 10 seconds before the end of the window, and only got to half the frames of each second
+        now[0] += 50;
+        for (int second = 0; second < 10; second++) {
+            for (int i = 0; i < AudioLossCounter.PACKETS_PER_SECOND / 2; i++) counter.onSuccess();
+            now[0]++;
+        }
+
+        AudioLossCounter.Window lastMinute = counter.getLastMinute();
+        Assertions.assertEquals(10, lastMinute.getActiveSeconds());
+        Assertions.assertEquals(10 * AudioLossCounter.PACKETS_PER_SECOND, lastMinute.getExpected());
+        Assertions.assertEquals(10 * AudioLossCounter.PACKETS_PER_SECOND / 2, lastMinute.getDeficit());
+        Assertions.assertEquals(0.5, lastMinute.getLossRate(), 0.0001);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testSummary() {
+        long[] now = {10000};
+        AudioLossCounter[] counters = new AudioLossCounter[10];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AudioLossCounter(() -> now[0]);
+        }
+
+        //player i nulls i frames per second, the first one only plays the last 10 seconds, the last one never sends
+        // anything
+        for (int second = 0; second < 60; second++) {
+            for (int i = second < 50 ? 1 : 0; i < counters.length - 1; i++) {
+                for (int frame = 0; frame < AudioLossCounter.PACKETS_PER_SECOND; frame++) {
+                    if (frame < i) counters[i].onLoss();
+                    else counters[i].onSuccess();
+                }
+            }
+            now[0]++;
+        }
+
+        AudioLossCounter.Summary summary = AudioLossCounter.summarize(Arrays.asList(counters), 60);
+        Assertions.assertEquals(9, summary.getPlayers());
+        Assertions.assertEquals(4.0 / AudioLossCounter.PACKETS_PER_SECOND, summary.getP50(), 0.0001);
+        Assertions.assertEquals(8.0 / AudioLossCounter.PACKETS_PER_SECOND, summary.getP99(), 0.0001);
+        Assertions.assertEquals(8.0 / AudioLossCounter.PACKETS_PER_SECOND, summary.getMax(), 0.0001);
+        Assertions.assertEquals(0, summary.getDeficit());
+        bumpPassedTests();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResolvedTrackCacheTest extends ProvideJDASingleton {
+
+    private AudioPlayerManager playerManager;
+    private YoutubeAudioSourceManager youtube;
+    private final AtomicLong now = new AtomicLong();
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(ResolvedTrackCacheTest.class.getSimpleName());
+    }
+
+    @BeforeEach
+    public void setUp() {
+        DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
+        youtube = new YoutubeAudioSourceManager();
+        manager.registerSourceManager(youtube);
+        playerManager = manager;
+    }
+
+    @Test
+    public void testNormalize() {
+        String key = "youtube:dQw4w9WgXcQ";
+        Assertions.assertEquals(key, ResolvedTrackCache.normalize("https://www.youtube.com/watch?v=dQw4w9WgXcQ"));
+        Assertions.assertEquals(key, ResolvedTrackCache.normalize(" http://youtube.com/watch?feature=share&v=dQw4w9WgXcQ "));
+        Assertions.assertEquals(key, ResolvedTrackCache.normalize("https://m.youtube.com/watch?v=dQw4w9WgXcQ"));
+        Assertions.assertEquals(key, ResolvedTrackCache.normalize("https://youtu.be/dQw4w9WgXcQ"));
+
+        //playlists are kept as they are
+        String playlist = "https://www.youtube.com/watch?v=dQw4w9WgXcQ&list=PLFgquLnL59alCl_2TQvOiD5Vgm1hCaGSI";
+        Assertions.assertEquals(playlist, ResolvedTrackCache.normalize(playlist));
+
+        Assertions.assertEquals("soundcloud:/artist/track",
+                ResolvedTrackCache.normalize("https://soundcloud.com/artist/track/?in=someone/sets/likes"));
+
+        //no links, nothing to cache
+        Assertions.assertNull(ResolvedTrackCache.normalize("ytsearch:never gonna give you up"));
+        Assertions.assertNull(ResolvedTrackCache.normalize("/home/music/track.mp3"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testHitsAreFreshCopies() {
+        ResolvedTrackCache cache = createCache(1000, 1000, Long.MAX_VALUE);
+        AudioTrack track = createTrack(0);
+        cache.put("youtube:id0", track);
+
+        AudioTrack first = (AudioTrack) cache.get("youtube:id0");
+        AudioTrack second = (AudioTrack) cache.get("youtube:id0");
+        Assertions.assertNotNull(first);
+        Assertions.assertNotSame(track, first);
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals(track.getIdentifier(), first.getIdentifier());
+        Assertions.assertEquals(track.getInfo().title, first.getInfo().title);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testPlaylistsExpireSooner() {
+        ResolvedTrackCache cache = createCache(1000, 100, Long.MAX_VALUE);
+        List<AudioTrack> tracks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tracks.add(createTrack(i));
+        }
+        cache.put("youtube:id0", tracks.get(0));
+        cache.put("playlist", new BasicAudioPlaylist("Playlist", tracks, tracks.get(3), false));
+
+        AudioPlaylist playlist = (AudioPlaylist) cache.get("playlist");
+        Assertions.assertNotNull(playlist);
+        Assertions.assertEquals("Playlist", playlist.getName());
+        Assertions.assertEquals(10, playlist.getTracks().size());
+        Assertions.assertSame(playlist.getTracks().get(3), playlist.getSelectedTrack());
+
+        now.addAndGet(100);
+        Assertions.assertNull(cache.get("playlist"));
+        Assertions.assertNotNull(cache.get("youtube:id0"));
+        now.addAndGet(900);
+        Assertions.assertNull(cache.get("youtube:id0"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedAreEvicted() {
+        //room for a few encoded tracks
+        ResolvedTrackCache cache = createCache(1000, 1000, 4000);
+        for (int i = 0; i < 100; i++) {
+            cache.put("youtube:id" + i, createTrack(i));
+            //keep the first one in use
+            Assertions.assertNotNull(cache.get("youtube:id0"));
+        }
+        Assertions.assertTrue(cache.size() < 100);
+        Assertions.assertNull(cache.get("youtube:id1"));
+        Assertions.assertNotNull(cache.get("youtube:id99"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testStreamsAreNotCached() {
+        ResolvedTrackCache cache = createCache(1000, 1000, Long.MAX_VALUE);
+        AudioTrackInfo info = new AudioTrackInfo("Live", "Channel", Long.MAX_VALUE, "live", true,
+                "https://www.youtube.com/watch?v=live");
+        cache.put("youtube:live", new YoutubeAudioTrack(info, youtube));
+        Assertions.assertNull(cache.get("youtube:live"));
+        bumpPassedTests();
+    }
+
+    private ResolvedTrackCache createCache(long trackTtl, long playlistTtl, long maxBytes) {
+        return new ResolvedTrackCache(playerManager, Runnable::run, trackTtl, playlistTtl, maxBytes, now::get);
+    }
+
+    private AudioTrack createTrack(int i) {
+        AudioTrackInfo info = new AudioTrackInfo("Track " + i, "Channel", 180000 + i, "id" + i, false,
+                "https://www.youtube.com/watch?v=id" + i);
+        return new YoutubeAudioTrack(info, youtube);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class IndexedSequenceTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(IndexedSequenceTest.class.getSimpleName());
+    }
+
+    /**
+     * Run random inserts, lookups and removals against an ArrayList and compare the results
+     */
+    @Test
+    public void testAgainstArrayList() {
+        Random random = new Random(42);
+        IndexedSequence<Integer> sequence = new IndexedSequence<>();
+        List<IndexedSequence.Node<Integer>> nodes = new ArrayList<>();
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(4);
+            if (op == 0 || expected.isEmpty()) {
+                nodes.add(sequence.addLast(i));
+                expected.add(i);
+            } else if (op == 1) {
+                int index = random.nextInt(expected.size() + 1);
+                nodes.add(index, sequence.insert(index, i));
+                expected.add(index, i);
+            } else if (op == 2) {
+                int index = random.nextInt(expected.size());
+                Assertions.assertEquals(expected.get(index), sequence.get(index));
+                Assertions.assertEquals(index, sequence.indexOf(nodes.get(index)));
+            } else {
+                int index = random.nextInt(expected.size());
+                IndexedSequence.Node<Integer> node = nodes.remove(index);
+                Assertions.assertTrue(sequence.remove(node));
+                Assertions.assertFalse(sequence.remove(node));
+                Assertions.assertEquals(-1, sequence.indexOf(node));
+                expected.remove(index);
+            }
+            Assertions.assertEquals(expected.size(), sequence.size());
+        }
+
+        Assertions.assertEquals(expected, sequence.toList());
+        List<Integer> iterated = new ArrayList<>();
+        sequence.forEach(iterated::add);
+        Assertions.assertEquals(expected, iterated);
+
+        int from = expected.size() / 3;
+        int to = expected.size() / 2;
+        Assertions.assertEquals(expected.subList(from, to), sequence.range(from, to));
+        Assertions.assertEquals(expected.get(0), sequence.first());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testRebuild() {
+        IndexedSequence<Integer> sequence = new IndexedSequence<>();
+        List<IndexedSequence.Node<Integer>> nodes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            nodes.add(sequence.addLast(i));
+        }
+
+        Collections.shuffle(nodes, new Random(42));
+        sequence.rebuild(nodes);
+
+        Assertions.assertEquals(nodes.size(), sequence.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Assertions.assertEquals(i, sequence.indexOf(nodes.get(i)));
+            Assertions.assertEquals(nodes.get(i).getValue(), sequence.get(i));
+        }
+
+        //the rebuilt sequence has to keep working as usual
+        Assertions.assertTrue(sequence.remove(nodes.get(500)));
+        sequence.insert(0, -1);
+        Assertions.assertEquals(Integer.valueOf(-1), sequence.first());
+        Assertions.assertEquals(nodes.size(), sequence.size());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testEmpty() {
+        IndexedSequence<Integer> sequence = new IndexedSequence<>();
+        Assertions.assertTrue(sequence.isEmpty());
+        Assertions.assertNull(sequence.first());
+        Assertions.assertTrue(sequence.toList().isEmpty());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> sequence.get(0));
+
+        sequence.addLast(1);
+        sequence.clear();
+        Assertions.assertEquals(0, sequence.size());
+        bumpPassedTests();
+    }
+}
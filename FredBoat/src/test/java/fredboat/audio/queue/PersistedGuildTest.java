@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PersistedGuildTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(PersistedGuildTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        PersistedGuild persisted = new PersistedGuild(42, 1L << 40, 1L << 41, true, 0.5f, RepeatMode.ALL, true, 12345,
+                Arrays.asList(
+                        new PersistedGuild.Track(7, new byte[]{1, 2, 3}, null),
+                        new PersistedGuild.Track(8, new byte[0], new PersistedGuild.Split("Intro", 1000, 61000))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        persisted.write(new DataOutputStream(out));
+        byte[] serialized = out.toByteArray();
+        Assertions.assertTrue(PersistedGuild.isBinaryFormat(serialized));
+
+        PersistedGuild read = PersistedGuild.read(new DataInputStream(new ByteArrayInputStream(serialized)));
+        Assertions.assertEquals(42, read.version);
+        Assertions.assertEquals(1L << 40, read.voiceChannelId);
+        Assertions.assertEquals(1L << 41, read.textChannelId);
+        Assertions.assertTrue(read.paused);
+        Assertions.assertEquals(0.5f, read.volume);
+        Assertions.assertEquals(RepeatMode.ALL, read.repeatMode);
+        Assertions.assertTrue(read.shuffle);
+        Assertions.assertEquals(12345, read.position);
+
+        Assertions.assertEquals(2, read.tracks.size());
+        Assertions.assertEquals(7, read.tracks.get(0).userId);
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, read.tracks.get(0).encodedTrack);
+        Assertions.assertNull(read.tracks.get(0).split);
+        PersistedGuild.Split split = read.tracks.get(1).split;
+        Assertions.assertNotNull(split);
+        Assertions.assertEquals("Intro", split.title);
+        Assertions.assertEquals(1000, split.startPosition);
+        Assertions.assertEquals(61000, split.endPosition);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testLegacyJsonIsNotBinary() {
+        Assertions.assertFalse(PersistedGuild.isBinaryFormat("{\"sources\":[]}".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertFalse(PersistedGuild.isBinaryFormat(new byte[0]));
+        bumpPassedTests();
+    }
+}
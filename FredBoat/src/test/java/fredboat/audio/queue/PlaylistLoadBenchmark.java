@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Measures the time from starting to load a playlist until its first track is in the queue, when the tracks are
+ * streamed into the queue in batches compared to adding them after all of them were resolved.
+ * <p>
+ * Resolving a track is simulated with a fixed delay, scaled down from what a search or a paste lookup takes.
+ * <p>
+ * Not a unit test, run the main method (or the jmh runner) to get the numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PlaylistLoadBenchmark {
+
+    private static final long RESOLVE_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    @Param({"100", "1000"})
+    public int playlistSize;
+
+    @Param({"streaming", "all_at_once"})
+    public String mode;
+
+    private List<AudioTrackContext> tracks;
+    private ExecutorService resolver;
+    private CompletableFuture<Void> loadDone;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PlaylistLoadBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tracks = TrackProviderBenchmark.createTracks(playlistSize, 1);
+        resolver = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        resolver.shutdownNow();
+    }
+
+    //the rest of the load is not part of the measurement, but must not overlap with the next one
+    @TearDown(Level.Invocation)
+    public void awaitLoad() {
+        loadDone.join();
+    }
+
+    @Benchmark
+    public AudioTrackContext timeToFirstAudio() {
+        ITrackProvider trackProvider = new SimpleTrackProvider();
+        CompletableFuture<AudioTrackContext> firstAudio = new CompletableFuture<>();
+        Consumer<List<AudioTrackContext>> enqueue = batch -> {
+            trackProvider.addAll(batch);
+            firstAudio.complete(trackProvider.peek());
+        };
+
+        switch (mode) {
+            case "streaming":
+                TrackBatcher<AudioTrackContext> batcher =
+                        new TrackBatcher<>(25, TimeUnit.SECONDS.toNanos(1), enqueue);
+                loadDone = CompletableFuture.runAsync(() -> {
+                    for (AudioTrackContext track : tracks) {
+                        LockSupport.parkNanos(RESOLVE_NANOS);
+                        batcher.add(track);
+                    }
+                    batcher.flush();
+                }, resolver);
+                break;
+            case "all_at_once":
+                loadDone = CompletableFuture.runAsync(() -> {
+                    List<AudioTrackContext> resolved = new ArrayList<>();
+                    for (AudioTrackContext track : tracks) {
+                        LockSupport.parkNanos(RESOLVE_NANOS);
+                        resolved.add(track);
+                    }
+                    enqueue.accept(resolved);
+                }, resolver);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+
+        return firstAudio.join();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TrackBatcherTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(TrackBatcherTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testFirstTrackIsPassedOnRightAway() {
+        List<List<Integer>> batches = new ArrayList<>();
+        TrackBatcher<Integer> batcher = new TrackBatcher<>(3, Long.MAX_VALUE, batches::add, () -> 0,
+                (flush, delayNanos) -> {
+                });
+
+        batcher.add(0);
+        Assertions.assertEquals(Collections.singletonList(Collections.singletonList(0)), batches);
+
+        batcher.add(1);
+        batcher.add(2);
+        Assertions.assertEquals(1, batches.size());
+        batcher.add(3);
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), batches.get(1));
+
+        //the rest is only passed on when flushing
+        batcher.add(4);
+        Assertions.assertEquals(2, batches.size());
+        batcher.flush();
+        Assertions.assertEquals(Collections.singletonList(4), batches.get(2));
+
+        //nothing left to flush
+        batcher.flush();
+        Assertions.assertEquals(3, batches.size());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testSlowTracksAreNotHeldBack() {
+        AtomicLong now = new AtomicLong();
+        List<List<Integer>> batches = new ArrayList<>();
+        TrackBatcher<Integer> batcher = new TrackBatcher<>(100, 1000, batches::add, now::get,
+                (flush, delayNanos) -> {
+                });
+
+        batcher.add(0);
+        now.addAndGet(500);
+        batcher.add(1);
+        now.addAndGet(499);
+        batcher.add(2);
+        Assertions.assertEquals(1, batches.size());
+
+        //the oldest waiting track arrived 1000 nanos ago
+        now.addAndGet(501);
+        batcher.add(3);
+        Assertions.assertEquals(Arrays.asList(1, 2, 3), batches.get(1));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testWaitingTracksAreFlushedWithoutNewArrivals() {
+        AtomicLong now = new AtomicLong();
+        FakeScheduler scheduler = new FakeScheduler(now);
+        List<List<Integer>> batches = new ArrayList<>();
+        TrackBatcher<Integer> batcher = new TrackBatcher<>(3, 1000, batches::add, now::get, scheduler);
+
+        batcher.add(0);
+        batcher.add(1);
+        now.addAndGet(999);
+        scheduler.runDue();
+        Assertions.assertEquals(1, batches.size());
+
+        //no further track arrives, the one waiting is passed on once it waited for the max delay
+        now.addAndGet(1);
+        scheduler.runDue();
+        Assertions.assertEquals(Collections.singletonList(1), batches.get(1));
+
+        //a batch that was flushed for being full is not flushed again by its delayed flush
+        batcher.add(2);
+        batcher.add(3);
+        batcher.add(4);
+        Assertions.assertEquals(Arrays.asList(2, 3, 4), batches.get(2));
+        now.addAndGet(500);
+        batcher.add(5);
+        now.addAndGet(500);
+        scheduler.runDue();
+        Assertions.assertEquals(3, batches.size());
+        now.addAndGet(500);
+        scheduler.runDue();
+        Assertions.assertEquals(Collections.singletonList(5), batches.get(3));
+        bumpPassedTests();
+    }
+
+    /**
+     * Runs the scheduled flushes when the test says so, going by the fake clock
+     */
+    private static class FakeScheduler implements TrackBatcher.FlushScheduler {
+        private final AtomicLong now;
+        private final List<Long> dueAt = new ArrayList<>();
+        private final List<Runnable> flushes = new ArrayList<>();
+
+        FakeScheduler(AtomicLong now) {
+            this.now = now;
+        }
+
+        @Override
+        public void schedule(Runnable flush, long delayNanos) {
+            dueAt.add(now.get() + delayNanos);
+            flushes.add(flush);
+        }
+
+        void runDue() {
+            for (int i = 0; i < flushes.size(); i++) {
+                if (dueAt.get(i) <= now.get()) {
+                    dueAt.remove(i);
+                    flushes.remove(i--).run();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the queue operations used by the list, skip and remove commands across track provider implementations.
+ * <p>
+ * Not a unit test, run the main method (or the jmh runner) to get the numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackProviderBenchmark {
+
+    private static final long RANGE_OWNER = 5;
+
+    @Param({"100", "1000", "10000"})
+    public int queueSize;
+
+    @Param({"simple", "indexed"})
+    public String provider;
+
+    private ITrackProvider trackProvider;
+    private List<Long> rangeTrackIds;
+    private AudioTrackContext extraTrack;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TrackProviderBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    /**
+     * @return tracks with distinct identifiers, every tenth of them being a stream, added by userCount different users
+     * in consecutive blocks, like playlists queued one after another
+     */
+    static List<AudioTrackContext> createTracks(int amount, int userCount) {
+        List<AudioTrackContext> tracks = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            AudioTrackInfo info = new AudioTrackInfo("Track " + i, "Benchmark", 180000 + i, "id" + i,
+                    i % 10 == 0, "https://www.youtube.com/watch?v=id" + i);
+            long userId = (long) i * userCount / amount;
+            tracks.add(new AudioTrackContext(new YoutubeAudioTrack(info, null), userId, 1L));
+        }
+        return tracks;
+    }
+
+    static ITrackProvider createProvider(String provider) {
+        switch (provider) {
+            case "simple":
+                return new SimpleTrackProvider();
+            case "indexed":
+                return new IndexedTrackProvider();
+            default:
+                throw new IllegalArgumentException("Unknown track provider " + provider);
+        }
+    }
+
+    //some benchmarks remove tracks, so rebuild the queue before each invocation
+    @Setup(Level.Invocation)
+    public void setUp() {
+        trackProvider = createProvider(provider);
+        List<AudioTrackContext> tracks = createTracks(queueSize, 10);
+        trackProvider.addAll(tracks);
+        extraTrack = createTracks(1, 1).get(0);
+
+        //the tenth of the queue following its middle, the kind of range passed to ;;skip n-m
+        //it is the block of tracks added by RANGE_OWNER
+        rangeTrackIds = new ArrayList<>();
+        for (int i = queueSize / 2; i < queueSize / 2 + queueSize / 10; i++) {
+            rangeTrackIds.add(tracks.get(i).getTrackId());
+        }
+    }
+
+    @Benchmark
+    public AudioTrackContext getTrackInTheMiddle() {
+        return trackProvider.getTrack(queueSize / 2);
+    }
+
+    @Benchmark
+    public List<AudioTrackContext> getListPageInTheMiddle() {
+        //one page of the list command
+        return trackProvider.getTracksInRange(queueSize / 2, queueSize / 2 + 10);
+    }
+
+    @Benchmark
+    public int removeRangeById() {
+        trackProvider.removeAllById(rangeTrackIds);
+        return trackProvider.size();
+    }
+
+    @Benchmark
+    public int rangeSkip() {
+        //what ;;skip n-m does to the queue for a user who is not a DJ
+        if (trackProvider.isUserTrackOwner(RANGE_OWNER, rangeTrackIds)) {
+            trackProvider.removeAllById(rangeTrackIds);
+        }
+        return trackProvider.size();
+    }
+
+    @Benchmark
+    public AudioTrackContext shuffledAddAndPeek() {
+        //adding a track while shuffle is on used to invalidate the whole shuffled order
+        ((AbstractTrackProvider) trackProvider).setShuffle(true);
+        trackProvider.add(extraTrack);
+        return trackProvider.peek();
+    }
+
+    @Benchmark
+    public int size() {
+        return trackProvider.size();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.queue;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TrackProviderModificationsTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(TrackProviderModificationsTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testSimpleTrackProvider() {
+        testModifications(new SimpleTrackProvider());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testIndexedTrackProvider() {
+        testModifications(new IndexedTrackProvider());
+        bumpPassedTests();
+    }
+
+    private void testModifications(AbstractTrackProvider trackProvider) {
+        List<AudioTrackContext> tracks = TrackProviderBenchmark.createTracks(10, 2);
+        long modifications = trackProvider.getModifications();
+
+        trackProvider.addAll(tracks.subList(0, 8));
+        modifications = assertModified(trackProvider, modifications);
+        trackProvider.add(tracks.get(8));
+        modifications = assertModified(trackProvider, modifications);
+
+        //reading doesn't change anything
+        trackProvider.getAsList();
+        trackProvider.getTracksInRange(0, 5);
+        trackProvider.peek();
+        trackProvider.size();
+        Assertions.assertEquals(modifications, trackProvider.getModifications());
+
+        trackProvider.provideAudioTrack();
+        modifications = assertModified(trackProvider, modifications);
+        trackProvider.remove(tracks.get(1));
+        modifications = assertModified(trackProvider, modifications);
+        trackProvider.removeAllById(Collections.singletonList(tracks.get(2).getTrackId()));
+        modifications = assertModified(trackProvider, modifications);
+        trackProvider.setShuffle(true);
+        modifications = assertModified(trackProvider, modifications);
+        trackProvider.reshuffle();
+        modifications = assertModified(trackProvider, modifications);
+        trackProvider.setRepeatMode(RepeatMode.ALL);
+        modifications = assertModified(trackProvider, modifications);
+        trackProvider.clear();
+        assertModified(trackProvider, modifications);
+    }
+
+    private long assertModified(ITrackProvider trackProvider, long before) {
+        long after = trackProvider.getModifications();
+        Assertions.assertTrue(after > before, "the queue changed, but its modifications didn't");
+        return after;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.audio.source;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PlaylistContentCacheTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(PlaylistContentCacheTest.class.getSimpleName());
+    }
+
+    //the caches get distinct names, their metrics can only be registered once
+
+    @Test
+    public void testFetchedOnceUntilExpired() throws Exception {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger fetches = new AtomicInteger();
+        PlaylistContentCache<String> cache = new PlaylistContentCache<>("test_expiry", 1000, 10, now::get);
+
+        Assertions.assertEquals("1", cache.get("a", () -> Integer.toString(fetches.incrementAndGet())));
+        now.addAndGet(999);
+        Assertions.assertEquals("1", cache.get("a", () -> Integer.toString(fetches.incrementAndGet())));
+        Assertions.assertEquals(1, fetches.get());
+
+        now.addAndGet(1);
+        Assertions.assertEquals("2", cache.get("a", () -> Integer.toString(fetches.incrementAndGet())));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testSizeIsBounded() throws Exception {
+        PlaylistContentCache<String> cache = new PlaylistContentCache<>("test_size", Long.MAX_VALUE, 2, () -> 0);
+
+        cache.get("a", () -> "a");
+        cache.get("b", () -> "b");
+        cache.get("c", () -> "c");
+        Assertions.assertEquals(2, cache.size());
+        //the oldest one was dropped
+        Assertions.assertEquals("fetched again", cache.get("a", () -> "fetched again"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        PlaylistContentCache<String> cache = new PlaylistContentCache<>("test_failures", Long.MAX_VALUE, 10, () -> 0);
+
+        Assertions.assertThrows(IOException.class, () -> cache.get("a", () -> {
+            throw new IOException("paste service is down");
+        }));
+        Assertions.assertEquals("a", cache.get("a", () -> "a"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testConcurrentLookupsShareTheFetch() throws Exception {
+        PlaylistContentCache<String> cache = new PlaylistContentCache<>("test_coalescing", Long.MAX_VALUE, 10, () -> 0);
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.get("a", () -> {
+                    fetches.incrementAndGet();
+                    fetching.countDown();
+                    release.await();
+                    return "a";
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        fetching.await();
+
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.get("a", () -> "fetched twice");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        //give the second lookup a moment to join the running fetch
+        Thread.sleep(100);
+        release.countDown();
+
+        Assertions.assertEquals("a", first.get());
+        Assertions.assertEquals("a", second.get());
+        Assertions.assertEquals(1, fetches.get());
+        bumpPassedTests();
+    }
+}
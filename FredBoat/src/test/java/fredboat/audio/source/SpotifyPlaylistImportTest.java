@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package fredboat.audio.source;
+
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import fredboat.ProvideJDASingleton;
+import fredboat.audio.queue.PlaylistInfo;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class SpotifyPlaylistImportTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(SpotifyPlaylistImportTest.class.getSimpleName());
+    }
+
+    //the pages are fetched right away on the calling thread, and the searches complete only when the test says so
+
+    @Test
+    public void testPlaylistOrderIsKept() throws Exception {
+        FakeSearch search = new FakeSearch();
+        List<String> delivered = new ArrayList<>();
+        SpotifyPlaylistImport spotifyImport = new SpotifyPlaylistImport(new FakePages(5), search, Runnable::run,
+                track -> delivered.add(track.getIdentifier()));
+        CompletableFuture<AudioPlaylist> result = spotifyImport.start();
+        Assertions.assertEquals(5, search.running());
+
+        search.complete("t4", true);
+        search.complete("t3", true);
+        search.complete("t2", false);
+        search.complete("t1", true);
+        //nothing can be handed out while the first track is missing
+        Assertions.assertTrue(delivered.isEmpty());
+        Assertions.assertFalse(result.isDone());
+
+        search.complete("t0", true);
+        Assertions.assertEquals(Arrays.asList("t0", "t1", "t3", "t4"), delivered);
+        Assertions.assertTrue(result.isDone());
+        Assertions.assertEquals(delivered, identifiers(result.get()));
+        Assertions.assertEquals(5, spotifyImport.getProcessedTracks());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testSearchesAreLimited() throws Exception {
+        FakeSearch search = new FakeSearch();
+        //more than a page of tracks
+        SpotifyPlaylistImport spotifyImport = new SpotifyPlaylistImport(new FakePages(250), search, Runnable::run,
+                track -> {
+                });
+        CompletableFuture<AudioPlaylist> result = spotifyImport.start();
+
+        while (search.running() > 0) {
+            Assertions.assertTrue(search.running() <= SpotifyPlaylistImport.MAX_SEARCHES_PER_IMPORT);
+            search.completeOldest();
+        }
+        Assertions.assertEquals(SpotifyPlaylistImport.MAX_SEARCHES_PER_IMPORT, search.maxRunning);
+        Assertions.assertEquals(250, search.started);
+        Assertions.assertEquals(250, result.get().getTracks().size());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testCancelCompletesWithDeliveredTracks() throws Exception {
+        FakeSearch search = new FakeSearch();
+        List<String> delivered = new ArrayList<>();
+        SpotifyPlaylistImport spotifyImport = new SpotifyPlaylistImport(new FakePages(20), search, Runnable::run,
+                track -> delivered.add(track.getIdentifier()));
+        CompletableFuture<AudioPlaylist> result = spotifyImport.start();
+
+        search.complete("t0", true);
+        search.complete("t1", true);
+        search.complete("t3", true);
+        int started = search.started;
+        spotifyImport.cancel();
+
+        Assertions.assertTrue(result.isDone());
+        Assertions.assertEquals(Arrays.asList("t0", "t1"), identifiers(result.get()));
+
+        //searches that were still running when cancelling are not handed out anymore, and no new ones are started
+        search.complete("t2", true);
+        Assertions.assertEquals(Arrays.asList("t0", "t1"), delivered);
+        Assertions.assertEquals(started, search.started);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testEmptyPlaylist() throws Exception {
+        FakeSearch search = new FakeSearch();
+        SpotifyPlaylistImport spotifyImport = new SpotifyPlaylistImport(new FakePages(0), search, Runnable::run,
+                track -> {
+                });
+        CompletableFuture<AudioPlaylist> result = spotifyImport.start();
+
+        Assertions.assertTrue(result.isDone());
+        Assertions.assertTrue(result.get().getTracks().isEmpty());
+        Assertions.assertEquals(0, search.started);
+        bumpPassedTests();
+    }
+
+    private static List<String> identifiers(AudioPlaylist playlist) {
+        return playlist.getTracks().stream().map(AudioTrack::getIdentifier).collect(Collectors.toList());
+    }
+
+    private static class FakePages implements SpotifyPlaylistImport.PageSource {
+        private final int size;
+
+        FakePages(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public PlaylistInfo getPlaylistData() {
+            return new PlaylistInfo(size, "Test playlist", PlaylistInfo.Source.SPOTIFY);
+        }
+
+        @Override
+        public List<String> getSearchTerms(int offset, int limit) {
+            List<String> terms = new ArrayList<>();
+            for (int i = offset; i < Math.min(size, offset + limit); i++) {
+                terms.add("t" + i);
+            }
+            return terms;
+        }
+    }
+
+    private static class FakeSearch implements Function<String, CompletableFuture<AudioTrack>> {
+        //running searches by their search term, in the order they were started
+        private final Map<String, CompletableFuture<AudioTrack>> running = new LinkedHashMap<>();
+        int started = 0;
+        int maxRunning = 0;
+
+        @Override
+        public CompletableFuture<AudioTrack> apply(String query) {
+            CompletableFuture<AudioTrack> search = new CompletableFuture<>();
+            running.put(query, search);
+            started++;
+            maxRunning = Math.max(maxRunning, running.size());
+            return search;
+        }
+
+        int running() {
+            return running.size();
+        }
+
+        void complete(String query, boolean found) {
+            CompletableFuture<AudioTrack> search = running.remove(query);
+            Assertions.assertNotNull(search, "No search running for " + query);
+            search.complete(found ? createTrack(query) : null);
+        }
+
+        void completeOldest() {
+            complete(running.keySet().iterator().next(), true);
+        }
+
+        private static AudioTrack createTrack(String identifier) {
+            AudioTrackInfo info = new AudioTrackInfo("Track " + identifier, "Channel", 180000, identifier, false,
+                    "https://www.youtube.com/watch?v=" + identifier);
+            return new YoutubeAudioTrack(info, null);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.ProvideJDASingleton;
+import fredboat.db.entity.IEntity;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class EntityWriteQueueTest extends ProvideJDASingleton {
+
+    //long enough for the background thread to never get to a batch during a test
+    private static final long COALESCE_MILLIS = 60000;
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(EntityWriteQueueTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testCoalescing() {
+        List<List<EntityWriteQueue.Op>> batches = new ArrayList<>();
+        EntityWriteQueue queue = new EntityWriteQueue(batches::add, 10, COALESCE_MILLIS);
+
+        TestEntity first = new TestEntity("1");
+        TestEntity second = new TestEntity("1");
+        CompletableFuture<Void> f1 = queue.merge(first);
+        CompletableFuture<Void> f2 = queue.merge(new TestEntity("2"));
+        CompletableFuture<Void> f3 = queue.merge(second);
+
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertSame(second, queue.getPending(TestEntity.class, "1").getEntity());
+        Assertions.assertTrue(queue.flush(1000));
+
+        Assertions.assertEquals(1, batches.size());
+        Assertions.assertEquals(2, batches.get(0).size());
+        Assertions.assertSame(second, batches.get(0).get(0).getEntity());
+        Assertions.assertTrue(f1.isDone() && f2.isDone() && f3.isDone());
+        Assertions.assertNull(queue.getPending(TestEntity.class, "1"));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testRetryWhenDatabaseNotReady() {
+        List<List<EntityWriteQueue.Op>> batches = new ArrayList<>();
+        boolean[] available = {false};
+        EntityWriteQueue queue = new EntityWriteQueue(batch -> {
+            if (!available[0]) throw new DatabaseNotReadyException();
+            batches.add(batch);
+        }, 10, COALESCE_MILLIS);
+
+        CompletableFuture<Void> merge = queue.merge(new TestEntity("1"));
+        Assertions.assertFalse(queue.flush(100));
+        Assertions.assertFalse(merge.isDone());
+        Assertions.assertNotNull(queue.getPending(TestEntity.class, "1"));
+
+        //a delete queued meanwhile supersedes the merge that is waiting for a retry
+        CompletableFuture<Void> delete = queue.delete(TestEntity.class, "1");
+        available[0] = true;
+        Assertions.assertTrue(queue.flush(1000));
+        Assertions.assertEquals(1, batches.size());
+        Assertions.assertTrue(batches.get(0).get(0).isDelete());
+        Assertions.assertTrue(merge.isDone() && !merge.isCompletedExceptionally());
+        Assertions.assertTrue(delete.isDone() && !delete.isCompletedExceptionally());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testFailingEntityIsDropped() {
+        List<String> written = new ArrayList<>();
+        EntityWriteQueue queue = new EntityWriteQueue(batch -> {
+            for (EntityWriteQueue.Op op : batch) {
+                if (op.getEntity().getEntityId().equals("bad")) throw new IllegalStateException("constraint violated");
+            }
+            batch.forEach(op -> written.add(op.getEntity().getEntityId()));
+        }, 10, COALESCE_MILLIS);
+
+        CompletableFuture<Void> good1 = queue.merge(new TestEntity("good1"));
+        CompletableFuture<Void> bad = queue.merge(new TestEntity("bad"));
+        CompletableFuture<Void> good2 = queue.merge(new TestEntity("good2"));
+        Assertions.assertTrue(queue.flush(1000));
+
+        Assertions.assertEquals(2, written.size());
+        Assertions.assertTrue(good1.isDone() && !good1.isCompletedExceptionally());
+        Assertions.assertTrue(good2.isDone() && !good2.isCompletedExceptionally());
+        Assertions.assertTrue(bad.isCompletedExceptionally());
+        bumpPassedTests();
+    }
+
+    private static class TestEntity implements IEntity {
+        private String id;
+
+        TestEntity(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getEntityId() {
+            return id;
+        }
+    }
+}
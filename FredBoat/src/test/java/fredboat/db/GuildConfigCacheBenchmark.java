@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.Config;
+import fredboat.db.entity.GuildConfig;
+import fredboat.feature.I18n;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.persistence.EntityManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Compares resolving the language of a guild, what I18n.get(guild) does for every reply, with and without the guild
+ * config cache.
+ * <p>
+ * The uncached lookup is the read path EntityReader took before the cache: an EntityManager and a transaction for each
+ * lookup, against a SQLite database like the one selfhosters run on, with hibernate's second level cache enabled. Both
+ * lookups run from several threads, like the shards do.
+ * <p>
+ * Not a unit test, run the main method (or the jmh runner) to get the numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class GuildConfigCacheBenchmark {
+
+    private static final int GUILD_COUNT = 10000;
+
+    @Param({"direct", "cached"})
+    public String lookup;
+
+    private File dbDir;
+    private DatabaseManager dbManager;
+    private LongFunction<GuildConfig> guildConfigs;
+    private long[] guildIds;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GuildConfigCacheBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        I18n.start();
+        List<String> langs = new ArrayList<>(I18n.LANGS.keySet());
+
+        //the database manager reads the config, a development one doesn't talk to discord
+        dbDir = Files.createTempDirectory("guild-config-benchmark").toFile();
+        File credentials = new File(dbDir, "credentials.yaml");
+        File config = new File(dbDir, "config.yaml");
+        Files.write(credentials.toPath(), "token:\n  beta: benchmark\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(config.toPath(), "development: true\n".getBytes(StandardCharsets.UTF_8));
+        Config.CONFIG = new Config(credentials, config, 0x111);
+
+        dbManager = new DatabaseManager("jdbc:sqlite:" + new File(dbDir, "fredboat.db").getAbsolutePath(),
+                "org.hibernate.dialect.SQLiteDialect", 1);
+        dbManager.startup();
+
+        guildIds = new long[GUILD_COUNT];
+        EntityManager em = dbManager.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (int i = 0; i < GUILD_COUNT; i++) {
+                //snowflake-like ids, spread over a few years
+                long guildId = ((long) i * 1000003L) << 22;
+                GuildConfig guildConfig = new GuildConfig(Long.toString(guildId));
+                guildConfig.setLang(langs.get(i % langs.size()));
+                em.persist(guildConfig);
+                guildIds[i] = guildId;
+            }
+            em.getTransaction().commit();
+        } finally {
+            em.close();
+        }
+
+        LongFunction<GuildConfig> direct = guildId ->
+                EntityReader.loadEntity(dbManager, Long.toString(guildId), GuildConfig.class);
+
+        switch (lookup) {
+            case "direct":
+                guildConfigs = direct;
+                break;
+            case "cached":
+                GuildConfigCache cache = new GuildConfigCache(direct, Runnable::run, GUILD_COUNT * 2,
+                        TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(10));
+                guildConfigs = cache::get;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown lookup " + lookup);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dbManager.shutdown();
+        File[] files = dbDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dbDir.delete();
+    }
+
+    @Benchmark
+    public ResourceBundle resolveGuildLanguage() {
+        long guildId = guildIds[ThreadLocalRandom.current().nextInt(GUILD_COUNT)];
+        GuildConfig config = guildConfigs.apply(guildId);
+        return I18n.LANGS.getOrDefault(config.getLang(), I18n.DEFAULT).getProps();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db;
+
+import fredboat.ProvideJDASingleton;
+import fredboat.db.entity.GuildConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GuildConfigCacheTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(GuildConfigCacheTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testHitsAndEviction() {
+        AtomicInteger loads = new AtomicInteger();
+        GuildConfigCache cache = new GuildConfigCache(guildId -> {
+            loads.incrementAndGet();
+            return new GuildConfig(Long.toString(guildId));
+        }, Runnable::run, 1, 2, 60000, 120000);
+
+        GuildConfig first = cache.get(1);
+        Assertions.assertSame(first, cache.get(1));
+        Assertions.assertEquals(1, loads.get());
+
+        cache.get(2);
+        cache.get(1); //2 is now the least recently used one
+        cache.get(3);
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(3, loads.get());
+
+        Assertions.assertSame(first, cache.get(1));
+        cache.get(2);
+        Assertions.assertEquals(4, loads.get());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testPartitionsShareTheMaxSize() {
+        AtomicInteger loads = new AtomicInteger();
+        GuildConfigCache cache = new GuildConfigCache(guildId -> {
+            loads.incrementAndGet();
+            return new GuildConfig(Long.toString(guildId));
+        }, Runnable::run, 4, 40, 60000, 120000);
+
+        for (long guildId = 0; guildId < 1000; guildId++) {
+            cache.get(guildId << 22);
+        }
+        Assertions.assertTrue(cache.size() <= 40);
+        Assertions.assertTrue(cache.size() > 0);
+
+        //the most recently used guild of each partition is still there
+        loads.set(0);
+        cache.get(999L << 22);
+        Assertions.assertEquals(0, loads.get());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testPutReplacesCachedConfig() {
+        GuildConfigCache cache = new GuildConfigCache(guildId -> new GuildConfig(Long.toString(guildId)),
+                Runnable::run, 10, 60000, 120000);
+
+        cache.get(1);
+        GuildConfig written = new GuildConfig("1");
+        written.setLang("de_DE");
+        cache.put(1, written);
+        Assertions.assertSame(written, cache.get(1));
+
+        //warming up doesn't replace what is cached
+        cache.putIfAbsent(1, new GuildConfig("1"));
+        Assertions.assertSame(written, cache.get(1));
+
+        cache.invalidate(1);
+        Assertions.assertEquals("en_US", cache.get(1).getLang());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testRefreshAhead() {
+        List<Runnable> scheduled = new ArrayList<>();
+        AtomicInteger loads = new AtomicInteger();
+        //everything is due for a refresh right away, but never expires
+        GuildConfigCache cache = new GuildConfigCache(guildId -> {
+            loads.incrementAndGet();
+            return new GuildConfig(Long.toString(guildId));
+        }, scheduled::add, 10, 0, Long.MAX_VALUE);
+
+        GuildConfig first = cache.get(1);
+        Assertions.assertSame(first, cache.get(1));
+        Assertions.assertSame(first, cache.get(1));
+        //the stale config is served and only one refresh is scheduled
+        Assertions.assertEquals(1, scheduled.size());
+        Assertions.assertEquals(1, loads.get());
+
+        scheduled.get(0).run();
+        Assertions.assertEquals(2, loads.get());
+        Assertions.assertNotSame(first, cache.get(1));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testRefreshDoesNotOverwriteNewerWrite() {
+        List<Runnable> scheduled = new ArrayList<>();
+        GuildConfigCache cache = new GuildConfigCache(guildId -> new GuildConfig(Long.toString(guildId)),
+                scheduled::add, 10, 0, Long.MAX_VALUE);
+
+        cache.get(1);
+        cache.get(1);
+        GuildConfig written = new GuildConfig("1");
+        cache.put(1, written);
+
+        //the reload started before the write, its result is outdated
+        scheduled.get(0).run();
+        Assertions.assertSame(written, cache.get(1));
+        bumpPassedTests();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.db.entity;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.util.rest.SearchUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares what loading a cached search result costs, once it has been found, for the old java serialized format,
+ * the binary format and the in-memory results.
+ * <p>
+ * The database round trip is left out, the memory tier saves that on top.
+ * <p>
+ * Not a unit test, run the main method (or the jmh runner) to get the numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchResultBenchmark {
+
+    private static final String SEARCH_TERM = "benchmark";
+
+    @Param({"legacy", "binary", "memory"})
+    public String format;
+
+    private AudioPlayerManager playerManager;
+    private byte[] serialized;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SearchResultBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    @Setup
+    public void setUp() {
+        DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
+        YoutubeAudioSourceManager youtube = new YoutubeAudioSourceManager();
+        manager.registerSourceManager(youtube);
+        playerManager = manager;
+
+        //what a youtube search returns
+        List<AudioTrack> tracks = new ArrayList<>();
+        for (int i = 0; i < SearchUtil.MAX_RESULTS; i++) {
+            String identifier = "dQw4w9WgXc" + i;
+            AudioTrackInfo info = new AudioTrackInfo("Benchmark track number " + i + " (Official Video)",
+                    "Benchmark Channel", 213000 + i, identifier, false,
+                    "https://www.youtube.com/watch?v=" + identifier);
+            tracks.add(new YoutubeAudioTrack(info, youtube));
+        }
+        AudioPlaylist searchResult = new BasicAudioPlaylist("Search results for: " + SEARCH_TERM, tracks, null, true);
+
+        switch (format) {
+            case "legacy":
+                serialized = SearchResult.encodeLegacy(playerManager, searchResult);
+                break;
+            case "binary":
+                serialized = SearchResult.encode(playerManager, searchResult);
+                break;
+            case "memory":
+                try {
+                    new SearchResult(playerManager, SearchUtil.SearchProvider.YOUTUBE, SEARCH_TERM, searchResult).save();
+                } catch (RuntimeException ignored) {
+                    //there is no database, the result is remembered before saving it is attempted
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    @Benchmark
+    public AudioPlaylist load() {
+        if (serialized == null) {
+            return SearchResult.load(playerManager, SearchUtil.SearchProvider.YOUTUBE, SEARCH_TERM,
+                    SearchUtil.DEFAULT_CACHE_MAX_AGE);
+        } else {
+            return SearchResult.decode(playerManager, serialized);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.metrics;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(MetricsTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testScrapeFormat() {
+        Counter hits = Metrics.counter("test_cache_total", "Cache lookups", "result", "hit");
+        Counter misses = Metrics.counter("test_cache_total", "Cache lookups", "result", "miss");
+        Histogram sizes = Metrics.histogram("test_sizes", "Sizes", new double[]{10, 1});
+        hits.inc();
+        hits.inc(2);
+        misses.inc();
+        sizes.observe(0.5);
+        sizes.observe(5);
+        sizes.observe(50);
+
+        String scrape = Metrics.scrape();
+        Assertions.assertTrue(scrape.contains("# HELP test_cache_total Cache lookups\n"
+                + "# TYPE test_cache_total counter\n"
+                + "test_cache_total{result=\"hit\"} 3\n"
+                + "test_cache_total{result=\"miss\"} 1\n"), scrape);
+        Assertions.assertTrue(scrape.contains("# TYPE test_sizes histogram\n"
+                + "test_sizes_bucket{le=\"1\"} 1\n"
+                + "test_sizes_bucket{le=\"10\"} 2\n"
+                + "test_sizes_bucket{le=\"+Inf\"} 3\n"
+                + "test_sizes_sum 55.5\n"
+                + "test_sizes_count 3\n"), scrape);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testFamily() {
+        MetricFamily<Counter> family = Metrics.counterFamily("test_family_total", "Family", "name");
+        family.get("a").inc();
+        family.get("a").inc();
+        family.get("b\"").inc();
+
+        Assertions.assertSame(family.get("a"), family.get("a"));
+        String scrape = Metrics.scrape();
+        Assertions.assertTrue(scrape.contains("test_family_total{name=\"a\"} 2\n"), scrape);
+        Assertions.assertTrue(scrape.contains("test_family_total{name=\"b\\\"\"} 1\n"), scrape);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testDuplicateRegistration() {
+        Metrics.counter("test_duplicate_total", "Duplicate", "x", "1");
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> Metrics.counter("test_duplicate_total", "Duplicate", "x", "1"));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> Metrics.gauge("test_duplicate_total", "Duplicate", () -> 1));
+        bumpPassedTests();
+    }
+}
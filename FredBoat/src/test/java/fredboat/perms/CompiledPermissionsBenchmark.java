@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.perms;
+
+import fredboat.db.entity.GuildPermissions;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares resolving the permission level of a member from the string lists of {@link GuildPermissions}, the way
+ * PermsUtil used to, against {@link CompiledPermissions}.
+ * <p>
+ * The member holds a handful of roles of a guild with many, none of them in the admin or DJ lists, so both lists are
+ * gone through before @everyone makes them a user. Loading the permissions from the database, which the string lists
+ * also needed, is left out.
+ * <p>
+ * Not a unit test, run the main method (or the jmh runner) to get the numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledPermissionsBenchmark {
+
+    private static final long GUILD_ID = 174820236481134592L;
+    private static final long USER_ID = 166604053629894657L;
+    private static final int MEMBER_ROLE_COUNT = 10;
+
+    @Param({"100", "500"})
+    public int roleCount;
+
+    //stand ins for the role cache of a guild and the roles of a member
+    private Long2ObjectOpenHashMap<BenchmarkRole> guildRoles;
+    private List<BenchmarkRole> memberRoles;
+    private long[] memberRoleIds;
+
+    private GuildPermissions guildPermissions;
+    private CompiledPermissions compiledPermissions;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CompiledPermissionsBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    @Setup
+    public void setUp() {
+        guildRoles = new Long2ObjectOpenHashMap<>();
+        List<String> roleIds = new ArrayList<>();
+        guildRoles.put(GUILD_ID, new BenchmarkRole(GUILD_ID, true));
+        for (int i = 1; i <= roleCount; i++) {
+            long roleId = GUILD_ID + i;
+            guildRoles.put(roleId, new BenchmarkRole(roleId, false));
+            roleIds.add(Long.toString(roleId));
+        }
+
+        //the last roles of the guild, the admin and dj roles are the first ones
+        memberRoles = new ArrayList<>();
+        memberRoleIds = new long[MEMBER_ROLE_COUNT];
+        for (int i = 0; i < MEMBER_ROLE_COUNT; i++) {
+            long roleId = GUILD_ID + roleCount - i;
+            memberRoles.add(guildRoles.get(roleId));
+            memberRoleIds[i] = roleId;
+        }
+
+        guildPermissions = new GuildPermissions();
+        guildPermissions.setId(Long.toString(GUILD_ID));
+        guildPermissions.setAdminList(roleIds.subList(0, 5));
+        List<String> djList = new ArrayList<>(roleIds.subList(5, 25));
+        djList.add(Long.toString(USER_ID + 1));
+        guildPermissions.setDjList(djList);
+        compiledPermissions = CompiledPermissions.compile(guildPermissions);
+    }
+
+    @Benchmark
+    public PermissionLevel stringLists() {
+        String userId = Long.toString(USER_ID);
+        if (checkList(guildPermissions.getAdminList(), userId)) return PermissionLevel.ADMIN;
+        if (checkList(guildPermissions.getDjList(), userId)) return PermissionLevel.DJ;
+        if (checkList(guildPermissions.getUserList(), userId)) return PermissionLevel.USER;
+        return PermissionLevel.BASE;
+    }
+
+    @Benchmark
+    public PermissionLevel compiled() {
+        return compiledPermissions.getLevel(USER_ID, memberRoleIds);
+    }
+
+    //what PermsUtil.checkList does, with Guild#getRoleById parsing the id and looking it up in the role cache
+    private boolean checkList(List<String> list, String userId) {
+        for (String id : list) {
+            if (id.isEmpty()) continue;
+
+            if (id.equals(userId)) return true;
+
+            BenchmarkRole role = guildRoles.get(Long.parseLong(id));
+            if (role != null && (role.publicRole || memberRoles.contains(role)))
+                return true;
+        }
+        return false;
+    }
+
+    private static final class BenchmarkRole {
+        private final long id;
+        private final boolean publicRole;
+
+        private BenchmarkRole(long id, boolean publicRole) {
+            this.id = id;
+            this.publicRole = publicRole;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof BenchmarkRole && ((BenchmarkRole) obj).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id);
+        }
+    }
+}
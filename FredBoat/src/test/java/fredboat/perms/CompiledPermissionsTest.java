@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.perms;
+
+import fredboat.ProvideJDASingleton;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class CompiledPermissionsTest extends ProvideJDASingleton {
+
+    private static final long GUILD_ID = 174820236481134592L;
+    private static final long USER_ID = 166604053629894657L;
+    private static final long ROLE_ID = 318730262314834812L;
+    private static final long OTHER_ROLE_ID = 318730262314834813L;
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(CompiledPermissionsTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testDefaults() {
+        //what a guild starts out with, @everyone is a DJ and a user
+        CompiledPermissions compiled = new CompiledPermissions(GUILD_ID, Collections.singletonList(""),
+                Collections.singletonList(Long.toString(GUILD_ID)), Collections.singletonList(Long.toString(GUILD_ID)));
+
+        Assertions.assertEquals(PermissionLevel.DJ, compiled.getLevel(USER_ID, new long[0]));
+        Assertions.assertEquals(PermissionLevel.DJ, compiled.getLevel(USER_ID, new long[]{ROLE_ID}));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testUsersAndRoles() {
+        CompiledPermissions compiled = new CompiledPermissions(GUILD_ID,
+                Collections.singletonList(Long.toString(USER_ID)),
+                Arrays.asList(Long.toString(ROLE_ID), "not an id"),
+                Collections.singletonList(Long.toString(GUILD_ID)));
+
+        Assertions.assertEquals(PermissionLevel.ADMIN, compiled.getLevel(USER_ID, new long[]{ROLE_ID}));
+        Assertions.assertEquals(PermissionLevel.DJ, compiled.getLevel(USER_ID + 1, new long[]{OTHER_ROLE_ID, ROLE_ID}));
+        Assertions.assertEquals(PermissionLevel.USER, compiled.getLevel(USER_ID + 1, new long[]{OTHER_ROLE_ID}));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testBase() {
+        CompiledPermissions compiled = new CompiledPermissions(GUILD_ID, Collections.emptyList(),
+                Collections.singletonList(Long.toString(ROLE_ID)), Collections.singletonList(""));
+
+        Assertions.assertEquals(PermissionLevel.BASE, compiled.getLevel(USER_ID, new long[]{OTHER_ROLE_ID}));
+        Assertions.assertEquals(PermissionLevel.BASE, compiled.getLevel(USER_ID, new long[0]));
+        bumpPassedTests();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BasicAudioPlaylist;
+import fredboat.ProvideJDASingleton;
+import fredboat.util.rest.SearchUtil.SearchProvider;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+public class SearchUtilTest extends ProvideJDASingleton {
+
+    //soundcloud, because youtube may fall back to the youtube api depending on the config
+    private static final List<SearchProvider> PROVIDERS = Collections.singletonList(SearchProvider.SOUNDCLOUD);
+
+    private BiFunction<String, AudioLoadResultHandler, Future<Void>> originalLoader;
+    private FakeLoader loader;
+
+    @BeforeEach
+    public void setUpLoader() {
+        originalLoader = SearchUtil.lavaplayerLoader;
+        loader = new FakeLoader();
+        SearchUtil.lavaplayerLoader = loader;
+    }
+
+    @AfterEach
+    public void restoreLoader() {
+        SearchUtil.lavaplayerLoader = originalLoader;
+    }
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(SearchUtilTest.class.getSimpleName());
+    }
+
+    @Test
+    public void testNormalizeQuery() {
+        Assertions.assertEquals("rick astley never gonna give you up",
+                SearchUtil.normalizeQuery("  Rick Astley -  Never Gonna Give You Up!"));
+        Assertions.assertEquals(SearchUtil.normalizeQuery("acdc thunderstruck"),
+                SearchUtil.normalizeQuery("AC/DC: Thunderstruck"));
+        //nothing left after stripping the punctuation
+        Assertions.assertEquals("!!!", SearchUtil.normalizeQuery(" !!! "));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testCoalescesIdenticalSearches() throws Exception {
+        CompletableFuture<AudioPlaylist> first = search("Coalesce Me");
+        CompletableFuture<AudioPlaylist> second = search("coalesce me!");
+        CompletableFuture<AudioPlaylist> third = search("COALESCE   me");
+
+        loader.awaitStarted("scsearch:Coalesce Me").playlistLoaded(playlist(2));
+
+        AudioPlaylist firstResult = first.get(5, TimeUnit.SECONDS);
+        AudioPlaylist secondResult = second.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(2, firstResult.getTracks().size());
+        Assertions.assertEquals(2, secondResult.getTracks().size());
+        Assertions.assertEquals(2, third.get(5, TimeUnit.SECONDS).getTracks().size());
+        Assertions.assertEquals(1, loader.startedCount());
+        //every caller gets tracks of their own
+        Assertions.assertNotSame(firstResult.getTracks().get(0), secondResult.getTracks().get(0));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testOneCallerCancellingKeepsTheSearchRunning() throws Exception {
+        CompletableFuture<AudioPlaylist> first = search("keep running");
+        CompletableFuture<AudioPlaylist> second = search("keep running");
+        AudioLoadResultHandler handler = loader.awaitStarted("scsearch:keep running");
+
+        first.cancel(true);
+        Assertions.assertFalse(loader.isCancelled("scsearch:keep running"));
+
+        handler.playlistLoaded(playlist(1));
+        Assertions.assertEquals(1, second.get(5, TimeUnit.SECONDS).getTracks().size());
+        Assertions.assertEquals(1, loader.startedCount());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testAllCallersCancellingCancelsTheSearchWithoutRememberingNoMatch() throws Exception {
+        CompletableFuture<AudioPlaylist> first = search("cancel me");
+        CompletableFuture<AudioPlaylist> second = search("cancel me");
+        loader.awaitStarted("scsearch:cancel me");
+
+        first.cancel(true);
+        second.cancel(true);
+        Assertions.assertTrue(loader.isCancelled("scsearch:cancel me"));
+
+        //nobody said there are no matches, so searching again asks the provider again
+        CompletableFuture<AudioPlaylist> again = search("cancel me");
+        loader.awaitStarted("scsearch:cancel me").playlistLoaded(playlist(1));
+        Assertions.assertEquals(1, again.get(5, TimeUnit.SECONDS).getTracks().size());
+        Assertions.assertEquals(2, loader.startedCount());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testCallersDontContinueOnTheSearchingThread() throws Exception {
+        CompletableFuture<AudioPlaylist> result = search("somewhere else");
+        CompletableFuture<Thread> continuedOn = result.thenApply(list -> Thread.currentThread());
+
+        //the test thread stands in for the lavaplayer or timeout thread that answers the search
+        loader.awaitStarted("scsearch:somewhere else").playlistLoaded(playlist(1));
+        Assertions.assertNotSame(Thread.currentThread(), continuedOn.get(5, TimeUnit.SECONDS));
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testNoMatchesAreRemembered() throws Exception {
+        CompletableFuture<AudioPlaylist> first = search("nothing to find here");
+        loader.awaitStarted("scsearch:nothing to find here").noMatches();
+        Assertions.assertTrue(first.get(5, TimeUnit.SECONDS).getTracks().isEmpty());
+
+        CompletableFuture<AudioPlaylist> second = search("Nothing to find, here");
+        Assertions.assertTrue(second.isDone());
+        Assertions.assertTrue(second.get().getTracks().isEmpty());
+        Assertions.assertEquals(1, loader.startedCount());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testNoMatchCacheExpiry() {
+        AtomicLong now = new AtomicLong(1000);
+        NoMatchCache cache = new NoMatchCache(5000, 2, now::get);
+
+        cache.add("a");
+        Assertions.assertTrue(cache.contains("a"));
+        Assertions.assertFalse(cache.contains("b"));
+
+        now.addAndGet(4999);
+        Assertions.assertTrue(cache.contains("a"));
+        now.addAndGet(1);
+        Assertions.assertFalse(cache.contains("a"));
+        Assertions.assertEquals(0, cache.size());
+
+        //bounded, the oldest entry goes first
+        cache.add("a");
+        cache.add("b");
+        cache.add("c");
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertFalse(cache.contains("a"));
+        Assertions.assertTrue(cache.contains("c"));
+        bumpPassedTests();
+    }
+
+    private static CompletableFuture<AudioPlaylist> search(String query) {
+        return SearchUtil.searchForTracks(query, 0, 10000, PROVIDERS);
+    }
+
+    private static AudioPlaylist playlist(int size) {
+        List<AudioTrack> tracks = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            AudioTrackInfo info = new AudioTrackInfo("Track " + i, "Search", 180000, "id" + i, false,
+                    "https://www.youtube.com/watch?v=id" + i);
+            tracks.add(new YoutubeAudioTrack(info, null));
+        }
+        return new BasicAudioPlaylist("Search results", tracks, null, true);
+    }
+
+    /**
+     * Stands in for lavaplayer, the test answers the loads itself
+     */
+    private static class FakeLoader implements BiFunction<String, AudioLoadResultHandler, Future<Void>> {
+        private final Map<String, AudioLoadResultHandler> handlers = new ConcurrentHashMap<>();
+        private final Map<String, CompletableFuture<Void>> loads = new ConcurrentHashMap<>();
+        private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public Future<Void> apply(String identifier, AudioLoadResultHandler handler) {
+            CompletableFuture<Void> load = new CompletableFuture<>();
+            loads.put(identifier, load);
+            handlers.put(identifier, handler);
+            started.add(identifier);
+            return load;
+        }
+
+        //searches start their loads in the background, after looking into the cache
+        AudioLoadResultHandler awaitStarted(String identifier) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline) {
+                AudioLoadResultHandler handler = handlers.remove(identifier);
+                if (handler != null) {
+                    return handler;
+                }
+                Thread.sleep(10);
+            }
+            throw new AssertionError("No load of " + identifier + " was started");
+        }
+
+        boolean isCancelled(String identifier) {
+            return loads.get(identifier).isCancelled();
+        }
+
+        int startedCount() {
+            return started.size();
+        }
+    }
+}
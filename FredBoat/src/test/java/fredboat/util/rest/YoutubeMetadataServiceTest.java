@@ -0,0 +1,242 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.util.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fredboat.ProvideJDASingleton;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the service against a local stand in for the Youtube Data API that knows the videos a to z
+ */
+public class YoutubeMetadataServiceTest extends ProvideJDASingleton {
+
+    @AfterAll
+    public static void postStats() {
+        saveClassStats(YoutubeMetadataServiceTest.class.getSimpleName());
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+    //the ids parameter of every request to the videos endpoint
+    private final List<String> videoRequests = new CopyOnWriteArrayList<>();
+    private final List<String> channelRequests = new CopyOnWriteArrayList<>();
+    private volatile long responseDelayMillis = 0;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/youtube/v3/videos", exchange -> {
+            String ids = queryParam(exchange, "id");
+            videoRequests.add(ids);
+            JSONArray items = new JSONArray();
+            for (String id : ids.split(",")) {
+                if (id.length() == 1 && Character.isLowerCase(id.charAt(0))) {
+                    items.put(video(id));
+                }
+            }
+            respond(exchange, new JSONObject().put("items", items));
+        });
+        server.createContext("/youtube/v3/channels", exchange -> {
+            String id = queryParam(exchange, "id");
+            channelRequests.add(id);
+            JSONObject thumbnails = new JSONObject()
+                    .put("default", new JSONObject().put("url", "https://thumbs.example/" + id + ".jpg"));
+            JSONObject channel = new JSONObject().put("snippet", new JSONObject().put("thumbnails", thumbnails));
+            respond(exchange, new JSONObject().put("items", new JSONArray().put(channel)));
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/youtube/v3";
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testVideosAreLookedUpInOneRequest() {
+        YoutubeMetadataService service = new YoutubeMetadataService(baseUrl, () -> "key", 60000, 100);
+
+        Map<String, YoutubeVideo> videos = service.getVideos(Arrays.asList("c", "a", "B", "b"));
+        Assertions.assertEquals(1, videoRequests.size());
+        //unknown videos are left out, the order is kept
+        Assertions.assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<>(videos.keySet()));
+        YoutubeVideo a = videos.get("a");
+        Assertions.assertEquals("Video a", a.getName());
+        Assertions.assertEquals("Channel a", a.getChannelTitle());
+        Assertions.assertEquals((3 * 60 + 33) * 1000, a.getDurationInMillis());
+
+        //cached now, only the new one is requested
+        Assertions.assertSame(a, service.getVideo("a"));
+        service.getVideos(Arrays.asList("a", "b", "d"));
+        Assertions.assertEquals(Arrays.asList("c,a,B,b", "d"), videoRequests);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testLargeLookupsAreSplitIntoBatches() {
+        YoutubeMetadataService service = new YoutubeMetadataService(baseUrl, () -> "key", 60000, 1000);
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < YoutubeMetadataService.MAX_IDS_PER_REQUEST * 2 + 1; i++) {
+            ids.add("id" + i);
+        }
+        service.getVideos(ids);
+        Assertions.assertEquals(3, videoRequests.size());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testConcurrentLookupsShareARequest() throws Exception {
+        YoutubeMetadataService service = new YoutubeMetadataService(baseUrl, () -> "key", 60000, 100);
+        responseDelayMillis = 300;
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<YoutubeVideo>> lookups = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                lookups.add(executor.submit(() -> service.getVideo("x")));
+            }
+            for (Future<YoutubeVideo> lookup : lookups) {
+                Assertions.assertEquals("x", lookup.get().getId());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assertions.assertEquals(Collections.singletonList("x"), videoRequests);
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testEntriesExpire() throws InterruptedException {
+        YoutubeMetadataService service = new YoutubeMetadataService(baseUrl, () -> "key", 50, 100);
+
+        service.getVideo("a");
+        service.getVideo("a");
+        Assertions.assertEquals(1, videoRequests.size());
+
+        Thread.sleep(100);
+        service.getVideo("a");
+        Assertions.assertEquals(2, videoRequests.size());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testChannelThumbnailsAreCached() {
+        YoutubeMetadataService service = new YoutubeMetadataService(baseUrl, () -> "key", 60000, 100);
+
+        YoutubeVideo video = service.getVideo("a");
+        Assertions.assertEquals("https://thumbs.example/channel-a.jpg", service.getChannelThumbUrl(video.getChannelId()));
+        Assertions.assertEquals("https://thumbs.example/channel-a.jpg", service.getChannelThumbUrl(video.getChannelId()));
+        Assertions.assertEquals(1, channelRequests.size());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testMissingChannelHasNoThumbnail() {
+        YoutubeMetadataService service = new YoutubeMetadataService(baseUrl, () -> "key", 60000, 100);
+
+        Assertions.assertNull(service.getChannelThumbUrl(null));
+        Assertions.assertEquals(0, channelRequests.size());
+        bumpPassedTests();
+    }
+
+    @Test
+    public void testFailedRequestReleasesWaiters() {
+        YoutubeMetadataService service = new YoutubeMetadataService(baseUrl, () -> "key", 60000, 100);
+        server.stop(0);
+
+        Assertions.assertThrows(RuntimeException.class, () -> service.getVideo("a"));
+        //nothing is left claimed, the next lookup tries again instead of waiting forever
+        CompletableFuture<YoutubeVideo> retry = CompletableFuture.supplyAsync(() -> service.getVideo("a"));
+        Assertions.assertThrows(ExecutionException.class, () -> retry.get(5, TimeUnit.SECONDS));
+        bumpPassedTests();
+    }
+
+    private static JSONObject video(String id) {
+        JSONObject snippet = new JSONObject()
+                .put("title", "Video " + id)
+                .put("description", "")
+                .put("channelId", "channel-" + id)
+                .put("channelTitle", "Channel " + id)
+                .put("liveBroadcastContent", "none");
+        return new JSONObject()
+                .put("id", id)
+                .put("snippet", snippet)
+                .put("contentDetails", new JSONObject().put("duration", "PT3M33S"));
+    }
+
+    private static String queryParam(HttpExchange exchange, String name) throws IOException {
+        for (String param : exchange.getRequestURI().getRawQuery().split("&")) {
+            String[] pair = param.split("=", 2);
+            if (pair[0].equals(name)) {
+                return URLDecoder.decode(pair[1], StandardCharsets.UTF_8.name());
+            }
+        }
+        return "";
+    }
+
+    private void respond(HttpExchange exchange, JSONObject body) throws IOException {
+        try {
+            Thread.sleep(responseDelayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}